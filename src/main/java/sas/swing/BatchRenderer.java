@@ -0,0 +1,421 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.event.ComponentListener;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.swing.JLabel;
+import javax.swing.border.Border;
+import javax.swing.plaf.LabelUI;
+
+import sas.swing.plaf.MultiLineLabelUI;
+
+/**
+ * Renders labels into images outside of the Swing component hierarchy, in
+ * parallel on a fork-join pool. Each image is painted by a
+ * {@link MultiLineLabel} exactly as it would be painted on screen, optionally
+ * on top of the background of a {@link GradientPanel}. Since the UI delegates
+ * keep scratch state between paints, every worker thread uses its own
+ * instance of each UI delegate, and its own label and panel, created once and
+ * reused for every image the thread renders. These components are never
+ * shown; they don't post component events to the event dispatch thread.
+ * <p>
+ * The renderer is intended for batch jobs generating captions or badges and
+ * is typically run in a headless JVM (<code>-Djava.awt.headless=true</code>).
+ * <p>
+ * Example of usage:
+ * 
+ * <pre>
+ * BatchRenderer renderer = new BatchRenderer();
+ * BatchRenderer.Spec spec = new BatchRenderer.Spec(&quot;Caption&quot;, font, 120, 40);
+ * spec.setUI(MultiLineShadowUI.class);
+ * spec.setGradient(Color.GRAY, Color.DARK_GRAY);
+ * List&lt;BufferedImage&gt; images = renderer.render(Arrays.asList(spec));
+ * renderer.shutdown();
+ * </pre>
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+public class BatchRenderer {
+
+    /** Number of specs rendered by a task without splitting it further. */
+    private static final int THRESHOLD = 4;
+
+    /** Components rendering the images of the current thread. */
+    private static final ThreadLocal<Components> components = new ThreadLocal<Components>() {
+        protected Components initialValue() {
+            return new Components();
+        }
+    };
+
+    /** The pool rendering the images. */
+    private final ForkJoinPool pool;
+
+    /** Flag telling if the pool was created by the renderer. */
+    private final boolean ownsPool;
+
+    /**
+     * Create a renderer using one thread per available processor. The threads
+     * are stopped by {@link #shutdown()}.
+     */
+    public BatchRenderer() {
+        this(new ForkJoinPool(), true);
+    }
+
+    /**
+     * Create a renderer using the given number of threads. The threads are
+     * stopped by {@link #shutdown()}.
+     * 
+     * @param parallelism
+     *            the number of threads
+     */
+    public BatchRenderer(int parallelism) {
+        this(new ForkJoinPool(parallelism), true);
+    }
+
+    /**
+     * Create a renderer using the passed pool. The pool is left running by
+     * {@link #shutdown()}.
+     * 
+     * @param pool
+     *            the pool rendering the images
+     */
+    public BatchRenderer(ForkJoinPool pool) {
+        this(pool, false);
+    }
+
+    /**
+     * Create a renderer.
+     * 
+     * @param pool
+     *            the pool rendering the images
+     * @param ownsPool
+     *            <code>true</code> if the pool is shut down with the renderer
+     */
+    private BatchRenderer(ForkJoinPool pool, boolean ownsPool) {
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+    }
+
+    /**
+     * Stop the threads of the renderer once the images being rendered are
+     * done. A pool passed to the renderer is left running. The renderer can't
+     * render any more images after it is shut down.
+     */
+    public void shutdown() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Get the number of threads used by the renderer.
+     * 
+     * @return the parallelism of the pool
+     */
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Render the specs in parallel.
+     * 
+     * @param specs
+     *            the labels to render
+     * @return the images, in the same order as the specs
+     */
+    public List<BufferedImage> render(List<Spec> specs) {
+        Spec[] s = specs.toArray(new Spec[specs.size()]);
+        BufferedImage[] images = new BufferedImage[s.length];
+        pool.invoke(new RenderTask(s, images, 0, s.length));
+        return Arrays.asList(images);
+    }
+
+    /**
+     * Render a single spec on the calling thread.
+     * 
+     * @param spec
+     *            the label to render
+     * @return the image
+     */
+    public static BufferedImage render(Spec spec) {
+        BufferedImage image = new BufferedImage(spec.width, spec.height,
+                BufferedImage.TYPE_INT_ARGB);
+        Components c = components.get();
+        Graphics2D g = image.createGraphics();
+        try {
+            if (spec.gradientStart != null) {
+                GradientPanel panel = c.getPanel();
+                panel.setColors(spec.gradientStart, spec.gradientEnd);
+                panel.setSize(spec.width, spec.height);
+                panel.paint(g);
+            }
+
+            Components.Slot slot = c.getSlot(spec.ui);
+            MultiLineLabel label = slot.label;
+            label.setFont(spec.font != null ? spec.font : slot.font);
+            label.setForeground(spec.foreground != null ? spec.foreground
+                    : slot.foreground);
+            label.setBorder(spec.border != null ? spec.border : slot.border);
+            label.setHorizontalTextAlignment(spec.halign);
+            label.setVerticalTextAlignment(spec.valign);
+            label.setText(spec.text);
+            label.setSize(spec.width, spec.height);
+            label.paint(g);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Stop a component from posting component events to the event dispatch
+     * thread, where its listeners would race with the thread painting it.
+     * The components of the renderer are never shown, and size dependent
+     * state is keyed on the size anyway.
+     * 
+     * @param c
+     *            the component
+     */
+    private static void detach(Component c) {
+        for (ComponentListener l : c.getComponentListeners()) {
+            c.removeComponentListener(l);
+        }
+    }
+
+    /**
+     * The label and panel of a thread, created when first needed.
+     */
+    private static final class Components {
+
+        /** Labels by UI delegate class. */
+        private final Map<Class<?>, Slot> slots = new HashMap<Class<?>, Slot>(
+                4);
+
+        /** The background panel. */
+        private GradientPanel panel;
+
+        GradientPanel getPanel() {
+            if (panel == null) {
+                panel = new GradientPanel(Color.GRAY, Color.DARK_GRAY);
+                detach(panel);
+            }
+            return panel;
+        }
+
+        Slot getSlot(Class<? extends LabelUI> type) {
+            Slot slot = slots.get(type);
+            if (slot == null) {
+                LabelUI ui;
+                try {
+                    ui = type.getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalArgumentException("Can't create " + type,
+                            e);
+                }
+                slot = new Slot(new MultiLineLabel(ui));
+                slots.put(type, slot);
+            }
+            return slot;
+        }
+
+        /**
+         * A label painted by a UI delegate of the thread, and its default
+         * properties.
+         */
+        static final class Slot {
+
+            final MultiLineLabel label;
+
+            final Font font;
+
+            final Color foreground;
+
+            final Border border;
+
+            Slot(MultiLineLabel label) {
+                this.label = label;
+                detach(label);
+                font = label.getFont();
+                foreground = label.getForeground();
+                border = label.getBorder();
+            }
+        }
+    }
+
+    /**
+     * Task rendering a range of specs, splitting the range in halves until it
+     * is small enough.
+     */
+    private static final class RenderTask extends RecursiveAction {
+
+        /** Default serial version UID. */
+        private static final long serialVersionUID = 1L;
+
+        private final Spec[] specs;
+
+        private final BufferedImage[] images;
+
+        private final int lo, hi;
+
+        RenderTask(Spec[] specs, BufferedImage[] images, int lo, int hi) {
+            this.specs = specs;
+            this.images = images;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        /** {@inheritDoc} */
+        protected void compute() {
+            if (hi - lo <= THRESHOLD) {
+                for (int i = lo; i < hi; i++) {
+                    images[i] = render(specs[i]);
+                }
+            } else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new RenderTask(specs, images, lo, mid),
+                        new RenderTask(specs, images, mid, hi));
+            }
+        }
+    }
+
+    /**
+     * Description of a label to render.
+     */
+    public static class Spec {
+
+        private final String text;
+
+        private final Font font;
+
+        private final int width;
+
+        private final int height;
+
+        private Class<? extends LabelUI> ui = MultiLineLabelUI.class;
+
+        private Color foreground;
+
+        private Color gradientStart;
+
+        private Color gradientEnd;
+
+        private Border border;
+
+        private int halign = JLabel.LEFT;
+
+        private int valign = JLabel.CENTER;
+
+        /**
+         * Create a new spec.
+         * 
+         * @param text
+         *            the label text
+         * @param font
+         *            the font, or <code>null</code> for the default label font
+         * @param width
+         *            image width
+         * @param height
+         *            image height
+         */
+        public Spec(String text, Font font, int width, int height) {
+            this.text = text;
+            this.font = font;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Set the UI delegate class painting the label. The class must have a
+         * public no-argument constructor. Defaults to {@link MultiLineLabelUI}.
+         * 
+         * @param ui
+         *            the UI delegate class
+         */
+        public void setUI(Class<? extends LabelUI> ui) {
+            this.ui = ui;
+        }
+
+        /**
+         * Set the text color.
+         * 
+         * @param foreground
+         *            the text color
+         */
+        public void setForeground(Color foreground) {
+            this.foreground = foreground;
+        }
+
+        /**
+         * Paint the label on top of a {@link GradientPanel} background. By
+         * default, the image background is transparent.
+         * 
+         * @param c1
+         *            start color
+         * @param c2
+         *            stop color
+         */
+        public void setGradient(Color c1, Color c2) {
+            this.gradientStart = c1;
+            this.gradientEnd = c2;
+        }
+
+        /**
+         * Set the border of the label.
+         * 
+         * @param border
+         *            the border
+         */
+        public void setBorder(Border border) {
+            this.border = border;
+        }
+
+        /**
+         * Set the text alignment.
+         * 
+         * @param horizontal
+         *            horizontal alignment
+         * @param vertical
+         *            vertical alignment
+         * @see MultiLineLabel#setHorizontalTextAlignment(int)
+         * @see MultiLineLabel#setVerticalTextAlignment(int)
+         */
+        public void setTextAlignment(int horizontal, int vertical) {
+            this.halign = horizontal;
+            this.valign = vertical;
+        }
+    }
+}
@@ -25,13 +25,23 @@ package sas.swing;
 
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
 
 import javax.swing.JPanel;
 
 import sas.swing.plaf.Effects.GradientPainter;
+import sas.swing.plaf.RepaintHeatMap;
 
 /**
  * Opaque component with a gradient background.
+ * <p>
+ * By default, the gradient is filled on every paint and the panel reports
+ * itself as transparent while painting, which keeps the panel UI from filling
+ * the background on top of the gradient. Panels with many frequently updated
+ * children should use a cached background instead, see
+ * {@link #setCachedBackground(boolean)}.
  * 
  * @author Samuel Sjoberg, http://samuelsjoberg.com
  * @version 1.0.0
@@ -47,6 +57,12 @@ public class GradientPanel extends JPanel {
     /** Flag used to keep track of times when the component is repainting. */
     private boolean isPainting;
 
+    /** Flag telling if the background is painted from a cached raster. */
+    private boolean cachedBackground;
+
+    /** The cached background raster. */
+    private transient BufferedImage background;
+
     /**
      * Create a new gradient background panel.
      * 
@@ -61,6 +77,50 @@ public class GradientPanel extends JPanel {
         painter = new GradientPainter(this, c1, c2);
     }
 
+    /**
+     * Set the gradient colors.
+     * 
+     * @param c1
+     *            start color
+     * @param c2
+     *            stop color
+     */
+    public void setColors(Color c1, Color c2) {
+        painter.setColors(c1, c2);
+        background = null;
+        repaint();
+    }
+
+    /**
+     * Paint the background from a cached raster of the gradient. The panel is
+     * then truly opaque, so a repaint of a child only repaints the panel
+     * below the dirty region (by copying that part of the raster) rather than
+     * its ancestors. The raster is kept at the size of the panel and takes 4
+     * bytes per pixel. The gradient is rendered into the raster in panel
+     * coordinates, so partial repaints (e.g., of a <code>JList</code>) match
+     * the rest of the background exactly. Defaults to <code>false</code>.
+     * 
+     * @param cached
+     *            <code>true</code> to cache the background
+     */
+    public void setCachedBackground(boolean cached) {
+        cachedBackground = cached;
+        if (!cached) {
+            background = null;
+        }
+        repaint();
+    }
+
+    /**
+     * Check if the background is painted from a cached raster.
+     * 
+     * @return <code>true</code> if the background is cached
+     * @see #setCachedBackground(boolean)
+     */
+    public boolean isCachedBackground() {
+        return cachedBackground;
+    }
+
     /** {@inheritDoc} */
     public boolean isOpaque() {
         if (isPainting) {
@@ -69,11 +129,64 @@ public class GradientPanel extends JPanel {
         return true;
     }
 
+    /** {@inheritDoc} */
+    public void addNotify() {
+        super.addNotify();
+        // The graphics configuration may have changed.
+        background = null;
+    }
+
     /** {@inheritDoc} */
     protected void paintComponent(Graphics g) {
+        long start = RepaintHeatMap.begin(this);
+        paintBackground(g);
+        if (start != 0) {
+            RepaintHeatMap.end(this, g, start);
+        }
+    }
+
+    /**
+     * Paint the gradient background, and the panel UI unless the background
+     * is cached.
+     * 
+     * @param g
+     *            the graphics to paint on
+     */
+    private void paintBackground(Graphics g) {
+        if (cachedBackground) {
+            // The panel UI is not invoked, since it would fill the background
+            // on top of the gradient of an opaque panel.
+            g.drawImage(getBackgroundRaster(), 0, 0, null);
+            return;
+        }
         isPainting = true;
         painter.paint(g, this);
         super.paintComponent(g);
         isPainting = false;
     }
+
+    /**
+     * Get the cached background raster, rendering it if the panel size has
+     * changed.
+     * 
+     * @return the background raster
+     */
+    private BufferedImage getBackgroundRaster() {
+        int w = Math.max(getWidth(), 1);
+        int h = Math.max(getHeight(), 1);
+        if (background == null || background.getWidth() != w
+                || background.getHeight() != h) {
+            GraphicsConfiguration gc = getGraphicsConfiguration();
+            background = gc != null ? gc.createCompatibleImage(w, h,
+                    Transparency.OPAQUE) : new BufferedImage(w, h,
+                    BufferedImage.TYPE_INT_RGB);
+            Graphics g = background.createGraphics();
+            try {
+                painter.paint(g, this);
+            } finally {
+                g.dispose();
+            }
+        }
+        return background;
+    }
 }
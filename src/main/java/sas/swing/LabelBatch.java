@@ -0,0 +1,280 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing;
+
+import java.awt.Container;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+import javax.swing.plaf.LabelUI;
+
+import sas.swing.plaf.MultiLineLabelUI;
+
+/**
+ * Batch of updates to many {@link MultiLineLabel}s. While a batch is open, the
+ * labels changed on the event dispatch thread (text, font, alignment and so
+ * on) neither revalidate nor repaint themselves. When the batch is committed,
+ * the texts of all changed labels are wrapped in one pass, in parallel if
+ * there are many of them, the labels are measured on the event dispatch
+ * thread and each parent container is revalidated and repainted once.
+ * <p>
+ * Batches must be opened and committed on the event dispatch thread. A batch
+ * opened while another is open joins the outer batch, which is applied when
+ * the outermost batch is committed.
+ * <p>
+ * Example of usage:
+ * 
+ * <pre>
+ * LabelBatch batch = LabelBatch.begin();
+ * try {
+ *     for (MultiLineLabel label : labels) {
+ *         label.setText(texts.get(label));
+ *     }
+ * } finally {
+ *     batch.commit();
+ * }
+ * </pre>
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+public final class LabelBatch {
+
+    /** Number of changed labels from which they are wrapped in parallel. */
+    private static final int PARALLEL_THRESHOLD = 64;
+
+    /** Number of labels wrapped by a task without splitting it further. */
+    private static final int TASK_SIZE = 16;
+
+    /** The open batch, only accessed on the event dispatch thread. */
+    private static LabelBatch current;
+
+    /** Pool wrapping large batches, created when first needed. */
+    private static ForkJoinPool pool;
+
+    /** The labels changed in the batch. */
+    private final Set<MultiLineLabel> labels = new LinkedHashSet<MultiLineLabel>();
+
+    /** Number of times the batch is opened and not yet committed. */
+    private int depth;
+
+    /** Private constructor, use {@link #begin()}. */
+    private LabelBatch() {
+    }
+
+    /**
+     * Open a batch, or join the batch already open.
+     * 
+     * @return the open batch
+     * @throws IllegalStateException
+     *             if not called on the event dispatch thread
+     */
+    public static LabelBatch begin() {
+        checkThread();
+        if (current == null) {
+            current = new LabelBatch();
+        }
+        current.depth++;
+        return current;
+    }
+
+    /**
+     * Commit the batch. When the outermost batch is committed, the changed
+     * labels are wrapped and their containers revalidated and repainted.
+     * 
+     * @throws IllegalStateException
+     *             if not called on the event dispatch thread, or if the batch
+     *             is already committed
+     */
+    public void commit() {
+        checkThread();
+        if (current != this) {
+            throw new IllegalStateException("Batch is already committed");
+        }
+        if (--depth > 0) {
+            return;
+        }
+        current = null;
+        if (!labels.isEmpty()) {
+            apply(labels.toArray(new MultiLineLabel[labels.size()]));
+        }
+    }
+
+    /**
+     * Check if a batch is open.
+     * 
+     * @return <code>true</code> if a batch is open on the event dispatch
+     *         thread
+     */
+    public static boolean isOpen() {
+        return current != null;
+    }
+
+    /**
+     * Defer the revalidation and repainting of a label to the open batch.
+     * 
+     * @param label
+     *            the changed label
+     * @return <code>true</code> if the label is part of an open batch and
+     *         must not revalidate or repaint itself
+     */
+    static boolean defer(MultiLineLabel label) {
+        if (current == null || !SwingUtilities.isEventDispatchThread()) {
+            return false;
+        }
+        current.labels.add(label);
+        return true;
+    }
+
+    /**
+     * Throw an exception unless on the event dispatch thread.
+     */
+    private static void checkThread() {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            throw new IllegalStateException(
+                    "Label batches must be used on the event dispatch thread");
+        }
+    }
+
+    /**
+     * Wrap the changed labels, then revalidate and repaint their containers.
+     * 
+     * @param changed
+     *            the changed labels
+     */
+    private static void apply(MultiLineLabel[] changed) {
+        if (changed.length >= PARALLEL_THRESHOLD
+                && Runtime.getRuntime().availableProcessors() > 1) {
+            // The texts are wrapped in parallel into the layout cache, where
+            // the labels then find their lines.
+            Runnable[] tasks = new Runnable[changed.length];
+            int count = 0;
+            for (MultiLineLabel label : changed) {
+                LabelUI ui = label.getUI();
+                if (ui instanceof MultiLineLabelUI) {
+                    Runnable task = ((MultiLineLabelUI) ui)
+                            .createMeasure(label);
+                    if (task != null) {
+                        tasks[count++] = task;
+                    }
+                }
+            }
+            getPool().invoke(new WrapTask(tasks, 0, count));
+        }
+        for (MultiLineLabel label : changed) {
+            LabelUI ui = label.getUI();
+            if (ui instanceof MultiLineLabelUI) {
+                ui.getPreferredSize(label);
+            }
+        }
+
+        Map<Container, Rectangle> dirty = new LinkedHashMap<Container, Rectangle>();
+        List<MultiLineLabel> orphans = new ArrayList<MultiLineLabel>();
+        for (MultiLineLabel label : changed) {
+            label.invalidate();
+            Container parent = label.getParent();
+            if (parent == null) {
+                orphans.add(label);
+                continue;
+            }
+            Rectangle bounds = label.getBounds();
+            Rectangle area = dirty.get(parent);
+            if (area == null) {
+                dirty.put(parent, new Rectangle(bounds));
+            } else {
+                area.add(bounds);
+            }
+        }
+        for (Map.Entry<Container, Rectangle> e : dirty.entrySet()) {
+            Container parent = e.getKey();
+            Rectangle area = e.getValue();
+            if (parent instanceof JComponent) {
+                ((JComponent) parent).revalidate();
+            } else {
+                parent.validate();
+            }
+            parent.repaint(area.x, area.y, area.width, area.height);
+        }
+        for (MultiLineLabel label : orphans) {
+            label.revalidate();
+            label.repaint();
+        }
+    }
+
+    /**
+     * Get the pool wrapping large batches.
+     * 
+     * @return the pool
+     */
+    private static ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+
+    /**
+     * Task wrapping the texts of a range of labels. The tasks only use the
+     * inputs read from the labels on the event dispatch thread, which is
+     * blocked while the task runs.
+     */
+    private static final class WrapTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Runnable[] tasks;
+
+        private final int lo;
+
+        private final int hi;
+
+        WrapTask(Runnable[] tasks, int lo, int hi) {
+            this.tasks = tasks;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        /** {@inheritDoc} */
+        protected void compute() {
+            if (hi - lo > TASK_SIZE) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new WrapTask(tasks, lo, mid), new WrapTask(tasks,
+                        mid, hi));
+                return;
+            }
+            for (int i = lo; i < hi; i++) {
+                tasks[i].run();
+            }
+        }
+    }
+}
@@ -24,8 +24,15 @@
 package sas.swing;
 
 import java.awt.Rectangle;
+import java.awt.datatransfer.StringSelection;
+import java.awt.event.ActionEvent;
 
+import javax.swing.AbstractAction;
+import javax.swing.Action;
+import javax.swing.InputMap;
 import javax.swing.JLabel;
+import javax.swing.KeyStroke;
+import javax.swing.plaf.LabelUI;
 
 import sas.swing.plaf.MultiLineLabelUI;
 
@@ -35,6 +42,17 @@ import sas.swing.plaf.MultiLineLabelUI;
  * {@link MultiLineLabelUI}, the default UI delegate of this component. The text
  * in the label can be horizontally and vertically aligned, relative to the
  * bounds of the component.
+ * <p>
+ * Changes to many labels can be grouped in a {@link LabelBatch} to revalidate
+ * and repaint them once.
+ * <p>
+ * Large texts that already live in a buffer, e.g. a <code>CharBuffer</code>
+ * over a memory mapped file, can be shown without copying them into a
+ * <code>String</code> with {@link #setTextSource(CharSequence)}.
+ * <p>
+ * The text of a label made selectable with {@link #setSelectable(boolean)}
+ * can be selected with the mouse and copied, like the text of a read-only
+ * text area.
  * 
  * @author Samuel Sjoberg, http://samuelsjoberg.com
  * @version 1.0.0
@@ -44,12 +62,58 @@ public class MultiLineLabel extends JLabel {
     /** Default serial version UID. */
     private static final long serialVersionUID = 1L;
 
+    /** Keystrokes copying the selected text. */
+    private static final KeyStroke[] COPY_KEYS = {
+            KeyStroke.getKeyStroke("ctrl C"), KeyStroke.getKeyStroke("meta C"),
+            KeyStroke.getKeyStroke("COPY") };
+
+    /** Keystrokes selecting all text. */
+    private static final KeyStroke[] SELECT_ALL_KEYS = {
+            KeyStroke.getKeyStroke("ctrl A"), KeyStroke.getKeyStroke("meta A") };
+
+    /** Action copying the selected text of the label it is invoked on. */
+    private static final Action COPY_ACTION = new AbstractAction("copy") {
+        private static final long serialVersionUID = 1L;
+
+        public void actionPerformed(ActionEvent e) {
+            ((MultiLineLabel) e.getSource()).copy();
+        }
+    };
+
+    /** Action selecting all text of the label it is invoked on. */
+    private static final Action SELECT_ALL_ACTION = new AbstractAction(
+            "select-all") {
+        private static final long serialVersionUID = 1L;
+
+        public void actionPerformed(ActionEvent e) {
+            ((MultiLineLabel) e.getSource()).selectAll();
+        }
+    };
+
     /** Horizontal text alignment. */
     private int halign = LEFT;
 
     /** Vertical text alignment. */
     private int valign = CENTER;
 
+    /** Maximum number of lines shown, 0 if not limited. */
+    private int maxLines;
+
+    /** Flag telling if the font is shrunk for the text to fit. */
+    private boolean autoFit;
+
+    /** Smallest font size the text is shrunk to. */
+    private float minimumFitSize = 6f;
+
+    /** Characters shown instead of the text, or <code>null</code>. */
+    private CharSequence textSource;
+
+    /** Flag telling if the text can be selected. */
+    private boolean selectable;
+
+    /** Start and end offsets of the selected text. */
+    private int selectionStart, selectionEnd;
+
     /** Cache to save heap allocations. */
     private Rectangle bounds;
 
@@ -57,8 +121,20 @@ public class MultiLineLabel extends JLabel {
      * Creates a new empty label.
      */
     public MultiLineLabel() {
+        this(MultiLineLabelUI.labelUI);
+    }
+
+    /**
+     * Creates a new empty label painted by the passed UI delegate, instead of
+     * the shared {@link MultiLineLabelUI#labelUI}. Labels painted off the
+     * event dispatch thread must use a delegate of their own thread.
+     * 
+     * @param ui
+     *            the UI delegate
+     */
+    public MultiLineLabel(LabelUI ui) {
         super();
-        setUI(MultiLineLabelUI.labelUI);
+        setUI(ui);
     }
 
     /**
@@ -72,6 +148,183 @@ public class MultiLineLabel extends JLabel {
         setText(text);
     }
 
+    /**
+     * Set the text of the label. Any text source is replaced by the text.
+     * 
+     * @param text
+     *            the text
+     */
+    public void setText(String text) {
+        CharSequence old = textSource;
+        textSource = null;
+        selectionStart = selectionEnd = 0;
+        super.setText(text);
+        if (old != null) {
+            firePropertyChange("textSource", old, null);
+        }
+    }
+
+    /**
+     * Set the characters shown by the label. The characters are wrapped and
+     * painted directly from the source, paragraph by paragraph, without
+     * copying the whole text. While a source is set, {@link #getText()}
+     * returns <code>null</code>. A <code>String</code> source is set as the
+     * text of the label.
+     * <p>
+     * If the characters of the source change, call
+     * {@link #textSourceChanged()} on the event dispatch thread. The
+     * characters must not change while the label may read them, including the
+     * background wrapping of a long text.
+     * 
+     * @param source
+     *            the characters to show, or <code>null</code>
+     */
+    public void setTextSource(CharSequence source) {
+        if (source == null || source instanceof String) {
+            setText((String) source);
+            return;
+        }
+        CharSequence old = textSource;
+        super.setText(null);
+        textSource = source;
+        selectionStart = selectionEnd = 0;
+        firePropertyChange("textSource", old, source);
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Get the characters shown by the label: the text source if set,
+     * otherwise the text.
+     * 
+     * @return the characters shown, or <code>null</code>
+     */
+    public CharSequence getTextSource() {
+        return textSource != null ? textSource : getText();
+    }
+
+    /**
+     * Notify the label that the characters of its text source have changed.
+     * The text is wrapped again and the label revalidated and repainted.
+     */
+    public void textSourceChanged() {
+        if (textSource != null) {
+            // Old and new values are the same object, fire them as unknown.
+            firePropertyChange("textSource", null, null);
+            revalidate();
+            repaint();
+        }
+    }
+
+    /**
+     * Let the user select text with the mouse, and copy it with Ctrl-C (or
+     * Command-C) when the label has the focus. Defaults to <code>false</code>.
+     * 
+     * @param selectable
+     *            <code>true</code> to make the text selectable
+     */
+    public void setSelectable(boolean selectable) {
+        boolean old = this.selectable;
+        this.selectable = selectable;
+        InputMap keys = getInputMap();
+        for (KeyStroke key : COPY_KEYS) {
+            keys.put(key, selectable ? "copy" : null);
+        }
+        for (KeyStroke key : SELECT_ALL_KEYS) {
+            keys.put(key, selectable ? "select-all" : null);
+        }
+        getActionMap().put("copy", selectable ? COPY_ACTION : null);
+        getActionMap().put("select-all", selectable ? SELECT_ALL_ACTION : null);
+        if (!selectable) {
+            select(0, 0);
+        }
+        firePropertyChange("selectable", old, selectable);
+    }
+
+    /**
+     * Check if the text can be selected.
+     * 
+     * @return <code>true</code> if the text is selectable
+     */
+    public boolean isSelectable() {
+        return selectable;
+    }
+
+    /**
+     * Select text. The offsets are clamped to the text and ordered. Only the
+     * lines whose selection changes are repainted.
+     * 
+     * @param start
+     *            offset of the first character selected
+     * @param end
+     *            offset after the last character selected
+     */
+    public void select(int start, int end) {
+        int length = getTextLength();
+        start = Math.max(0, Math.min(start, length));
+        end = Math.max(0, Math.min(end, length));
+        int oldStart = selectionStart;
+        int oldEnd = selectionEnd;
+        selectionStart = Math.min(start, end);
+        selectionEnd = Math.max(start, end);
+        firePropertyChange("selectionStart", oldStart, selectionStart);
+        firePropertyChange("selectionEnd", oldEnd, selectionEnd);
+    }
+
+    /**
+     * Select all text.
+     */
+    public void selectAll() {
+        select(0, getTextLength());
+    }
+
+    /**
+     * Get the offset of the first character selected.
+     * 
+     * @return the selection start
+     */
+    public int getSelectionStart() {
+        return Math.min(selectionStart, getTextLength());
+    }
+
+    /**
+     * Get the offset after the last character selected.
+     * 
+     * @return the selection end
+     */
+    public int getSelectionEnd() {
+        return Math.min(selectionEnd, getTextLength());
+    }
+
+    /**
+     * Get the selected text.
+     * 
+     * @return the selected text, or <code>null</code> if no text is selected
+     */
+    public String getSelectedText() {
+        int start = getSelectionStart();
+        int end = getSelectionEnd();
+        return start < end ? getTextSource().subSequence(start, end)
+                .toString() : null;
+    }
+
+    /**
+     * Copy the selected text to the system clipboard. Does nothing if no text
+     * is selected.
+     */
+    public void copy() {
+        String text = getSelectedText();
+        if (text != null) {
+            StringSelection contents = new StringSelection(text);
+            getToolkit().getSystemClipboard().setContents(contents, contents);
+        }
+    }
+
+    private int getTextLength() {
+        CharSequence text = getTextSource();
+        return text != null ? text.length() : 0;
+    }
+
     /** {@inheritDoc} */
     public Rectangle getBounds() {
         if (bounds == null) {
@@ -80,6 +333,109 @@ public class MultiLineLabel extends JLabel {
         return super.getBounds(bounds);
     }
 
+    /**
+     * Revalidate the label, unless it is part of an open {@link LabelBatch}.
+     */
+    public void revalidate() {
+        if (!LabelBatch.defer(this)) {
+            super.revalidate();
+        }
+    }
+
+    /**
+     * Repaint the label, unless it is part of an open {@link LabelBatch}.
+     */
+    public void repaint(long tm, int x, int y, int width, int height) {
+        if (!LabelBatch.defer(this)) {
+            super.repaint(tm, x, y, width, height);
+        }
+    }
+
+    /**
+     * Set the maximum number of lines shown. If the text wraps into more
+     * lines, the last line shown ends with a clip indication. Wrapping stops
+     * as soon as it is known that the text doesn't fit, so the cost of
+     * wrapping a long text is bounded by the lines shown.
+     * 
+     * @param maxLines
+     *            the maximum number of lines, or 0 to show as many lines as
+     *            fit (the default)
+     */
+    public void setMaxLines(int maxLines) {
+        int old = this.maxLines;
+        this.maxLines = Math.max(maxLines, 0);
+        firePropertyChange("maxLines", old, this.maxLines);
+        if (old != this.maxLines) {
+            revalidate();
+            repaint();
+        }
+    }
+
+    /**
+     * Get the maximum number of lines shown.
+     * 
+     * @return the maximum number of lines, 0 if not limited
+     */
+    public int getMaxLines() {
+        return maxLines;
+    }
+
+    /**
+     * Set if the font is shrunk for the text to fit the label. The text is
+     * painted with the largest size, from the size of the font of the label
+     * down to the minimum fit size, at which the wrapped text fits the bounds
+     * of the label. If the text doesn't fit at the minimum size either, it is
+     * painted clipped at that size. The preferred size of the label is still
+     * computed with the font of the label.
+     * 
+     * @param autoFit
+     *            <code>true</code> to fit the text, <code>false</code> to paint
+     *            it with the font of the label (the default)
+     * @see #setMinimumFitSize(float)
+     */
+    public void setAutoFit(boolean autoFit) {
+        boolean old = this.autoFit;
+        this.autoFit = autoFit;
+        firePropertyChange("autoFit", old, autoFit);
+        if (old != autoFit) {
+            repaint();
+        }
+    }
+
+    /**
+     * Check if the font is shrunk for the text to fit the label.
+     * 
+     * @return <code>true</code> if the text is fitted
+     */
+    public boolean isAutoFit() {
+        return autoFit;
+    }
+
+    /**
+     * Set the smallest font size the text is shrunk to when fitted.
+     * 
+     * @param size
+     *            the size in points, 6 by default
+     * @see #setAutoFit(boolean)
+     */
+    public void setMinimumFitSize(float size) {
+        float old = minimumFitSize;
+        minimumFitSize = Math.max(size, 1f);
+        firePropertyChange("minimumFitSize", old, minimumFitSize);
+        if (old != minimumFitSize && autoFit) {
+            repaint();
+        }
+    }
+
+    /**
+     * Get the smallest font size the text is shrunk to when fitted.
+     * 
+     * @return the size in points
+     */
+    public float getMinimumFitSize() {
+        return minimumFitSize;
+    }
+
     /**
      * Set the vertical text alignment.
      * 
@@ -0,0 +1,362 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.font.FontRenderContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.JLabel;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.plaf.LabelUI;
+
+import sas.swing.plaf.LayoutCache;
+import sas.swing.plaf.MultiLineLabelUI;
+
+/**
+ * Prefetcher of the layouts of labels about to be scrolled into view. The
+ * prefetcher follows the scroll direction and speed of a viewport. Labels
+ * with a {@link MultiLineLabelUI} that lie ahead of the visible area, as far
+ * as the viewport scrolls in about half a second, are wrapped on a background
+ * thread. The lines are added to the shared {@link LayoutCache}, so the first
+ * paint of a label scrolled into view doesn't have to wrap it.
+ * <p>
+ * Labels are wrapped for the font render context the visible labels are
+ * painted with, so nothing is prefetched until a label in the viewport has
+ * been painted. When the scroll direction reverses, the prefetches not yet
+ * started are dropped.
+ * <p>
+ * Example of usage:
+ * 
+ * <pre>
+ * JScrollPane scroll = new JScrollPane(feed);
+ * ScrollPrefetcher.install(scroll.getViewport());
+ * </pre>
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+public final class ScrollPrefetcher implements ChangeListener {
+
+    /** Time of scrolling at the current speed prefetched, in seconds. */
+    private static final double LOOKAHEAD = 0.5;
+
+    /** Maximum distance prefetched, in viewport heights (or widths). */
+    private static final int MAX_PAGES = 3;
+
+    /** Time without scrolling after which the speed is measured anew. */
+    private static final long GESTURE_GAP = 250000000L;
+
+    /** Maximum number of labels queued for each scroll. */
+    private static final int MAX_QUEUED = 64;
+
+    /** Thread wrapping the labels, created when first needed. */
+    private static ExecutorService executor;
+
+    /** The viewport. */
+    private final JViewport viewport;
+
+    /** Labels queued and not yet wrapped. */
+    private final Set<JLabel> pending = Collections
+            .newSetFromMap(new WeakHashMap<JLabel, Boolean>());
+
+    /** Incremented to drop the queued prefetches. */
+    private final AtomicInteger generation = new AtomicInteger();
+
+    /** View position at the last scroll. */
+    private Point position;
+
+    /** Time of the last scroll. */
+    private long time;
+
+    /** Scroll speed, in pixels per second. */
+    private double vx, vy;
+
+    /** Font render context the visible labels are painted with. */
+    private FontRenderContext frc;
+
+    /**
+     * Create a new prefetcher.
+     * 
+     * @param viewport
+     *            the viewport to follow
+     */
+    private ScrollPrefetcher(JViewport viewport) {
+        this.viewport = viewport;
+        position = viewport.getViewPosition();
+        time = System.nanoTime();
+    }
+
+    /**
+     * Start prefetching the layouts of the labels in a viewport.
+     * 
+     * @param viewport
+     *            the viewport, e.g. of a scroll pane
+     * @return the prefetcher, to {@link #uninstall()} it
+     */
+    public static ScrollPrefetcher install(JViewport viewport) {
+        ScrollPrefetcher prefetcher = new ScrollPrefetcher(viewport);
+        viewport.addChangeListener(prefetcher);
+        return prefetcher;
+    }
+
+    /**
+     * Stop prefetching. Queued prefetches are dropped.
+     */
+    public void uninstall() {
+        viewport.removeChangeListener(this);
+        generation.incrementAndGet();
+        pending.clear();
+    }
+
+    /**
+     * Invoked when the viewport scrolls or resizes.
+     * 
+     * @param e
+     *            the change event
+     */
+    public void stateChanged(ChangeEvent e) {
+        Point p = viewport.getViewPosition();
+        long now = System.nanoTime();
+        long dt = now - time;
+        if (dt > 0 && !p.equals(position)) {
+            double sx = (p.x - position.x) * 1e9 / dt;
+            double sy = (p.y - position.y) * 1e9 / dt;
+            if (Math.signum(sx) * Math.signum(vx) < 0
+                    || Math.signum(sy) * Math.signum(vy) < 0) {
+                // Reversed, the labels queued are no longer ahead.
+                generation.incrementAndGet();
+                pending.clear();
+            }
+            if (dt > GESTURE_GAP) {
+                vx = sx;
+                vy = sy;
+            } else {
+                vx = (vx + sx) / 2;
+                vy = (vy + sy) / 2;
+            }
+            position = p;
+            time = now;
+            prefetch();
+        }
+    }
+
+    /**
+     * Queue the labels ahead of the visible area.
+     */
+    private void prefetch() {
+        Component view = viewport.getView();
+        if (!(view instanceof Container)) {
+            return;
+        }
+        final Rectangle visible = viewport.getViewRect();
+        Rectangle ahead = new Rectangle(visible);
+        extend(ahead, vx * LOOKAHEAD, visible.width, true);
+        extend(ahead, vy * LOOKAHEAD, visible.height, false);
+
+        List<JLabel> labels = new ArrayList<JLabel>();
+        collect((Container) view, ahead, visible, labels);
+        if (frc == null || labels.isEmpty()) {
+            return;
+        }
+
+        // Nearest first, they are scrolled into view first.
+        final Point center = new Point((int) visible.getCenterX(),
+                (int) visible.getCenterY());
+        Collections.sort(labels, new Comparator<JLabel>() {
+            public int compare(JLabel a, JLabel b) {
+                return Double.compare(distance(a), distance(b));
+            }
+
+            private double distance(JLabel l) {
+                Rectangle r = SwingUtilities.convertRectangle(l.getParent(),
+                        l.getBounds(), viewport.getView());
+                return Point.distanceSq(r.getCenterX(), r.getCenterY(),
+                        center.x, center.y);
+            }
+        });
+
+        int queued = 0;
+        for (JLabel label : labels) {
+            if (queued == MAX_QUEUED) {
+                break;
+            }
+            if (pending.contains(label)) {
+                continue;
+            }
+            MultiLineLabelUI ui = (MultiLineLabelUI) label.getUI();
+            Runnable task = ui.createPrefetch(label, frc);
+            if (task != null) {
+                pending.add(label);
+                getExecutor().execute(
+                        new Prefetch(task, label, generation.get()));
+                queued++;
+            }
+        }
+    }
+
+    /**
+     * Extend an area in the scroll direction along one axis.
+     * 
+     * @param r
+     *            the area
+     * @param distance
+     *            the signed distance scrolled in the lookahead time
+     * @param page
+     *            the size of the viewport along the axis
+     * @param horizontal
+     *            <code>true</code> for the x axis
+     */
+    private static void extend(Rectangle r, double distance, int page,
+            boolean horizontal) {
+        if (distance == 0) {
+            return;
+        }
+        int d = (int) Math.min(Math.max(Math.abs(distance), page / 2),
+                (long) MAX_PAGES * page);
+        if (horizontal) {
+            r.width += d;
+            if (distance < 0) {
+                r.x -= d;
+            }
+        } else {
+            r.height += d;
+            if (distance < 0) {
+                r.y -= d;
+            }
+        }
+    }
+
+    /**
+     * Collect the labels within an area that aren't visible, and find the
+     * font render context of the visible ones.
+     * 
+     * @param c
+     *            the container to search
+     * @param area
+     *            the area, in the coordinates of the container
+     * @param visible
+     *            the visible area, in the coordinates of the container
+     * @param labels
+     *            list to add the labels to
+     */
+    private void collect(Container c, Rectangle area, Rectangle visible,
+            List<JLabel> labels) {
+        for (Component child : c.getComponents()) {
+            if (!child.isVisible()) {
+                continue;
+            }
+            Rectangle bounds = child.getBounds();
+            if (!bounds.intersects(area)) {
+                continue;
+            }
+            LabelUI ui = child instanceof JLabel ? ((JLabel) child).getUI()
+                    : null;
+            if (ui instanceof MultiLineLabelUI) {
+                JLabel label = (JLabel) child;
+                if (!bounds.intersects(visible)) {
+                    labels.add(label);
+                } else if (frc == null) {
+                    frc = ((MultiLineLabelUI) ui)
+                            .getPaintFontRenderContext(label);
+                }
+            } else if (child instanceof Container) {
+                area.translate(-bounds.x, -bounds.y);
+                visible.translate(-bounds.x, -bounds.y);
+                collect((Container) child, area, visible, labels);
+                area.translate(bounds.x, bounds.y);
+                visible.translate(bounds.x, bounds.y);
+            }
+        }
+    }
+
+    /**
+     * Get the thread wrapping the labels.
+     * 
+     * @return the executor
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ScrollPrefetcher");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.NORM_PRIORITY - 1);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Prefetch of one label, dropped if the queue was dropped before it
+     * started.
+     */
+    private final class Prefetch implements Runnable {
+
+        private final Runnable task;
+
+        private final JLabel label;
+
+        private final int queuedIn;
+
+        Prefetch(Runnable task, JLabel label, int queuedIn) {
+            this.task = task;
+            this.label = label;
+            this.queuedIn = queuedIn;
+        }
+
+        /** {@inheritDoc} */
+        public void run() {
+            if (generation.get() != queuedIn) {
+                return;
+            }
+            try {
+                task.run();
+            } finally {
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        pending.remove(label);
+                    }
+                });
+            }
+        }
+    }
+}
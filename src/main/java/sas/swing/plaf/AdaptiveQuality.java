@@ -0,0 +1,270 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing.plaf;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.swing.JComponent;
+import javax.swing.Timer;
+
+/**
+ * Adaptive paint quality of text effects. When enabled, the shadow UI
+ * delegates track how long each label takes to paint at full quality. If a
+ * label is repainted again within the idle delay (e.g., during live resize
+ * or fast scrolling) and its full quality paint exceeds the budget, the
+ * effect is replaced by a single offset shadow without antialiasing. Once
+ * the label has not been painted for the idle delay, it is repainted at full
+ * quality.
+ * <p>
+ * Only labels that are showing adapt; offscreen rendering such as
+ * {@link sas.swing.BatchRenderer} always paints at full quality.
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+public final class AdaptiveQuality {
+
+    /** Client property holding the paint record of a label. */
+    private static final String RECORD_KEY = "AdaptiveQuality.record";
+
+    /** Color of the reduced shadow. */
+    private static final Color REDUCED_SHADOW = new Color(0, 0, 0, 0x66);
+
+    /** Flag telling if the paint quality adapts. */
+    private static volatile boolean enabled;
+
+    /** Budget of a label paint, in nanoseconds. */
+    private static volatile long budget = 2000000L;
+
+    /** Delay without repaints before a label is painted at full quality. */
+    private static volatile int idleDelay = 200;
+
+    /** Labels painted at reduced quality since the last idle repaint. */
+    private final Set<JComponent> reduced = Collections
+            .newSetFromMap(new WeakHashMap<JComponent, Boolean>());
+
+    /** Timer repainting the reduced labels when idle. */
+    private Timer timer;
+
+    /**
+     * Create a new tracker. Each UI instance owns one.
+     */
+    AdaptiveQuality() {
+    }
+
+    /**
+     * Enable or disable adaptive paint quality.
+     * 
+     * @param enabled
+     *            <code>true</code> to reduce the effect quality under frame
+     *            time pressure, <code>false</code> to always paint at full
+     *            quality (the default)
+     */
+    public static void setEnabled(boolean enabled) {
+        AdaptiveQuality.enabled = enabled;
+    }
+
+    /**
+     * Check if the paint quality adapts.
+     * 
+     * @return <code>true</code> if adaptive paint quality is enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Set the budget of a label paint. Labels whose full quality paint takes
+     * longer are painted at reduced quality while repainted frequently.
+     * 
+     * @param micros
+     *            the budget in microseconds, 2000 by default
+     */
+    public static void setBudget(int micros) {
+        budget = micros * 1000L;
+    }
+
+    /**
+     * Get the budget of a label paint.
+     * 
+     * @return the budget in microseconds
+     */
+    public static int getBudget() {
+        return (int) (budget / 1000L);
+    }
+
+    /**
+     * Set the delay without repaints after which a label is considered idle.
+     * Idle labels are painted at full quality.
+     * 
+     * @param millis
+     *            the delay in milliseconds, 200 by default
+     */
+    public static void setIdleDelay(int millis) {
+        idleDelay = millis;
+    }
+
+    /**
+     * Get the delay without repaints after which a label is considered idle.
+     * 
+     * @return the delay in milliseconds
+     */
+    public static int getIdleDelay() {
+        return idleDelay;
+    }
+
+    /**
+     * Decide the quality of a paint that is about to start.
+     * 
+     * @param c
+     *            the component to paint
+     * @return <code>true</code> if the paint should be of reduced quality
+     */
+    boolean begin(JComponent c) {
+        if (!enabled || !c.isShowing()) {
+            return false;
+        }
+        Record record = (Record) c.getClientProperty(RECORD_KEY);
+        if (record == null) {
+            record = new Record();
+            c.putClientProperty(RECORD_KEY, record);
+        }
+        long now = System.nanoTime();
+        boolean busy = now - record.lastPaint < idleDelay * 1000000L;
+        record.lastPaint = now;
+        if (record.fullQuality) {
+            record.fullQuality = false;
+            return false;
+        }
+        return busy && record.estimate > budget;
+    }
+
+    /**
+     * Record a finished paint.
+     * 
+     * @param c
+     *            the painted component
+     * @param reducedQuality
+     *            <code>true</code> if the paint was of reduced quality
+     * @param nanos
+     *            the duration of the paint
+     */
+    void end(JComponent c, boolean reducedQuality, long nanos) {
+        Record record = (Record) c.getClientProperty(RECORD_KEY);
+        if (record == null) {
+            return;
+        }
+        if (reducedQuality) {
+            reduced.add(c);
+            restartTimer();
+        } else {
+            record.estimate = record.estimate == 0 ? nanos
+                    : (3 * record.estimate + nanos) / 4;
+        }
+    }
+
+    /**
+     * Restart the timer repainting the reduced labels.
+     */
+    private void restartTimer() {
+        if (timer == null) {
+            timer = new Timer(idleDelay, new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    repaintReduced();
+                }
+            });
+            timer.setRepeats(false);
+        }
+        timer.setInitialDelay(idleDelay);
+        timer.restart();
+    }
+
+    /**
+     * Repaint the labels painted at reduced quality, at full quality.
+     */
+    private void repaintReduced() {
+        List<JComponent> components = new ArrayList<JComponent>(reduced);
+        reduced.clear();
+        for (JComponent c : components) {
+            Record record = (Record) c.getClientProperty(RECORD_KEY);
+            if (record != null) {
+                record.fullQuality = true;
+                c.repaint();
+            }
+        }
+    }
+
+    /**
+     * Paint a string with a single offset shadow and no antialiasing. The
+     * color and antialiasing hint of the graphics are restored afterwards.
+     * 
+     * @param g
+     *            graphics to paint on
+     * @param s
+     *            the string to paint
+     * @param x
+     *            the x coordinate of the text
+     * @param y
+     *            the y coordinate of the text baseline
+     */
+    static void paintReduced(Graphics2D g, String s, int x, int y) {
+        Object antialiasing = g
+                .getRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+        Color color = g.getColor();
+        g.setColor(REDUCED_SHADOW);
+        g.drawString(s, x, y + 1);
+        g.setColor(color);
+        g.drawString(s, x, y);
+        if (antialiasing != null) {
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                    antialiasing);
+        }
+    }
+
+    /**
+     * Paint record of a label.
+     */
+    private static final class Record {
+
+        /** Time of the most recent paint. */
+        long lastPaint = System.nanoTime() - Long.MAX_VALUE / 2;
+
+        /** Moving average of the full quality paint duration. */
+        long estimate;
+
+        /** Flag telling if the next paint must be of full quality. */
+        boolean fullQuality;
+    }
+}
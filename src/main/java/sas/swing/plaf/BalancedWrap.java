@@ -0,0 +1,269 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing.plaf;
+
+import java.awt.FontMetrics;
+
+import javax.swing.text.Segment;
+
+/**
+ * Balanced line breaking of a paragraph. The breaks minimize the sum of the
+ * squared space left at the end of every line, the last line included, so
+ * the lines of a wrapped headline get about the same width instead of ending
+ * with a short last line.
+ * <p>
+ * The paragraph is broken at whitespace only. The optimal breaks are found
+ * in linear time over the widths of the words, measured once, with the SMAWK
+ * algorithm for totally monotone matrices: the cost of a line is a convex
+ * function of its width, which makes the matrix of the costs of ending a line
+ * at word <code>j</code> after a break at word <code>i</code> monotone. The
+ * rows are processed in blocks of doubling size so that the minima of a block
+ * are known before the costs depending on them are evaluated.
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+final class BalancedWrap {
+
+    /** Cost per pixel of a line wider than the wrap width. */
+    private static final long OVERFLOW = 1L << 32;
+
+    /** Cost of a break not yet reached, larger than any real cost. */
+    private static final long UNREACHED = Long.MAX_VALUE / 2;
+
+    /**
+     * Width of the words from the first word up to (but excluding) word
+     * <code>k</code>, including the space after each word.
+     */
+    private final long[] offsets;
+
+    /** Width of the space after each word. */
+    private final int[] spaces;
+
+    /** The wrap width. */
+    private final int width;
+
+    /** Minimum cost of a paragraph ending at each word. */
+    private final long[] minima;
+
+    /** The break before the last line of the minimum cost paragraph. */
+    private final int[] breaks;
+
+    private BalancedWrap(long[] offsets, int[] spaces, int width) {
+        this.offsets = offsets;
+        this.spaces = spaces;
+        this.width = width;
+        minima = new long[offsets.length];
+        breaks = new int[offsets.length];
+        for (int i = 1; i < minima.length; i++) {
+            minima[i] = UNREACHED;
+        }
+    }
+
+    /**
+     * Find the balanced breaks of a paragraph.
+     * 
+     * @param s
+     *            the characters of the paragraph
+     * @param fm
+     *            font metrics used to measure the text
+     * @param width
+     *            the width to wrap the text to
+     * @return the indices, in the array of the segment, at which each line
+     *         starts, or <code>null</code> if the paragraph has a word wider
+     *         than the wrap width
+     */
+    static int[] breaks(Segment s, FontMetrics fm, int width) {
+        char[] a = s.array;
+        int end = s.offset + s.count;
+
+        // Find the words, whitespace before the first word belongs to it.
+        int count = 0;
+        int[] starts = new int[16];
+        for (int i = s.offset; i < end; i++) {
+            if (!Character.isWhitespace(a[i])
+                    && (i == s.offset || Character.isWhitespace(a[i - 1]))) {
+                if (count == starts.length) {
+                    int[] grown = new int[2 * count];
+                    System.arraycopy(starts, 0, grown, 0, count);
+                    starts = grown;
+                }
+                starts[count++] = i;
+            }
+        }
+        if (count <= 1) {
+            return new int[] { s.offset };
+        }
+        starts[0] = s.offset;
+
+        // Measure the words and the space after them.
+        long[] offsets = new long[count + 1];
+        int[] spaces = new int[count];
+        for (int k = 0; k < count; k++) {
+            int p0 = starts[k];
+            int p1 = k + 1 < count ? starts[k + 1] : end;
+            int q = p1;
+            while (q > p0 && Character.isWhitespace(a[q - 1])) {
+                q--;
+            }
+            int word = charsWidth(fm, a, p0, q);
+            if (word > width) {
+                return null;
+            }
+            spaces[k] = charsWidth(fm, a, q, p1);
+            offsets[k + 1] = offsets[k] + word + spaces[k];
+        }
+        if (offsets[count] - spaces[count - 1] <= width) {
+            return new int[] { s.offset }; // Fits on one line.
+        }
+
+        BalancedWrap wrap = new BalancedWrap(offsets, spaces, width);
+        wrap.solve();
+
+        int lines = 0;
+        for (int j = count; j > 0; j = wrap.breaks[j]) {
+            lines++;
+        }
+        int[] result = new int[lines];
+        for (int j = count; j > 0; j = wrap.breaks[j]) {
+            result[--lines] = starts[wrap.breaks[j]];
+        }
+        return result;
+    }
+
+    /**
+     * Cost of a paragraph ending at word <code>j</code>, whose last line
+     * starts at word <code>i</code>.
+     */
+    private long cost(int i, int j) {
+        long w = offsets[j] - offsets[i] - spaces[j - 1];
+        if (w > width) {
+            return OVERFLOW * (w - width);
+        }
+        long slack = width - w;
+        return minima[i] + slack * slack;
+    }
+
+    /**
+     * Compute the minimum costs and breaks of every prefix of the paragraph.
+     */
+    private void solve() {
+        int n = offsets.length;
+        int i = 0;
+        int offset = 0;
+        while (true) {
+            int r = Math.min(n, 1 << (i + 1));
+            int edge = (1 << i) + offset;
+            smawk(range(offset, edge), edge - offset, range(edge, r + offset),
+                    r + offset - edge);
+            long x = minima[r - 1 + offset];
+            boolean restart = false;
+            for (int j = 1 << i; j < r - 1; j++) {
+                if (cost(j + offset, r - 1 + offset) <= x) {
+                    // A later break beats the block, start over from it.
+                    n -= j;
+                    i = 0;
+                    offset += j;
+                    restart = true;
+                    break;
+                }
+            }
+            if (!restart) {
+                if (r == n) {
+                    break;
+                }
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Find the minimum cost row of each column, updating the minima and
+     * breaks of the columns.
+     */
+    private void smawk(int[] rows, int rowCount, int[] columns,
+            int columnCount) {
+        // Reduce the rows to at most one per column.
+        int[] stack = new int[columnCount];
+        int size = 0;
+        for (int i = 0; i < rowCount;) {
+            if (size > 0) {
+                int c = columns[size - 1];
+                if (cost(stack[size - 1], c) < cost(rows[i], c)) {
+                    if (size < columnCount) {
+                        stack[size++] = rows[i];
+                    }
+                    i++;
+                } else {
+                    size--;
+                }
+            } else {
+                stack[size++] = rows[i++];
+            }
+        }
+
+        // Solve the odd columns, then the even columns between them.
+        if (columnCount > 1) {
+            int[] odd = new int[columnCount / 2];
+            for (int k = 0; k < odd.length; k++) {
+                odd[k] = columns[2 * k + 1];
+            }
+            smawk(stack, size, odd, odd.length);
+        }
+        for (int i = 0, j = 0; j < columnCount;) {
+            int end = j + 1 < columnCount ? breaks[columns[j + 1]]
+                    : stack[size - 1];
+            long c = cost(stack[i], columns[j]);
+            if (c < minima[columns[j]]) {
+                minima[columns[j]] = c;
+                breaks[columns[j]] = stack[i];
+            }
+            if (stack[i] < end) {
+                i++;
+            } else {
+                j += 2;
+            }
+        }
+    }
+
+    /**
+     * Measure characters by their advances, which the font metrics cache.
+     */
+    private static int charsWidth(FontMetrics fm, char[] a, int begin,
+            int end) {
+        int w = 0;
+        for (int i = begin; i < end; i++) {
+            w += fm.charWidth(a[i]);
+        }
+        return w;
+    }
+
+    private static int[] range(int from, int to) {
+        int[] range = new int[Math.max(to - from, 0)];
+        for (int k = 0; k < range.length; k++) {
+            range[k] = from + k;
+        }
+        return range;
+    }
+}
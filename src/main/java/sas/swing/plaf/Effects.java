@@ -50,6 +50,83 @@ public final class Effects {
     /** Text drop shadow size. */
     public static final int TEXT_SHADOW_SIZE = 2;
 
+    /** Effect "darkness". */
+    private static final float EFFECT_OPACITY = 0.8f;
+
+    /**
+     * Alpha applied to each effect pass, keeping the effect from becoming too
+     * dark when multiple paints occur on top of each other.
+     */
+    static final float EFFECT_PRE_ALPHA = 0.4f;
+
+    /** Black colors by alpha, shared by {@link #setAlpha(Graphics, float)}. */
+    private static final Color[] BLACK = new Color[256];
+
+    static {
+        for (int a = 0; a < BLACK.length; a++) {
+            BLACK[a] = new Color(0, 0, 0, a);
+        }
+    }
+
+    /** Composites of the effect passes for the most recently used size. */
+    private static volatile PassComposites passComposites;
+
+    /** Flag telling if effects are composed from the glyph atlas. */
+    private static volatile boolean glyphAtlas;
+
+    /**
+     * Compose text effects from a shared atlas of per glyph effects instead of
+     * redrawing the whole string for every effect pass. The effect of each
+     * glyph is rendered once per font, color and effect size, which makes the
+     * cost of an effect independent of the number of distinct strings painted.
+     * Overlapping effects of adjacent glyphs are blended slightly differently,
+     * so the result is not pixel identical to the default mode. Text that needs
+     * bidirectional layout, or graphics with a scaling transform, always use
+     * the default mode.
+     * 
+     * @param enabled
+     *            <code>true</code> to use the glyph atlas, <code>false</code>
+     *            to paint the effect by repeatedly drawing the string (the
+     *            default)
+     */
+    public static void setGlyphAtlasEnabled(boolean enabled) {
+        glyphAtlas = enabled;
+    }
+
+    /**
+     * Check if text effects are composed from the glyph atlas.
+     * 
+     * @return <code>true</code> if the glyph atlas is used
+     * @see #setGlyphAtlasEnabled(boolean)
+     */
+    public static boolean isGlyphAtlasEnabled() {
+        return glyphAtlas;
+    }
+
+    /**
+     * Set the memory budget shared by the pages of all glyph atlases. Each
+     * page takes 1 MB; the least recently drawn pages are released when the
+     * budget is exceeded, and effects are painted by redrawing the string when
+     * not even one page fits.
+     * 
+     * @param bytes
+     *            the budget in bytes, 8 MB by default
+     * @see #setGlyphAtlasEnabled(boolean)
+     */
+    public static void setGlyphAtlasBudget(long bytes) {
+        GlyphAtlas.setBudget(bytes);
+    }
+
+    /**
+     * Get the memory budget shared by the pages of all glyph atlases.
+     * 
+     * @return the budget in bytes
+     * @see #setGlyphAtlasBudget(long)
+     */
+    public static long getGlyphAtlasBudget() {
+        return GlyphAtlas.getBudget();
+    }
+
     /**
      * Set the color to black with given alpha value.
      * 
@@ -59,7 +136,7 @@ public final class Effects {
      *            the alpha value between 0-1.
      */
     public static void setAlpha(Graphics g, float alpha) {
-        g.setColor(new Color(0, 0, 0, Math.round(255 * alpha)));
+        g.setColor(BLACK[Math.round(255 * alpha)]);
     }
 
     /**
@@ -67,10 +144,11 @@ public final class Effects {
      * 
      * @param c
      *            a color
-     * @return the same color, but without an alpha channel
+     * @return the same color, but without an alpha channel. An opaque color is
+     *         returned as is
      */
     public static Color removeAlpha(Color c) {
-        if (c.getAlpha() != 100) {
+        if (c.getAlpha() != 255) {
             c = new Color(c.getRGB());
         }
         return c;
@@ -81,9 +159,10 @@ public final class Effects {
      * be 0 degrees, (i.e., window is illuminated from top). The effect is
      * intended to be subtle to be usable in as many text components as
      * possible. The effect is generated with multiple calls to draw string.
-     * This method paints the text on coordinates <code>tx</code>,
-     * <code>ty</code>. If text should be painted elsewhere, a transform should
-     * be applied to the graphics before passing it.
+     * This method paints the text on coordinates <code>x</code>,
+     * <code>y</code>, with the effect moved by <code>tx</code>,
+     * <code>ty</code>. The graphics is never translated, since a changed
+     * transform makes the next string drawn look up its font strike again.
      * <p>
      * All modifications to the graphics object is restored by this method
      * before returning.
@@ -95,6 +174,10 @@ public final class Effects {
      *            graphics component to paint on
      * @param s
      *            the string to paint
+     * @param x
+     *            the x coordinate of the text
+     * @param y
+     *            the y coordinate of the text baseline
      * @param c
      *            effect color
      * @param size
@@ -110,54 +193,147 @@ public final class Effects {
      *            should be slightly offset to look more like a shadow being
      *            casted, otherwise <code>false</code>.
      */
-    private static void paintTextEffect(Graphics2D g, String s, Color c,
-            int size, double tx, double ty, boolean isShadow) {
+    private static void paintTextEffect(Graphics2D g, String s, int x, int y,
+            Color c, int size, double tx, double ty, boolean isShadow) {
 
+        if (RepaintHeatMap.enabled) {
+            RepaintHeatMap.effectPainted();
+        }
+        Object event = FlightEvents.begin(FlightEvents.EFFECT);
         prepareGraphics(g);
 
-        final float opacity = 0.8f; // Effect "darkness".
+        if (glyphAtlas
+                && GlyphAtlas.paintEffect(g, s, c, size, x + tx + size, y + ty
+                        + size, isShadow)) {
+            g.drawString(s, x, y);
+            if (event != null) {
+                FlightEvents.endEffect(event, s.length(), size, true);
+            }
+            return;
+        }
+
         final Composite oldComposite = g.getComposite();
         final Color oldColor = g.getColor();
 
-        // Use a alpha blend smaller than 1 to prevent the effect from becoming
-        // too dark when multiple paints occur on top of each other.
-        float preAlpha = 0.4f;
-        if (oldComposite instanceof AlphaComposite
-                && ((AlphaComposite) oldComposite).getRule() == AlphaComposite.SRC_OVER) {
-            preAlpha = Math.min(((AlphaComposite) oldComposite).getAlpha(),
-                    preAlpha);
-        }
+        final AlphaComposite[] passes = getPassComposites(size,
+                getPreAlpha(oldComposite));
+        final int stride = 2 * size + 1;
         g.setColor(c);
 
-        g.translate(tx, ty);
-
         // If the effect is a shadow it looks better to stop painting a bit to
         // early... (shadow will look softer).
         int maxSize = isShadow ? size - 1 : size;
 
         for (int i = -size; i <= maxSize; i++) {
             for (int j = -size; j <= maxSize; j++) {
-                double distance = i * i + j * j;
-                float alpha = opacity;
-                if (distance > 0.0d) {
-                    alpha = (float) (1.0f / ((distance * size) * opacity));
-                }
-                alpha *= preAlpha;
-                if (alpha > 1.0f) {
-                    alpha = 1.0f;
-                }
-                g.setComposite(AlphaComposite.getInstance(
-                        AlphaComposite.SRC_OVER, alpha));
-                g.drawString(s, i + size, j + size);
+                g.setComposite(passes[(i + size) * stride + j + size]);
+                g.drawString(s, (float) (x + tx + i + size), (float) (y + ty
+                        + j + size));
             }
         }
 
         // Restore graphics
-        g.translate(-tx, -ty);
         g.setComposite(oldComposite);
         g.setColor(oldColor);
 
-        g.drawString(s, 0, 0);
+        g.drawString(s, x, y);
+        if (event != null) {
+            FlightEvents.endEffect(event, s.length(), size, false);
+        }
+    }
+
+    /**
+     * Get the alpha applied to each effect pass. Use a alpha blend smaller
+     * than 1 to prevent the effect from becoming too dark when multiple paints
+     * occur on top of each other.
+     * 
+     * @param composite
+     *            the composite of the graphics being painted on
+     * @return the alpha of the passes
+     */
+    static float getPreAlpha(Composite composite) {
+        if (composite instanceof AlphaComposite
+                && ((AlphaComposite) composite).getRule() == AlphaComposite.SRC_OVER) {
+            return Math.min(((AlphaComposite) composite).getAlpha(),
+                    EFFECT_PRE_ALPHA);
+        }
+        return EFFECT_PRE_ALPHA;
+    }
+
+    /**
+     * Get the alpha of the effect pass painted at offset <code>i</code>,
+     * <code>j</code> from the text.
+     * 
+     * @param i
+     *            horizontal offset
+     * @param j
+     *            vertical offset
+     * @param size
+     *            effect size
+     * @param preAlpha
+     *            the alpha applied to each pass
+     * @return the alpha of the pass
+     */
+    static float getAlpha(int i, int j, int size, float preAlpha) {
+        double distance = i * i + j * j;
+        float alpha = EFFECT_OPACITY;
+        if (distance > 0.0d) {
+            alpha = (float) (1.0f / ((distance * size) * EFFECT_OPACITY));
+        }
+        alpha *= preAlpha;
+        if (alpha > 1.0f) {
+            alpha = 1.0f;
+        }
+        return alpha;
+    }
+
+    /**
+     * Get the composites of the effect passes, indexed by
+     * <code>(i + size) * (2 * size + 1) + j + size</code> for the pass at
+     * offset <code>i</code>, <code>j</code>. The composites of the most
+     * recently used size and pre-alpha are kept, so painting an effect does
+     * not create new composites.
+     * 
+     * @param size
+     *            effect size
+     * @param preAlpha
+     *            the alpha applied to each pass
+     * @return the composites of the passes
+     */
+    private static AlphaComposite[] getPassComposites(int size, float preAlpha) {
+        PassComposites composites = passComposites;
+        if (composites == null || composites.size != size
+                || composites.preAlpha != preAlpha) {
+            composites = new PassComposites(size, preAlpha);
+            passComposites = composites;
+        }
+        return composites.passes;
+    }
+
+    /**
+     * Composites of the effect passes of one effect size and pre-alpha.
+     */
+    private static final class PassComposites {
+
+        private final int size;
+
+        private final float preAlpha;
+
+        private final AlphaComposite[] passes;
+
+        PassComposites(int size, float preAlpha) {
+            this.size = size;
+            this.preAlpha = preAlpha;
+            int stride = 2 * size + 1;
+            passes = new AlphaComposite[stride * stride];
+            for (int i = -size; i <= size; i++) {
+                for (int j = -size; j <= size; j++) {
+                    passes[(i + size) * stride + j + size] = AlphaComposite
+                            .getInstance(AlphaComposite.SRC_OVER, getAlpha(i,
+                                    j, size, preAlpha));
+                }
+            }
+        }
     }
 
     private static void prepareGraphics(Graphics2D g) {
@@ -187,7 +363,28 @@ public final class Effects {
      *            the color of the shadow. Any alpha channel will be discarded
      */
     public static void paintTextShadow(Graphics2D g, String s, Color c) {
-        paintTextEffect(g, s, removeAlpha(c), TEXT_SHADOW_SIZE,
+        paintTextShadow(g, s, c, 0, 0);
+    }
+
+    /**
+     * Draw a string with a drop shadow on the passed coordinates, see
+     * {@link #paintTextShadow(Graphics2D, String, Color)}. Prefer this method
+     * over translating the graphics before painting.
+     * 
+     * @param g
+     *            graphics component to paint on
+     * @param s
+     *            the string to paint
+     * @param c
+     *            the color of the shadow. Any alpha channel will be discarded
+     * @param x
+     *            the x coordinate
+     * @param y
+     *            the y coordinate of the text baseline
+     */
+    public static void paintTextShadow(Graphics2D g, String s, Color c, int x,
+            int y) {
+        paintTextEffect(g, s, x, y, removeAlpha(c), TEXT_SHADOW_SIZE,
                 -TEXT_SHADOW_SIZE, 1 - TEXT_SHADOW_SIZE, true);
     }
 
@@ -211,7 +408,25 @@ public final class Effects {
      *            the string to paint
      */
     public static void paintTextShadow(Graphics2D g, String s) {
-        paintTextShadow(g, s, Color.BLACK);
+        paintTextShadow(g, s, Color.BLACK, 0, 0);
+    }
+
+    /**
+     * Draw a string with a black drop shadow on the passed coordinates, see
+     * {@link #paintTextShadow(Graphics2D, String)}. Prefer this method over
+     * translating the graphics before painting.
+     * 
+     * @param g
+     *            graphics component to paint on
+     * @param s
+     *            the string to paint
+     * @param x
+     *            the x coordinate
+     * @param y
+     *            the y coordinate of the text baseline
+     */
+    public static void paintTextShadow(Graphics2D g, String s, int x, int y) {
+        paintTextShadow(g, s, Color.BLACK, x, y);
     }
 
     /**
@@ -231,7 +446,7 @@ public final class Effects {
      *            will be discarded
      */
     public static void paintTextGlow(Graphics2D g, String s, Color glow) {
-        paintTextEffect(g, s, removeAlpha(glow), TEXT_SHADOW_SIZE,
+        paintTextEffect(g, s, 0, 0, removeAlpha(glow), TEXT_SHADOW_SIZE,
                 -TEXT_SHADOW_SIZE, -TEXT_SHADOW_SIZE, false);
     }
 
@@ -260,6 +475,9 @@ public final class Effects {
         /** Cached gradient paint. */
         private GradientPaint paint;
 
+        /** Component height the cached paint was created for. */
+        private int paintHeight;
+
         /** Cyclic gradient. */
         private boolean cyclic = false;
 
@@ -333,8 +551,10 @@ public final class Effects {
          *            the component being painted
          */
         public void paint(Graphics g, JComponent c) {
-            if (paint == null) {
-                paint = new GradientPaint(0, 0, c1, 0, c.getHeight(), c2,
+            // The resize event may not have been dispatched yet.
+            if (paint == null || paintHeight != c.getHeight()) {
+                paintHeight = c.getHeight();
+                paint = new GradientPaint(0, 0, c1, 0, paintHeight, c2,
                         cyclic);
             }
             ((Graphics2D) g).setPaint(paint);
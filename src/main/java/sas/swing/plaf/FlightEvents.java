@@ -0,0 +1,165 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing.plaf;
+
+/**
+ * Java Flight Recorder events of the UI delegates and the text effects. When
+ * a recording is running, the following events are recorded, each with its
+ * duration:
+ * <ul>
+ * <li><code>sas.swing.Wrap</code>, the text of a label was wrapped, with the
+ * text length, the number of lines and the wrap width.</li>
+ * <li><code>sas.swing.Measure</code>, the preferred size of a label was
+ * computed, with the text length, the number of lines, the width and whether
+ * the lines were found in a cache.</li>
+ * <li><code>sas.swing.PaintText</code>, the text lines of a label were
+ * painted, with the same fields.</li>
+ * <li><code>sas.swing.TextEffect</code>, a shadow or glow was painted, with
+ * the text length, the effect size and whether it was painted from the glyph
+ * atlas.</li>
+ * </ul>
+ * Events shorter than their threshold, 1 ms by default, are not recorded. The
+ * threshold is set in the recording settings like for any event, e.g., to
+ * record every wrap:
+ * 
+ * <pre>
+ * java -XX:StartFlightRecording:filename=app.jfr,settings=labels.jfc ...
+ * 
+ * &lt;event name=&quot;sas.swing.Wrap&quot;&gt;
+ *   &lt;setting name=&quot;enabled&quot;&gt;true&lt;/setting&gt;
+ *   &lt;setting name=&quot;threshold&quot;&gt;0 ms&lt;/setting&gt;
+ * &lt;/event&gt;
+ * </pre>
+ * 
+ * The events are loaded only if the running Java has the flight recorder
+ * (<code>jdk.jfr</code>), otherwise the instrumentation does nothing. When
+ * no recording is running, it costs a check per event. The events are built
+ * from <code>src/main/jfr</code> by the <code>jfr</code> profile, which is
+ * active when building with Java 11 or later.
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+abstract class FlightEvents {
+
+    /** Wrap event type. */
+    static final int WRAP = 0;
+
+    /** Measure event type. */
+    static final int MEASURE = 1;
+
+    /** Paint text event type. */
+    static final int PAINT = 2;
+
+    /** Text effect event type. */
+    static final int EFFECT = 3;
+
+    /** The events, <code>null</code> if the flight recorder is missing. */
+    private static final FlightEvents events = load();
+
+    /**
+     * Instrumentation hook invoked when an event starts.
+     * 
+     * @param type
+     *            the event type
+     * @return the event to pass to <code>end</code>, or <code>null</code>
+     *         if the event isn't recorded
+     */
+    static Object begin(int type) {
+        return events != null ? events.start(type) : null;
+    }
+
+    /**
+     * Instrumentation hook invoked when a wrap, measure or paint event ends.
+     * 
+     * @param event
+     *            the event returned by {@link #begin(int)}
+     * @param textLength
+     *            the length of the text
+     * @param lines
+     *            the number of lines, estimated if wrapped lazily
+     * @param width
+     *            the width of the text
+     * @param hit
+     *            <code>true</code> if the lines were found in a cache, not
+     *            recorded for wrap events
+     */
+    static void end(Object event, int textLength, int lines, int width,
+            boolean hit) {
+        events.commit(event, textLength, lines, width, hit);
+    }
+
+    /**
+     * Instrumentation hook invoked when a text effect event ends.
+     * 
+     * @param event
+     *            the event returned by {@link #begin(int)}
+     * @param textLength
+     *            the length of the text
+     * @param size
+     *            the effect size
+     * @param atlas
+     *            <code>true</code> if painted from the glyph atlas
+     */
+    static void endEffect(Object event, int textLength, int size,
+            boolean atlas) {
+        events.commitEffect(event, textLength, size, atlas);
+    }
+
+    /**
+     * Create an event, if it is recorded.
+     * 
+     * @param type
+     *            the event type
+     * @return the started event, or <code>null</code>
+     */
+    abstract Object start(int type);
+
+    /**
+     * Commit a wrap, measure or paint event.
+     */
+    abstract void commit(Object event, int textLength, int lines, int width,
+            boolean hit);
+
+    /**
+     * Commit a text effect event.
+     */
+    abstract void commitEffect(Object event, int textLength, int size,
+            boolean atlas);
+
+    /**
+     * Load the events if the flight recorder is available.
+     */
+    private static FlightEvents load() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (FlightEvents) Class.forName("sas.swing.plaf.JfrEvents")
+                    .getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing.plaf;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.font.FontRenderContext;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Finds the largest font size at which a text, wrapped, fits in a box. The
+ * sizes are searched in half points, from the size of the font down to a
+ * minimum size, with a binary search.
+ * <p>
+ * The words of the text are measured once, at a reference size, from the
+ * advances the font metrics cache. The width of a word at another size is the
+ * reference width scaled by the size, so trying a size only costs a greedy
+ * wrap over the word widths. Text is only broken at whitespace, which never
+ * fits more text on a line than the line breaking of the label, and a word
+ * wider than the box doesn't fit. Since hinting, and the rounding of the line
+ * height, keep the metrics at small sizes from scaling exactly, the size found
+ * is checked with the metrics of that size, and moved to the nearest sizes
+ * that fit.
+ * <p>
+ * The sizes found are remembered for the most recently fitted texts and
+ * boxes.
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+final class FontFitter {
+
+    /** Size at which the words are measured. */
+    private static final float REFERENCE_SIZE = 64f;
+
+    /** Step between the sizes tried, in points. */
+    private static final float STEP = 0.5f;
+
+    /** Number of larger sizes checked after the search. */
+    private static final int NEIGHBOURS = 2;
+
+    /** Number of fitted sizes remembered. */
+    private static final int MEMO_SIZE = 256;
+
+    /** Fitted sizes of the most recent texts and boxes. */
+    private static final Map<Key, Float> memo = new LinkedHashMap<Key, Float>(
+            16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<Key, Float> eldest) {
+            return size() > MEMO_SIZE;
+        }
+    };
+
+    /** Start of each word, paragraph ends marked by a negative index. */
+    private final int[] starts;
+
+    /** End of each word. */
+    private final int[] ends;
+
+    /** Number of words. */
+    private final int count;
+
+    /** The text. */
+    private final CharSequence text;
+
+    /** Width of each word at the current size. */
+    private final float[] words;
+
+    /** Width of the space before each word at the current size. */
+    private final float[] spaces;
+
+    private FontFitter(CharSequence text) {
+        this.text = text;
+        int n = 0;
+        int[] s = new int[16];
+        int[] e = new int[16];
+        int length = text.length();
+        for (int i = 0; i < length;) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                // An empty word ends the paragraph.
+                i++;
+            } else if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            } else {
+                int j = i;
+                while (j < length && !Character.isWhitespace(text.charAt(j))) {
+                    j++;
+                }
+                if (n == s.length) {
+                    s = grow(s);
+                    e = grow(e);
+                }
+                s[n] = i;
+                e[n++] = j;
+                i = j;
+                continue;
+            }
+            if (n == s.length) {
+                s = grow(s);
+                e = grow(e);
+            }
+            s[n] = -1;
+            e[n++] = -1;
+        }
+        starts = s;
+        ends = e;
+        count = n;
+        words = new float[n];
+        spaces = new float[n];
+    }
+
+    /**
+     * Get the font of the largest size at which a text fits in a box.
+     * 
+     * @param text
+     *            the text
+     * @param font
+     *            the font of the largest size to try
+     * @param g
+     *            the graphics the text is painted with
+     * @param width
+     *            the width of the box
+     * @param height
+     *            the height of the box
+     * @param minSize
+     *            the smallest size to try, returned if no size fits
+     * @param maxLines
+     *            the maximum number of lines, 0 if not limited
+     * @return the font of the size found
+     */
+    static Font fit(CharSequence text, Font font, Graphics g, int width,
+            int height, float minSize, int maxLines) {
+        float max = font.getSize2D();
+        if (max <= minSize || text.length() == 0) {
+            return font;
+        }
+        FontRenderContext frc = g.getFontMetrics(font).getFontRenderContext();
+        Key key = text instanceof String ? new Key((String) text, font, frc,
+                width, height, minSize, maxLines) : null;
+        if (key != null) {
+            Float size;
+            synchronized (memo) {
+                size = memo.get(key);
+            }
+            if (size != null) {
+                return size == max ? font : font.deriveFont(size);
+            }
+        }
+
+        FontFitter fitter = new FontFitter(text);
+        FontMetrics ref = g.getFontMetrics(font.deriveFont(REFERENCE_SIZE));
+        fitter.measure(ref);
+        float refHeight = ref.getHeight();
+
+        int last = (int) Math.ceil((max - minSize) / STEP);
+        int lo = 0; // Index of the size known to fit, if any.
+        int hi = last;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            float scale = sizeAt(mid, minSize, max) / REFERENCE_SIZE;
+            int lineHeight = (int) Math.ceil(refHeight * scale);
+            if (fitter.fits(scale, width, height / Math.max(lineHeight, 1),
+                    maxLines)) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        // Check the size with its own metrics, hinting and the rounding of
+        // the line height don't scale. Step down while the size doesn't fit,
+        // or up while the next size does.
+        int found = lo;
+        if (fitter.fits(g, font, sizeAt(lo, minSize, max), width, height,
+                maxLines)) {
+            while (lo < last && lo < found + NEIGHBOURS
+                    && fitter.fits(g, font, sizeAt(lo + 1, minSize, max), width,
+                            height, maxLines)) {
+                lo++;
+            }
+        } else {
+            do {
+                lo--;
+            } while (lo > 0 && !fitter.fits(g, font, sizeAt(lo, minSize, max),
+                    width, height, maxLines));
+            lo = Math.max(lo, 0);
+        }
+        float size = sizeAt(lo, minSize, max);
+        if (key != null) {
+            synchronized (memo) {
+                memo.put(key, size);
+            }
+        }
+        return size == max ? font : font.deriveFont(size);
+    }
+
+    /**
+     * Get the size of an index in the sizes searched, the last being the
+     * largest size.
+     */
+    private static float sizeAt(int index, float minSize, float max) {
+        return Math.min(minSize + index * STEP, max);
+    }
+
+    /**
+     * Check if the text fits at a size, measured with the metrics of that
+     * size.
+     */
+    private boolean fits(Graphics g, Font font, float size, int width,
+            int height, int maxLines) {
+        FontMetrics fm = g.getFontMetrics(font.deriveFont(size));
+        measure(fm);
+        return fits(1, width, height / Math.max(fm.getHeight(), 1), maxLines);
+    }
+
+    /**
+     * Measure the words and spaces with the passed metrics.
+     */
+    private void measure(FontMetrics fm) {
+        for (int k = 0; k < count; k++) {
+            if (starts[k] < 0) {
+                continue;
+            }
+            words[k] = charsWidth(fm, starts[k], ends[k]);
+            int prev = k > 0 && ends[k - 1] >= 0 ? ends[k - 1] : starts[k];
+            spaces[k] = charsWidth(fm, prev, starts[k]);
+        }
+    }
+
+    /**
+     * Check if the text, wrapped at the scaled widths, fits.
+     * 
+     * @param scale
+     *            the scale of the widths measured
+     * @param width
+     *            the width of the box
+     * @param lines
+     *            number of lines fitting in the box
+     * @param maxLines
+     *            the maximum number of lines, 0 if not limited
+     */
+    private boolean fits(float scale, int width, int lines, int maxLines) {
+        if (maxLines > 0) {
+            lines = Math.min(lines, maxLines);
+        }
+        int used = 1;
+        float line = -1; // Width of the current line, -1 if empty.
+        for (int k = 0; k < count && used <= lines; k++) {
+            if (starts[k] < 0) {
+                if (k + 1 < count) {
+                    used++;
+                }
+                line = -1;
+                continue;
+            }
+            float w = words[k] * scale;
+            if (w > width) {
+                return false;
+            }
+            if (line < 0) {
+                line = w;
+            } else if (line + spaces[k] * scale + w <= width) {
+                line += spaces[k] * scale + w;
+            } else {
+                used++;
+                line = w;
+            }
+        }
+        return used <= lines;
+    }
+
+    /**
+     * Measure characters by their advances, which the font metrics cache.
+     */
+    private int charsWidth(FontMetrics fm, int begin, int end) {
+        int w = 0;
+        for (int i = begin; i < end; i++) {
+            w += fm.charWidth(text.charAt(i));
+        }
+        return w;
+    }
+
+    private static int[] grow(int[] a) {
+        int[] grown = new int[2 * a.length];
+        System.arraycopy(a, 0, grown, 0, a.length);
+        return grown;
+    }
+
+    /**
+     * Key of a fitted size.
+     */
+    private static final class Key {
+
+        private final String text;
+        private final Font font;
+        private final FontRenderContext frc;
+        private final int width, height;
+        private final float minSize;
+        private final int maxLines;
+
+        Key(String text, Font font, FontRenderContext frc, int width,
+                int height, float minSize, int maxLines) {
+            this.text = text;
+            this.font = font;
+            this.frc = frc;
+            this.width = width;
+            this.height = height;
+            this.minSize = minSize;
+            this.maxLines = maxLines;
+        }
+
+        /** {@inheritDoc} */
+        public int hashCode() {
+            int h = text.hashCode();
+            h = 31 * h + font.hashCode();
+            h = 31 * h + frc.hashCode();
+            h = 31 * h + width;
+            h = 31 * h + height;
+            h = 31 * h + Float.floatToIntBits(minSize);
+            return 31 * h + maxLines;
+        }
+
+        /** {@inheritDoc} */
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return width == k.width && height == k.height
+                    && minSize == k.minSize && maxLines == k.maxLines
+                    && text.equals(k.text) && font.equals(k.font)
+                    && frc.equals(k.frc);
+        }
+    }
+}
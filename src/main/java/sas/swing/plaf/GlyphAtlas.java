@@ -0,0 +1,579 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing.plaf;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.image.BufferedImage;
+import java.text.Bidi;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Texture atlas holding the text effect of individual glyphs. The effect of a
+ * glyph is rendered once, using the same passes as
+ * {@link Effects#paintTextShadow(Graphics2D, String, Color)}, into a cell of a
+ * page image. The effect of a string is then composed by drawing the cells at
+ * the glyph positions. The glyph codes and positions of the most recently
+ * painted strings are remembered, so repainting a string allocates nothing.
+ * <p>
+ * There is one atlas for each font, font render context, color and effect
+ * size. Only the most recently used atlases are kept, and the pages of all
+ * atlases share a memory budget; the least recently drawn pages are released
+ * when it is exceeded, together with the cells they hold.
+ * <p>
+ * The atlases are guarded by a single lock, held while a string is painted.
+ * 
+ * @see Effects#setGlyphAtlasEnabled(boolean)
+ * @see Effects#setGlyphAtlasBudget(long)
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+final class GlyphAtlas {
+
+    /** Width and height of each atlas page. */
+    private static final int PAGE_SIZE = 512;
+
+    /** Bytes held by each page. */
+    private static final long PAGE_BYTES = 4L * PAGE_SIZE * PAGE_SIZE;
+
+    /** Number of atlases kept. */
+    private static final int MAX_ATLASES = 16;
+
+    /** Number of string layouts remembered by each atlas. */
+    private static final int MAX_RUNS = 256;
+
+    /** Cell of glyphs without any visible pixels. */
+    private static final Cell EMPTY = new Cell(null, 0, 0, 0, 0, 0, 0);
+
+    /** Lock guarding all atlases. */
+    private static final Object lock = new Object();
+
+    /** The atlases, in access order. */
+    private static final Map<Key, GlyphAtlas> atlases = new LinkedHashMap<Key, GlyphAtlas>(
+            MAX_ATLASES, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<Key, GlyphAtlas> e) {
+            if (size() <= MAX_ATLASES) {
+                return false;
+            }
+            GlyphAtlas eldest = e.getValue();
+            for (Page page : eldest.pageList) {
+                pages.remove(page);
+                used -= PAGE_BYTES;
+            }
+            eldest.pageList.clear();
+            eldest.current = null;
+            return true;
+        }
+    };
+
+    /** The pages of all atlases, least recently drawn first. */
+    private static final LinkedHashMap<Page, Boolean> pages = new LinkedHashMap<Page, Boolean>(
+            16, 0.75f, true);
+
+    /** Memory budget of all pages, in bytes. */
+    private static long budget = 8L << 20;
+
+    /** Bytes held by the pages. */
+    private static long used;
+
+    /** Key reused to look up the atlases. */
+    private static final Key lookup = new Key();
+
+    /** Characters of the string being laid out. */
+    private static char[] chars = new char[64];
+
+    /** Reused array of cells for the glyphs being painted. */
+    private static Cell[] glyphs = new Cell[32];
+
+    /** Composite of the most recently painted alpha. */
+    private static AlphaComposite composite = AlphaComposite.SrcOver;
+
+    /** The font of the glyphs. */
+    private final Font font;
+
+    /** The font render context used to render the glyphs. */
+    private final FontRenderContext frc;
+
+    /** The effect color. */
+    private final Color color;
+
+    /** The effect size. */
+    private final int size;
+
+    /** The last effect pass. */
+    private final int maxSize;
+
+    /** Cells by glyph code. */
+    private final Map<Integer, Cell> cells = new HashMap<Integer, Cell>();
+
+    /** Glyph codes and positions of the most recently painted strings. */
+    private final Map<String, Run> runs = new LinkedHashMap<String, Run>(16,
+            0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<String, Run> e) {
+            return size() > MAX_RUNS;
+        }
+    };
+
+    /** The pages of the atlas. */
+    private final List<Page> pageList = new ArrayList<Page>(1);
+
+    /**
+     * The page cells are added to, <code>null</code> until the next cell
+     * starts a new page.
+     */
+    private Page current;
+
+    /** Current page position. */
+    private int shelfX, shelfY, shelfHeight;
+
+    /**
+     * Create a new atlas.
+     */
+    private GlyphAtlas(Font font, FontRenderContext frc, Color color,
+            int size, boolean isShadow) {
+        this.font = font;
+        this.frc = frc;
+        this.color = color;
+        this.size = size;
+        this.maxSize = isShadow ? size - 1 : size;
+    }
+
+    /**
+     * Set the memory budget shared by the pages of all atlases. The least
+     * recently drawn pages are released when it is exceeded.
+     * 
+     * @param bytes
+     *            the budget in bytes
+     */
+    static void setBudget(long bytes) {
+        synchronized (lock) {
+            budget = bytes;
+            evict(0);
+        }
+    }
+
+    /**
+     * Get the memory budget shared by the pages of all atlases.
+     * 
+     * @return the budget in bytes
+     */
+    static long getBudget() {
+        synchronized (lock) {
+            return budget;
+        }
+    }
+
+    /**
+     * Get the bytes held by the pages of all atlases.
+     * 
+     * @return the bytes used
+     */
+    static long getUsed() {
+        synchronized (lock) {
+            return used;
+        }
+    }
+
+    /**
+     * Paint the effect of a string using the glyph atlas. The text itself is
+     * not painted. Only strings that can be laid out left to right without
+     * bidirectional reordering and graphics without a scaling transform are
+     * supported. The cells are drawn at whole pixels, so graphics using
+     * fractional metrics aren't supported either.
+     * 
+     * @param g
+     *            graphics to paint on
+     * @param s
+     *            the string
+     * @param c
+     *            effect color
+     * @param size
+     *            effect size
+     * @param dx
+     *            x-offset of the effect
+     * @param dy
+     *            y-offset of the effect
+     * @param isShadow
+     *            <code>true</code> if the effect is a shadow
+     * @return <code>true</code> if the effect was painted, <code>false</code>
+     *         if the string or graphics isn't supported by the atlas
+     */
+    static boolean paintEffect(Graphics2D g, String s, Color c, int size,
+            double dx, double dy, boolean isShadow) {
+        FontRenderContext frc = g.getFontRenderContext();
+        Font font = g.getFont();
+        if (frc.isTransformed() || font.isTransformed()
+                || frc.usesFractionalMetrics()) {
+            return false;
+        }
+
+        synchronized (lock) {
+            GlyphAtlas atlas = atlases.get(lookup.set(font, frc, c.getRGB(),
+                    size, isShadow));
+            if (atlas == null) {
+                atlas = new GlyphAtlas(font, frc, c, size, isShadow);
+                atlases.put(new Key().set(font, frc, c.getRGB(), size,
+                        isShadow), atlas);
+            }
+            Run run = atlas.getRun(s);
+            if (run == null) {
+                return false;
+            }
+
+            // The cells are rendered with the default pass alpha, a
+            // translucent graphics lowers it in the same way as when the
+            // passes are painted.
+            Composite oldComposite = g.getComposite();
+            float alpha = Effects.getPreAlpha(oldComposite)
+                    / Effects.EFFECT_PRE_ALPHA;
+            if (composite.getAlpha() != alpha) {
+                composite = AlphaComposite.getInstance(
+                        AlphaComposite.SRC_OVER, alpha);
+            }
+            g.setComposite(composite);
+            g.translate(dx, dy);
+            boolean painted = atlas.paint(g, run);
+            g.translate(-dx, -dy);
+            g.setComposite(oldComposite);
+            return painted;
+        }
+    }
+
+    /**
+     * Get the glyph codes and positions of a string, laying it out if it
+     * wasn't painted recently.
+     * 
+     * @return the layout, or <code>null</code> if the string requires
+     *         bidirectional reordering
+     */
+    private Run getRun(String s) {
+        Run run = runs.get(s);
+        if (run != null) {
+            return run;
+        }
+        int n = s.length();
+        if (chars.length < n) {
+            chars = new char[Math.max(n, 2 * chars.length)];
+        }
+        s.getChars(0, n, chars, 0);
+        if (Bidi.requiresBidi(chars, 0, n)) {
+            return null;
+        }
+        GlyphVector gv = font.layoutGlyphVector(frc, chars, 0, n,
+                Font.LAYOUT_LEFT_TO_RIGHT);
+        int glyphCount = gv.getNumGlyphs();
+        run = new Run(gv.getGlyphCodes(0, glyphCount, null), gv
+                .getGlyphPositions(0, glyphCount, null));
+        runs.put(s, run);
+        return run;
+    }
+
+    /**
+     * Draw the cells of the glyphs of a string.
+     * 
+     * @param g
+     *            graphics to paint on
+     * @param run
+     *            the glyphs
+     * @return <code>false</code> if a glyph is too large for the atlas, or
+     *         the budget too small, in which case nothing is painted
+     */
+    private boolean paint(Graphics2D g, Run run) {
+        int n = run.codes.length;
+        if (glyphs.length < n) {
+            glyphs = new Cell[Math.max(n, glyphs.length * 2)];
+        }
+        for (int i = 0; i < n; i++) {
+            Cell cell = getCell(run.codes[i]);
+            if (cell == null) {
+                for (int j = 0; j < i; j++) {
+                    glyphs[j] = null;
+                }
+                return false;
+            }
+            glyphs[i] = cell;
+        }
+        Page touched = null;
+        for (int i = 0; i < n; i++) {
+            Cell cell = glyphs[i];
+            glyphs[i] = null;
+            if (cell.page == null) {
+                continue;
+            }
+            if (cell.page != touched) {
+                touched = cell.page;
+                pages.get(touched);
+            }
+            int x = Math.round(run.positions[2 * i]) - cell.ox;
+            int y = Math.round(run.positions[2 * i + 1]) - cell.oy;
+            g.drawImage(cell.page.image, x, y, x + cell.width, y
+                    + cell.height, cell.x, cell.y, cell.x + cell.width,
+                    cell.y + cell.height, null);
+        }
+        return true;
+    }
+
+    /**
+     * Get the cell of a glyph, rendering the effect of the glyph if it isn't
+     * in the atlas.
+     * 
+     * @param code
+     *            the glyph code
+     * @return the cell, or <code>null</code> if the glyph doesn't fit
+     */
+    private Cell getCell(int code) {
+        Integer k = Integer.valueOf(code);
+        Cell cell = cells.get(k);
+        if (cell != null) {
+            return cell;
+        }
+
+        GlyphVector gv = font.createGlyphVector(frc, new int[] { code });
+        Rectangle b = gv.getGlyphPixelBounds(0, frc, 0, 0);
+        if (b.isEmpty()) {
+            cells.put(k, EMPTY);
+            return EMPTY;
+        }
+
+        int w = b.width + 2 * size;
+        int h = b.height + 2 * size;
+        if (w > PAGE_SIZE || h > PAGE_SIZE) {
+            return null;
+        }
+        Page page = allocate(w, h);
+        if (page == null) {
+            return null;
+        }
+        cell = new Cell(page, shelfX, shelfY, w, h, size - b.x, size - b.y);
+        shelfX += w;
+        shelfHeight = Math.max(shelfHeight, h);
+
+        Graphics2D g = page.image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                frc.getAntiAliasingHint());
+        g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS,
+                frc.getFractionalMetricsHint());
+        g.clipRect(cell.x, cell.y, w, h);
+        g.setColor(color);
+        float x = cell.x + cell.ox;
+        float y = cell.y + cell.oy;
+        for (int i = -size; i <= maxSize; i++) {
+            for (int j = -size; j <= maxSize; j++) {
+                g.setComposite(AlphaComposite.getInstance(
+                        AlphaComposite.SRC_OVER, Effects.getAlpha(i, j, size,
+                                Effects.EFFECT_PRE_ALPHA)));
+                g.drawGlyphVector(gv, x + i, y + j);
+            }
+        }
+        g.dispose();
+
+        cells.put(k, cell);
+        return cell;
+    }
+
+    /**
+     * Find room for a cell, moving on to the next shelf or page when the
+     * current one is full. A new page may release the least recently drawn
+     * pages of any atlas.
+     * 
+     * @param w
+     *            cell width
+     * @param h
+     *            cell height
+     * @return the page holding the cell at the current shelf position, or
+     *         <code>null</code> if a page doesn't fit in the budget
+     */
+    private Page allocate(int w, int h) {
+        if (shelfX + w > PAGE_SIZE) {
+            shelfX = 0;
+            shelfY += shelfHeight;
+            shelfHeight = 0;
+        }
+        if (current == null || shelfY + h > PAGE_SIZE) {
+            if (PAGE_BYTES > budget) {
+                return null;
+            }
+            evict(PAGE_BYTES);
+            current = new Page(this);
+            pageList.add(current);
+            pages.put(current, Boolean.TRUE);
+            used += PAGE_BYTES;
+            shelfX = shelfY = shelfHeight = 0;
+        }
+        return current;
+    }
+
+    /**
+     * Release the least recently drawn pages until the passed number of bytes
+     * fits in the budget. Must hold the lock.
+     */
+    private static void evict(long needed) {
+        Iterator<Page> it = pages.keySet().iterator();
+        while (used + needed > budget && it.hasNext()) {
+            Page page = it.next();
+            it.remove();
+            used -= PAGE_BYTES;
+            page.atlas.release(page);
+        }
+    }
+
+    /**
+     * Forget a released page and the cells it holds.
+     */
+    private void release(Page page) {
+        Iterator<Cell> it = cells.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().page == page) {
+                it.remove();
+            }
+        }
+        if (page == current) {
+            // The older pages are full, the next cell starts a new page.
+            current = null;
+        }
+        pageList.remove(page);
+    }
+
+    /**
+     * Page of an atlas.
+     */
+    private static final class Page {
+
+        /** The atlas the page belongs to. */
+        final GlyphAtlas atlas;
+
+        /** The pixels of the page. */
+        final BufferedImage image;
+
+        Page(GlyphAtlas atlas) {
+            this.atlas = atlas;
+            image = new BufferedImage(PAGE_SIZE, PAGE_SIZE,
+                    BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+    }
+
+    /**
+     * Glyph codes and positions of a laid out string.
+     */
+    private static final class Run {
+
+        /** The glyph codes. */
+        final int[] codes;
+
+        /** The x and y-coordinate of each glyph. */
+        final float[] positions;
+
+        Run(int[] codes, float[] positions) {
+            this.codes = codes;
+            this.positions = positions;
+        }
+    }
+
+    /**
+     * Location of the effect of a glyph in the atlas.
+     */
+    private static final class Cell {
+
+        /** The page holding the cell, <code>null</code> if empty. */
+        final Page page;
+
+        /** Cell bounds within the page. */
+        final int x, y, width, height;
+
+        /** Location of the glyph origin within the cell. */
+        final int ox, oy;
+
+        Cell(Page page, int x, int y, int width, int height, int ox, int oy) {
+            this.page = page;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.ox = ox;
+            this.oy = oy;
+        }
+    }
+
+    /**
+     * Key identifying an atlas. The key used for lookups is reused, keys
+     * stored in the map are never changed.
+     */
+    private static final class Key {
+
+        private Font font;
+
+        private FontRenderContext frc;
+
+        private int rgb;
+
+        private int size;
+
+        private boolean isShadow;
+
+        Key set(Font font, FontRenderContext frc, int rgb, int size,
+                boolean isShadow) {
+            this.font = font;
+            this.frc = frc;
+            this.rgb = rgb;
+            this.size = size;
+            this.isShadow = isShadow;
+            return this;
+        }
+
+        /** {@inheritDoc} */
+        public int hashCode() {
+            int h = font.hashCode();
+            h = 31 * h + frc.hashCode();
+            h = 31 * h + rgb;
+            return 31 * (31 * h + size) + (isShadow ? 1 : 0);
+        }
+
+        /** {@inheritDoc} */
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return rgb == k.rgb && size == k.size && isShadow == k.isShadow
+                    && font.equals(k.font) && frc.equals(k.frc);
+        }
+    }
+}
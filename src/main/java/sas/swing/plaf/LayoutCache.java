@@ -0,0 +1,469 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing.plaf;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Process wide cache of wrapped text lines. Layouts are keyed on the text, the
+ * font, the font render context and the width they were wrapped to, which
+ * means that labels showing the same text share a single entry and that a
+ * label never needs to discard its layout explicitly; a changed text, font or
+ * size simply results in a different key.
+ * <p>
+ * The retained memory is bounded by a byte budget. The weight of each entry is
+ * estimated from the text length and the number of lines. When the budget is
+ * exceeded, the least recently used entries are evicted.
+ * <p>
+ * Layouts can also be kept between runs of the application by setting a
+ * {@link LayoutStore}, which is consulted whenever a layout isn't in memory.
+ * <p>
+ * All methods are synchronized, the cache may be used from any thread. The
+ * persistent store is read and written outside of the lock of the cache, so
+ * that its disk index doesn't hold up labels painting from memory.
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+public final class LayoutCache {
+
+    /** Default budget, in bytes. */
+    public static final long DEFAULT_BUDGET = 4L * 1024 * 1024;
+
+    /** Estimated fixed cost of an entry (key, map entry and list). */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    /** Estimated fixed cost of each line (string and array header). */
+    private static final int LINE_OVERHEAD = 40;
+
+    /** Shared instance. */
+    private static final LayoutCache cache = new LayoutCache(DEFAULT_BUDGET);
+
+    /** The entries, in access order. */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(
+            64, 0.75f, true);
+
+    /** Budget, in bytes. */
+    private long budget;
+
+    /** Estimated size of all entries, in bytes. */
+    private long footprint;
+
+    /** Number of evicted entries. */
+    private long evictions;
+
+    /** Number of lookups that found an entry. */
+    private long hits;
+
+    /** Number of lookups that didn't find an entry. */
+    private long misses;
+
+    /** Persistent store of layouts, may be <code>null</code>. */
+    private LayoutStore store;
+
+    /**
+     * Create a new cache.
+     * 
+     * @param budget
+     *            the budget in bytes
+     */
+    public LayoutCache(long budget) {
+        setBudget(budget);
+    }
+
+    /**
+     * Get the shared cache used by {@link MultiLineLabelUI}. Keys don't tell
+     * delegates apart, so only delegates wrapping text by the rules of
+     * <code>MultiLineLabelUI</code> share their lines through it.
+     * 
+     * @return the shared cache
+     */
+    public static LayoutCache getSharedInstance() {
+        return cache;
+    }
+
+    /**
+     * Set the budget of the cache. If the current footprint exceeds the new
+     * budget, entries are evicted immediately.
+     * 
+     * @param budget
+     *            the budget in bytes
+     */
+    public synchronized void setBudget(long budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("budget < 0: " + budget);
+        }
+        this.budget = budget;
+        evict();
+    }
+
+    /**
+     * Get the budget of the cache.
+     * 
+     * @return the budget in bytes
+     */
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Get the estimated memory retained by the cached layouts.
+     * 
+     * @return the footprint in bytes
+     */
+    public synchronized long getFootprint() {
+        return footprint;
+    }
+
+    /**
+     * Get the number of entries evicted to stay within the budget.
+     * 
+     * @return the eviction count
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Get the number of lookups that found a cached layout.
+     * 
+     * @return the hit count
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Get the number of lookups that didn't find a cached layout.
+     * 
+     * @return the miss count
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Set the persistent store consulted when a layout isn't in memory. Every
+     * layout put in the cache is also added to the store.
+     * 
+     * @param store
+     *            the store, or <code>null</code> to only cache layouts in
+     *            memory
+     */
+    public synchronized void setStore(LayoutStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Get the persistent store consulted when a layout isn't in memory.
+     * 
+     * @return the store, or <code>null</code> if none is set
+     */
+    public synchronized LayoutStore getStore() {
+        return store;
+    }
+
+    /**
+     * Get the number of cached layouts.
+     * 
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the cached lines for the key. Layouts not in memory are looked up in
+     * the persistent store, if any.
+     * 
+     * @param key
+     *            the layout key
+     * @return the cached lines, or <code>null</code> if not cached
+     */
+    public List<String> get(Key key) {
+        LayoutStore s;
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if (e != null) {
+                hits++;
+                return e.lines;
+            }
+            misses++;
+            s = store;
+        }
+        List<String> lines = s == null || key.maxLines > 0 || key.balanced
+                ? null : s.get(key);
+        if (lines != null) {
+            synchronized (this) {
+                add(key, lines);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Check if the lines for the key are in memory, without counting it as a
+     * lookup.
+     * 
+     * @param key
+     *            the layout key
+     * @return <code>true</code> if the lines are cached in memory
+     */
+    public synchronized boolean contains(Key key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Cache the lines for the key. Layouts weighing more than the whole budget
+     * are not cached in memory. The lines are also added to the persistent
+     * store, if any.
+     * 
+     * @param key
+     *            the layout key
+     * @param lines
+     *            the wrapped lines
+     */
+    public void put(Key key, List<String> lines) {
+        LayoutStore s;
+        synchronized (this) {
+            add(key, lines);
+            s = store;
+        }
+        if (s != null && key.maxLines == 0 && !key.balanced
+                && !(lines instanceof LazyLineList)) {
+            s.put(key, lines);
+        }
+    }
+
+    /**
+     * Add the lines to the cached layouts.
+     * 
+     * @param key
+     *            the layout key
+     * @param lines
+     *            the wrapped lines
+     */
+    private void add(Key key, List<String> lines) {
+        long weight = weigh(key.text, lines);
+        Entry old = entries.remove(key);
+        if (old != null) {
+            footprint -= old.weight;
+        }
+        if (weight > budget) {
+            return;
+        }
+        entries.put(key, new Entry(lines, weight));
+        footprint += weight;
+        evict();
+    }
+
+    /**
+     * Remove all cached layouts. Counters are left untouched.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        footprint = 0;
+    }
+
+    /** {@inheritDoc} */
+    public synchronized String toString() {
+        return "LayoutCache[entries=" + entries.size() + ",footprint="
+                + footprint + ",budget=" + budget + ",evictions=" + evictions
+                + ",hits=" + hits + ",misses=" + misses + "]";
+    }
+
+    /**
+     * Evict least recently used entries until the footprint is within budget.
+     */
+    private void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (footprint > budget && it.hasNext()) {
+            footprint -= it.next().weight;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Estimate the memory retained by a layout. The text is counted since the
+     * key keeps it reachable after the label has moved on to another text.
+     * 
+     * @param text
+     *            the wrapped text
+     * @param lines
+     *            the wrapped lines
+     * @return the estimated weight in bytes
+     */
+    static long weigh(String text, List<String> lines) {
+        if (lines instanceof LazyLineList) {
+            // Lazily wrapped lines are weighed as if all paragraphs were
+            // wrapped, and only keep the bounds of each line.
+            return ENTRY_OVERHEAD + 2L * text.length()
+                    + (long) LazyLineList.LINE_BYTES
+                    * ((LazyLineList) lines).estimatedSize();
+        }
+        // Text and lines hold roughly the same characters, two bytes each.
+        return ENTRY_OVERHEAD + 4L * text.length() + (long) LINE_OVERHEAD
+                * lines.size();
+    }
+
+    /**
+     * Key identifying a wrapped layout.
+     */
+    public static final class Key {
+
+        /** The text. */
+        final String text;
+
+        /** The font. */
+        final Font font;
+
+        /** The font render context. */
+        final FontRenderContext frc;
+
+        /** The wrap width. */
+        final int width;
+
+        /** The maximum number of lines shown, 0 if not limited. */
+        final int maxLines;
+
+        /** Flag telling if the lines are balanced. */
+        final boolean balanced;
+
+        /** Cached hash code. */
+        private final int hash;
+
+        /**
+         * Create a new key.
+         * 
+         * @param text
+         *            the text
+         * @param font
+         *            the font used to measure the text
+         * @param frc
+         *            the font render context used to measure the text
+         * @param width
+         *            the width the text is wrapped to
+         */
+        public Key(String text, Font font, FontRenderContext frc, int width) {
+            this(text, font, frc, width, 0);
+        }
+
+        /**
+         * Create a new key of a layout that is only wrapped until more than
+         * <code>maxLines</code> lines are found. Such layouts are never added
+         * to the persistent store.
+         * 
+         * @param text
+         *            the text
+         * @param font
+         *            the font used to measure the text
+         * @param frc
+         *            the font render context used to measure the text
+         * @param width
+         *            the width the text is wrapped to
+         * @param maxLines
+         *            the maximum number of lines shown, or 0 if not limited
+         */
+        public Key(String text, Font font, FontRenderContext frc, int width,
+                int maxLines) {
+            this(text, font, frc, width, maxLines, false);
+        }
+
+        /**
+         * Create a new key of a layout wrapped greedily or balanced. Balanced
+         * layouts are never added to the persistent store.
+         * 
+         * @param text
+         *            the text
+         * @param font
+         *            the font used to measure the text
+         * @param frc
+         *            the font render context used to measure the text
+         * @param width
+         *            the width the text is wrapped to
+         * @param maxLines
+         *            the maximum number of lines shown, or 0 if not limited
+         * @param balanced
+         *            <code>true</code> if the lines are balanced
+         */
+        public Key(String text, Font font, FontRenderContext frc, int width,
+                int maxLines, boolean balanced) {
+            this.text = text;
+            this.font = font;
+            this.frc = frc;
+            this.width = width;
+            this.maxLines = maxLines;
+            this.balanced = balanced;
+            int h = text.hashCode();
+            h = 31 * h + (font == null ? 0 : font.hashCode());
+            h = 31 * h + (frc == null ? 0 : frc.hashCode());
+            h = 31 * h + width;
+            h = 31 * h + maxLines;
+            hash = balanced ? ~h : h;
+        }
+
+        /** {@inheritDoc} */
+        public int hashCode() {
+            return hash;
+        }
+
+        /** {@inheritDoc} */
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return hash == k.hash && width == k.width
+                    && maxLines == k.maxLines && balanced == k.balanced
+                    && (font == null ? k.font == null : font.equals(k.font))
+                    && (frc == null ? k.frc == null : frc.equals(k.frc))
+                    && text.equals(k.text);
+        }
+    }
+
+    /**
+     * Cached lines together with their estimated weight.
+     */
+    private static final class Entry {
+
+        /** The wrapped lines. */
+        final List<String> lines;
+
+        /** Estimated weight in bytes. */
+        final long weight;
+
+        Entry(List<String> lines, long weight) {
+            this.lines = lines;
+            this.weight = weight;
+        }
+    }
+}
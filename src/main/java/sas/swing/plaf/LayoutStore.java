@@ -0,0 +1,590 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing.plaf;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent store of wrapped layouts, used as a second level of the
+ * {@link LayoutCache}. Layouts wrapped in one run of the application are saved
+ * to a file and reused by the next run, so that labels with static text don't
+ * need to be wrapped again at startup.
+ * <p>
+ * A layout is stored as the end offsets of its lines, keyed on a hash of the
+ * text, the font, the font render context and the wrap width. A second hash
+ * of the text is stored with the layout and compared when it is read, so that
+ * colliding keys are not mistaken for each other. The file is read into
+ * memory when opened, without keeping it open, and only the offsets of the
+ * layouts actually requested are decoded. Each font in the file is stored with a signature of its
+ * glyph advances. If the fonts of the JVM change, so that a font measures text
+ * differently, the layouts of that font are ignored. The file is ignored
+ * entirely if it was written by another Java version.
+ * <p>
+ * Only layouts requested or added during the current run are written by
+ * {@link #save()}, which keeps the file from growing with layouts of texts that
+ * are no longer shown. The layouts to save are bounded by a byte budget; when
+ * it is exceeded, the least recently used layouts are dropped.
+ * <p>
+ * Example of usage:
+ * 
+ * <pre>
+ * LayoutStore store = LayoutStore.open(new File(&quot;layouts.bin&quot;));
+ * LayoutCache.getSharedInstance().setStore(store);
+ * // ... create and show the labels ...
+ * store.save();
+ * </pre>
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+public final class LayoutStore {
+
+    /** File magic, "MLLS". */
+    private static final int MAGIC = 0x4d4c4c53;
+
+    /** File format version. */
+    private static final int VERSION = 2;
+
+    /** Default budget of the layouts to save, in bytes. */
+    public static final long DEFAULT_BUDGET = 1024L * 1024;
+
+    /** Estimated fixed cost of a layout (key, map entry and record). */
+    private static final int RECORD_OVERHEAD = 96;
+
+    /** Characters measured to compute the signature of a font. */
+    private static final String PROBE;
+
+    static {
+        StringBuilder sb = new StringBuilder();
+        for (char c = 0x20; c < 0x7f; c++) {
+            sb.append(c);
+        }
+        for (char c = 0xc0; c <= 0xff; c++) {
+            sb.append(c);
+        }
+        PROBE = sb.toString();
+    }
+
+    /** The file of the store. */
+    private final File file;
+
+    /** Offsets of the stored layouts in the file, by key hash. */
+    private final Map<Long, Integer> index = new HashMap<Long, Integer>();
+
+    /** Stored font signatures, by font descriptor hash. */
+    private final Map<Long, Long> storedFonts = new HashMap<Long, Long>();
+
+    /** Signatures of the fonts in the current JVM, by descriptor hash. */
+    private final Map<Long, Long> fonts = new HashMap<Long, Long>();
+
+    /** Layouts to save, by key hash, in access order. */
+    private final Map<Long, Record> records = new LinkedHashMap<Long, Record>(
+            64, 0.75f, true);
+
+    /** The content of the file, <code>null</code> if empty or invalid. */
+    private ByteBuffer buffer;
+
+    /** Budget of the layouts to save, in bytes. */
+    private long budget = DEFAULT_BUDGET;
+
+    /** Estimated size of the layouts to save, in bytes. */
+    private long footprint;
+
+    /** Number of layouts found in the store. */
+    private int hits;
+
+    /**
+     * Create a new store.
+     * 
+     * @param file
+     *            the file of the store
+     */
+    private LayoutStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Open a store. If the file doesn't exist, was written by another Java
+     * version or can't be read, the store starts out empty.
+     * 
+     * @param file
+     *            the file of the store
+     * @return the store
+     */
+    public static LayoutStore open(File file) {
+        LayoutStore store = new LayoutStore(file);
+        if (file.isFile()) {
+            try {
+                store.load();
+            } catch (IOException e) {
+                store.clear();
+            } catch (RuntimeException e) {
+                // Truncated or corrupt file.
+                store.clear();
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Read the file and index the stored layouts. The file is read into the
+     * heap rather than mapped, since a mapping can't be released explicitly
+     * and would keep {@link #save()} from replacing the file on some
+     * platforms.
+     */
+    private void load() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        byte[] content;
+        try {
+            content = new byte[(int) raf.length()];
+            raf.readFully(content);
+        } finally {
+            raf.close();
+        }
+        ByteBuffer b = ByteBuffer.wrap(content);
+        if (b.getInt() != MAGIC || b.getInt() != VERSION
+                || b.getInt() != getEnvironmentHash()) {
+            return;
+        }
+        for (int i = 0, n = b.getInt(); i < n; i++) {
+            storedFonts.put(b.getLong(), b.getLong());
+        }
+        for (int i = 0, n = b.getInt(); i < n; i++) {
+            int position = b.position();
+            long keyHash = b.getLong();
+            b.getLong(); // Font descriptor.
+            b.getLong(); // Text hash.
+            b.getInt(); // Text length.
+            int lines = b.getInt();
+            b.position(b.position() + 4 * lines);
+            index.put(keyHash, position);
+        }
+        buffer = b;
+    }
+
+    /**
+     * Drop everything read from the file.
+     */
+    private void clear() {
+        index.clear();
+        storedFonts.clear();
+        buffer = null;
+    }
+
+    /**
+     * Get the number of layouts found in the store.
+     * 
+     * @return the hit count
+     */
+    public synchronized int getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Set the budget of the layouts written by {@link #save()}. If the current
+     * footprint exceeds the new budget, the least recently used layouts are
+     * dropped immediately.
+     * 
+     * @param budget
+     *            the budget in bytes
+     */
+    public synchronized void setBudget(long budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("budget < 0: " + budget);
+        }
+        this.budget = budget;
+        evict();
+    }
+
+    /**
+     * Get the budget of the layouts written by {@link #save()}.
+     * 
+     * @return the budget in bytes
+     */
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Get the number of layouts that will be written by {@link #save()}.
+     * 
+     * @return the number of layouts
+     */
+    public synchronized int size() {
+        return records.size();
+    }
+
+    /**
+     * Get the stored layout of a key.
+     * 
+     * @param key
+     *            the layout key
+     * @return the lines, or <code>null</code> if not stored
+     */
+    synchronized List<String> get(LayoutCache.Key key) {
+        long desc = getDescriptorHash(key.font, key.frc);
+        if (desc == 0) {
+            return null;
+        }
+        long keyHash = getKeyHash(key, desc);
+        Record r = records.get(keyHash);
+        if (r == null) {
+            r = read(keyHash, desc);
+            if (r == null) {
+                return null;
+            }
+            add(keyHash, r);
+        }
+        if (r.desc != desc || r.length != key.text.length()
+                || r.check != getTextHash(key.text)) {
+            return null;
+        }
+        List<String> lines = toLines(key.text, r.ends);
+        if (lines != null) {
+            hits++;
+        }
+        return lines;
+    }
+
+    /**
+     * Store the layout of a key.
+     * 
+     * @param key
+     *            the layout key
+     * @param lines
+     *            the wrapped lines
+     */
+    synchronized void put(LayoutCache.Key key, List<String> lines) {
+        long desc = getDescriptorHash(key.font, key.frc);
+        if (desc == 0) {
+            return;
+        }
+        int[] ends = new int[lines.size()];
+        int end = 0;
+        for (int i = 0; i < ends.length; i++) {
+            end += lines.get(i).length();
+            ends[i] = end;
+        }
+        add(getKeyHash(key, desc), new Record(desc, getTextHash(key.text),
+                key.text.length(), ends));
+    }
+
+    /**
+     * Add a layout to the layouts to save, dropping the least recently used
+     * layouts if the budget is exceeded.
+     * 
+     * @param keyHash
+     *            the key hash
+     * @param r
+     *            the layout
+     */
+    private void add(long keyHash, Record r) {
+        Record old = records.put(keyHash, r);
+        if (old != null) {
+            footprint -= old.weight();
+        }
+        footprint += r.weight();
+        evict();
+    }
+
+    /**
+     * Drop least recently used layouts until the footprint is within budget.
+     */
+    private void evict() {
+        Iterator<Record> it = records.values().iterator();
+        while (footprint > budget && it.hasNext()) {
+            footprint -= it.next().weight();
+            it.remove();
+        }
+    }
+
+    /**
+     * Write the layouts requested or added during this run to the file. The
+     * file is written to a temporary file first, which then replaces the
+     * store file.
+     * 
+     * @throws IOException
+     *             if the file can't be written
+     */
+    public synchronized void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(getEnvironmentHash());
+            Map<Long, Long> used = new LinkedHashMap<Long, Long>();
+            for (Record r : records.values()) {
+                used.put(r.desc, fonts.get(r.desc));
+            }
+            out.writeInt(used.size());
+            for (Map.Entry<Long, Long> e : used.entrySet()) {
+                out.writeLong(e.getKey());
+                out.writeLong(e.getValue());
+            }
+            out.writeInt(records.size());
+            for (Map.Entry<Long, Record> e : records.entrySet()) {
+                Record r = e.getValue();
+                out.writeLong(e.getKey());
+                out.writeLong(r.desc);
+                out.writeLong(r.check);
+                out.writeInt(r.length);
+                out.writeInt(r.ends.length);
+                for (int end : r.ends) {
+                    out.writeInt(end);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        // The content of the store was read into memory, the file isn't open.
+        if (!(tmp.renameTo(file) || (file.delete() && tmp.renameTo(file)))) {
+            throw new IOException("Can't replace " + file);
+        }
+    }
+
+    /**
+     * Read a layout from the content of the file.
+     * 
+     * @param keyHash
+     *            the key hash
+     * @param desc
+     *            descriptor hash of the font of the key
+     * @return the layout, or <code>null</code> if not stored or if the font
+     *         measures differently than when the layout was stored
+     */
+    private Record read(long keyHash, long desc) {
+        Integer position = index.get(keyHash);
+        if (position == null) {
+            return null;
+        }
+        Long stored = storedFonts.get(desc);
+        if (stored == null || !stored.equals(fonts.get(desc))) {
+            return null;
+        }
+        ByteBuffer b = buffer.duplicate();
+        b.position(position + 8);
+        long d = b.getLong();
+        long check = b.getLong();
+        int length = b.getInt();
+        int[] ends = new int[b.getInt()];
+        for (int i = 0; i < ends.length; i++) {
+            ends[i] = b.getInt();
+        }
+        return new Record(d, check, length, ends);
+    }
+
+    /**
+     * Rebuild the lines from their end offsets. The lines of a wrapped text
+     * cover the text followed by a line break, just like the content of a
+     * document.
+     * 
+     * @param text
+     *            the text
+     * @param ends
+     *            the line end offsets
+     * @return the lines, or <code>null</code> if the offsets don't match the
+     *         text
+     */
+    private static List<String> toLines(String text, int[] ends) {
+        if (ends.length == 0 || ends[ends.length - 1] != text.length() + 1) {
+            return null;
+        }
+        String content = text + '\n';
+        List<String> lines = new ArrayList<String>(ends.length);
+        int start = 0;
+        for (int end : ends) {
+            if (end <= start) {
+                return null;
+            }
+            lines.add(content.substring(start, end));
+            start = end;
+        }
+        return lines;
+    }
+
+    /**
+     * Get a hash describing a font and a font render context. The signature of
+     * the font in the current JVM is computed and remembered as a side effect.
+     * 
+     * @param font
+     *            the font
+     * @param frc
+     *            the font render context
+     * @return the descriptor hash, or 0 if the layouts of the font can't be
+     *         stored
+     */
+    private long getDescriptorHash(Font font, FontRenderContext frc) {
+        if (font == null || frc == null || font.isTransformed()
+                || font.hasLayoutAttributes()) {
+            return 0;
+        }
+        long h = hash(1125899906842597L, font.getFontName());
+        h = 31 * h + font.getStyle();
+        h = 31 * h + Float.floatToIntBits(font.getSize2D());
+        h = hash(h, String.valueOf(frc.getAntiAliasingHint()));
+        h = hash(h, String.valueOf(frc.getFractionalMetricsHint()));
+        double[] m = new double[6];
+        frc.getTransform().getMatrix(m);
+        for (double d : m) {
+            h = 31 * h + Double.doubleToLongBits(d);
+        }
+        if (h == 0) {
+            h = 1;
+        }
+        Long key = Long.valueOf(h);
+        if (!fonts.containsKey(key)) {
+            fonts.put(key, getSignature(font, frc));
+        }
+        return h;
+    }
+
+    /**
+     * Compute a signature of the glyphs and advances of a font.
+     * 
+     * @param font
+     *            the font
+     * @param frc
+     *            the font render context
+     * @return the signature
+     */
+    private static long getSignature(Font font, FontRenderContext frc) {
+        GlyphVector gv = font.createGlyphVector(frc, PROBE);
+        long h = hash(17, font.getFamily());
+        h = hash(h, font.getPSName());
+        int n = gv.getNumGlyphs();
+        float[] positions = gv.getGlyphPositions(0, n + 1, null);
+        for (int i = 0; i < n; i++) {
+            h = 31 * h + gv.getGlyphCode(i);
+        }
+        for (float f : positions) {
+            h = 31 * h + Float.floatToIntBits(f);
+        }
+        return h;
+    }
+
+    /**
+     * Get the hash of a layout key.
+     * 
+     * @param key
+     *            the key
+     * @param desc
+     *            the descriptor hash of the font of the key
+     * @return the key hash
+     */
+    private static long getKeyHash(LayoutCache.Key key, long desc) {
+        long h = hash(-3750763034362895579L, key.text);
+        h = 31 * h + desc;
+        return 31 * h + key.width;
+    }
+
+    /**
+     * Get a second hash of a text, independent of the key hash, telling texts
+     * with colliding key hashes apart.
+     * 
+     * @param text
+     *            the text
+     * @return the text hash
+     */
+    private static long getTextHash(String text) {
+        long h = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            h = (h + text.charAt(i)) * 0x9e3779b97f4a7c15L;
+        }
+        return h;
+    }
+
+    /**
+     * Get a hash of the Java version, which decides how text is measured and
+     * wrapped.
+     * 
+     * @return the environment hash
+     */
+    private static int getEnvironmentHash() {
+        return (System.getProperty("java.vendor") + '/'
+                + System.getProperty("java.version") + '/'
+                + System.getProperty("os.name")).hashCode();
+    }
+
+    /**
+     * 64 bit FNV-1a hash of a string, continuing from <code>h</code>.
+     */
+    private static long hash(long h, String s) {
+        for (int i = 0, n = s.length(); i < n; i++) {
+            h ^= s.charAt(i);
+            h *= 1099511628211L;
+        }
+        return h;
+    }
+
+    /**
+     * A stored layout.
+     */
+    private static final class Record {
+
+        /** Descriptor hash of the font. */
+        final long desc;
+
+        /** Second hash of the text. */
+        final long check;
+
+        /** Length of the text. */
+        final int length;
+
+        /** End offsets of the lines. */
+        final int[] ends;
+
+        Record(long desc, long check, int length, int[] ends) {
+            this.desc = desc;
+            this.check = check;
+            this.length = length;
+            this.ends = ends;
+        }
+
+        /**
+         * Estimate the memory retained by the layout.
+         * 
+         * @return the estimated weight in bytes
+         */
+        long weight() {
+            return RECORD_OVERHEAD + 4L * ends.length;
+        }
+    }
+}
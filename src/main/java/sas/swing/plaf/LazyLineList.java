@@ -0,0 +1,404 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing.plaf;
+
+import java.awt.FontMetrics;
+import java.nio.CharBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.swing.JComponent;
+import javax.swing.SwingWorker;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Segment;
+import javax.swing.text.Utilities;
+
+/**
+ * List of wrapped lines where the paragraphs are wrapped on demand. Lines are
+ * wrapped as they are requested, and the total number of lines can be
+ * estimated from the average number of lines per character wrapped so far.
+ * The remaining paragraphs can be wrapped in the background with
+ * {@link #complete(JComponent)}.
+ * <p>
+ * Paragraphs are found and wrapped directly in the characters of the text
+ * rather than in a <code>PlainDocument</code>, since building the document
+ * alone would take longer than wrapping the visible lines. The text is read
+ * a paragraph at the time, in bulk, so any <code>CharSequence</code> can be
+ * wrapped without copying it as a whole. The lines are broken at the same
+ * positions as by {@link MultiLineLabelUI#wrap(List, javax.swing.text.Element)}.
+ * If the UI delegate changes where lines break, each paragraph is put in a
+ * document of its own and broken by the delegate.
+ * <p>
+ * Only the bounds of the wrapped lines are kept. A line is copied to a string
+ * when it is requested, which the UI delegate only does for the lines it
+ * paints.
+ * <p>
+ * Note that {@link #size()} wraps all paragraphs; use {@link #count(int, int)}
+ * or {@link #estimatedSize()} to avoid it.
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+final class LazyLineList extends AbstractList<String> {
+
+    /** Lines wrapped to estimate the number of lines per character. */
+    private static final int SAMPLE_SIZE = 64;
+
+    /** Bytes taken by the bounds of a line. */
+    static final int LINE_BYTES = 8;
+
+    /** Number of characters read at the time while finding a paragraph. */
+    private static final int CHUNK_SIZE = 256;
+
+    /** The text. */
+    private final CharSequence text;
+
+    /**
+     * Length of the text followed by a line break, just like the content of a
+     * document.
+     */
+    private final int length;
+
+    /** The characters of the paragraph being wrapped. */
+    private char[] paragraph = new char[256];
+
+    /** Font metrics used to measure the text. */
+    private final FontMetrics fm;
+
+    /** The width to wrap the text to. */
+    private final int width;
+
+    /** UI delegate breaking the lines, <code>null</code> for the default. */
+    private final MultiLineLabelUI breaker;
+
+    /**
+     * Start and end offsets in the text of the lines wrapped so far. The end
+     * of the last line is the length, when it includes the implied line
+     * break.
+     */
+    private int[] bounds = new int[2 * SAMPLE_SIZE];
+
+    /** Number of lines wrapped so far. */
+    private int count;
+
+    /** Segment used to measure the text. */
+    private final Segment segment = new Segment();
+
+    /** Offset of the next paragraph to wrap. */
+    private int next;
+
+    /** Flag telling if the remaining paragraphs are wrapped in background. */
+    private boolean completing;
+
+    /**
+     * Components waiting for the remaining paragraphs to be wrapped. The list
+     * is shared by all labels with the same layout through the
+     * {@link LayoutCache}.
+     */
+    private final Set<JComponent> waiting = Collections
+            .newSetFromMap(new WeakHashMap<JComponent, Boolean>());
+
+    /**
+     * Create a new lazy list.
+     * 
+     * @param text
+     *            the text
+     * @param fm
+     *            font metrics used to measure the text
+     * @param width
+     *            the width to wrap the text to
+     * @param breaker
+     *            UI delegate overriding where lines break, or
+     *            <code>null</code>
+     */
+    LazyLineList(CharSequence text, FontMetrics fm, int width,
+            MultiLineLabelUI breaker) {
+        this.text = text;
+        length = text.length() + 1;
+        this.fm = fm;
+        this.width = width;
+        this.breaker = breaker;
+    }
+
+    /**
+     * Wrap paragraphs until there are at least <code>n</code> lines, or all
+     * paragraphs are wrapped.
+     * 
+     * @param n
+     *            number of lines requested
+     * @return the number of lines available, at most <code>n</code>
+     */
+    synchronized int available(int n) {
+        while (count < n && next < length) {
+            wrapNext();
+        }
+        return Math.min(count, n);
+    }
+
+    /**
+     * Count the lines, up to <code>max</code>. Paragraphs are only wrapped
+     * until <code>needed</code> lines are known, any lines after these are
+     * estimated.
+     * 
+     * @param needed
+     *            number of lines that must be exact
+     * @param max
+     *            maximum number of lines of interest
+     * @return the number of lines, at most <code>max</code>
+     */
+    synchronized int count(int needed, int max) {
+        int n = available(needed);
+        if (n < needed) {
+            return n; // All lines are wrapped.
+        }
+        return Math.max(n, Math.min(estimatedSize(), max));
+    }
+
+    /**
+     * Check if all paragraphs are wrapped.
+     * 
+     * @return <code>true</code> if all lines are known
+     */
+    synchronized boolean isComplete() {
+        return next == length;
+    }
+
+    /**
+     * Get the total number of lines, estimated from the lines per character
+     * of the paragraphs wrapped so far unless all paragraphs are wrapped.
+     * 
+     * @return the estimated number of lines
+     */
+    synchronized int estimatedSize() {
+        if (next == length) {
+            return count;
+        }
+        available(SAMPLE_SIZE);
+        int remaining = length - next;
+        return count + (int) Math.ceil((double) remaining * count / next);
+    }
+
+    /**
+     * Wrap the remaining paragraphs in the background. Only the bounds of the
+     * lines are kept, the text isn't copied. When done, every
+     * component that has requested completion is revalidated and repainted
+     * (on the event dispatch thread) so that it picks up the exact number of
+     * lines.
+     * 
+     * @param c
+     *            the component showing the lines
+     */
+    synchronized void complete(JComponent c) {
+        if (next == length) {
+            return;
+        }
+        waiting.add(c);
+        if (completing) {
+            return;
+        }
+        completing = true;
+        new SwingWorker<Void, Void>() {
+            protected Void doInBackground() {
+                // Wrap one paragraph at the time, leaving the list available
+                // to the painting thread in between.
+                while (wrapParagraph()) {
+                    // Keep wrapping.
+                }
+                return null;
+            }
+
+            protected void done() {
+                List<JComponent> components;
+                synchronized (LazyLineList.this) {
+                    components = new ArrayList<JComponent>(waiting);
+                    waiting.clear();
+                }
+                for (JComponent c : components) {
+                    c.revalidate();
+                    c.repaint();
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Wrap the next paragraph, if any.
+     * 
+     * @return <code>false</code> if all paragraphs were already wrapped
+     */
+    private synchronized boolean wrapParagraph() {
+        if (next == length) {
+            return false;
+        }
+        wrapNext();
+        return true;
+    }
+
+    /**
+     * Wrap the next paragraph.
+     */
+    private void wrapNext() {
+        int n = readParagraph(next);
+        int p1 = next + n;
+        if (breaker != null) {
+            breakParagraph(n);
+            next = p1;
+            return;
+        }
+        segment.array = paragraph;
+        for (int p0 = 0; p0 < n;) {
+            segment.offset = p0;
+            segment.count = n - p0;
+            int p = p0
+                    + Utilities.getBreakLocation(segment, fm, 0, width, null,
+                            next + p0);
+            addLine(next + p0, next + p);
+            p0 = (p == p0) ? n : p;
+        }
+        next = p1;
+    }
+
+    /**
+     * Remember the bounds of a wrapped line.
+     * 
+     * @param start
+     *            offset of the first character of the line
+     * @param end
+     *            offset after the last character of the line
+     */
+    private void addLine(int start, int end) {
+        if (bounds.length == 2 * count) {
+            bounds = Arrays.copyOf(bounds, 2 * bounds.length);
+        }
+        bounds[2 * count] = start;
+        bounds[2 * count + 1] = end;
+        count++;
+    }
+
+    /**
+     * Break the paragraph into lines with the UI delegate.
+     * 
+     * @param n
+     *            number of characters of the paragraph, including its line
+     *            break
+     */
+    private void breakParagraph(int n) {
+        PlainDocument doc = new PlainDocument();
+        try {
+            // The document ends with an implied line break.
+            doc.insertString(0, new String(paragraph, 0, n - 1), null);
+        } catch (BadLocationException e) {
+            throw new Error("Can't insert paragraph");
+        }
+        for (int p0 = 0; p0 < n;) {
+            int p = breaker.calculateBreakPosition(doc, p0, n, fm, width);
+            addLine(next + p0, next + p);
+            p0 = (p == p0) ? n : p;
+        }
+    }
+
+    /**
+     * Read the paragraph starting at an offset into the paragraph array. The
+     * text is read in chunks until the line break ending the paragraph is
+     * found. The last paragraph is given the implied line break.
+     * 
+     * @param offset
+     *            start of the paragraph
+     * @return number of characters of the paragraph, including its line
+     *         break
+     */
+    private int readParagraph(int offset) {
+        int end = length - 1;
+        int n = 0;
+        while (offset + n < end) {
+            int chunk = Math.min(CHUNK_SIZE, end - (offset + n));
+            if (paragraph.length < n + chunk + 1) {
+                paragraph = Arrays.copyOf(paragraph, Math.max(n + chunk + 1,
+                        2 * paragraph.length));
+            }
+            getChars(offset + n, offset + n + chunk, paragraph, n);
+            for (int i = n, j = n + chunk; i < j; i++) {
+                if (paragraph[i] == '\n') {
+                    return i + 1;
+                }
+            }
+            n += chunk;
+        }
+        paragraph[n] = '\n';
+        return n + 1;
+    }
+
+    /**
+     * Copy characters of the text.
+     * 
+     * @param begin
+     *            offset of the first character
+     * @param end
+     *            offset after the last character
+     * @param dst
+     *            the array to copy to
+     * @param dstBegin
+     *            index in the array of the first character
+     */
+    private void getChars(int begin, int end, char[] dst, int dstBegin) {
+        if (text instanceof String) {
+            ((String) text).getChars(begin, end, dst, dstBegin);
+        } else if (text instanceof StringBuilder) {
+            ((StringBuilder) text).getChars(begin, end, dst, dstBegin);
+        } else if (text instanceof CharBuffer) {
+            // The characters of a buffer are relative to its position.
+            CharBuffer buffer = ((CharBuffer) text).duplicate();
+            buffer.position(buffer.position() + begin);
+            buffer.get(dst, dstBegin, end - begin);
+        } else {
+            text.subSequence(begin, end).toString().getChars(0, end - begin,
+                    dst, dstBegin);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public synchronized String get(int index) {
+        if (index < 0 || available(index + 1) <= index) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        int start = bounds[2 * index];
+        int end = bounds[2 * index + 1];
+        if (end < length) {
+            return text.subSequence(start, end).toString();
+        }
+        // The line ends with the implied line break.
+        return text.subSequence(start, end - 1).toString() + '\n';
+    }
+
+    /** {@inheritDoc} */
+    public synchronized int size() {
+        return available(Integer.MAX_VALUE);
+    }
+}
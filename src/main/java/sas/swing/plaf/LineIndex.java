@@ -0,0 +1,287 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing.plaf;
+
+import java.awt.FontMetrics;
+import java.util.List;
+
+/**
+ * Index of the wrapped lines shown by a label, mapping between text offsets
+ * and positions within the lines. The wrapped lines are consecutive pieces of
+ * the text, so the offset at which each line starts is the sum of the lengths
+ * of the lines before it. A line is painted trimmed, and possibly clipped;
+ * the advance of each character of the painted string is summed once, the
+ * first time the line is hit, from the advances the font metrics cache.
+ * <p>
+ * An offset is mapped to its line with a binary search over the line starts
+ * and an x-coordinate to its offset with a binary search over the advances of
+ * the line, so no string is measured again.
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+final class LineIndex {
+
+    /** The lines. */
+    private final List<String> lines;
+
+    /** Font metrics the lines are painted with. */
+    private final FontMetrics fm;
+
+    /** Offset at which each line starts, and the end of the last line. */
+    private final int[] starts;
+
+    /** Number of whitespace characters trimmed from the start of each line. */
+    private final int[] leads;
+
+    /** The line painted with a clip indication, -1 if none. */
+    private int clipIndex = -1;
+
+    /** The clipped string painted on that line. */
+    private String clipped;
+
+    /** Painted x-coordinate of the start of each line. */
+    private final int[] xs;
+
+    /** Flags telling which x-coordinates are known. */
+    private final boolean[] xKnown;
+
+    /**
+     * Sum of the advances of the painted characters of each line, with one
+     * more element than the characters. Computed when first needed.
+     */
+    private final int[][] advances;
+
+    /**
+     * Index the lines shown.
+     * 
+     * @param lines
+     *            the wrapped lines
+     * @param count
+     *            the number of lines shown
+     * @param fm
+     *            font metrics the lines are painted with
+     */
+    LineIndex(List<String> lines, int count, FontMetrics fm) {
+        this.lines = lines;
+        this.fm = fm;
+        starts = new int[count + 1];
+        leads = new int[count];
+        for (int i = 0; i < count; i++) {
+            String line = lines.get(i);
+            int lead = 0;
+            while (lead < line.length() && line.charAt(lead) <= ' ') {
+                lead++; // Like String.trim().
+            }
+            leads[i] = lead;
+            starts[i + 1] = starts[i] + line.length();
+        }
+        xs = new int[count];
+        xKnown = new boolean[count];
+        advances = new int[count][];
+    }
+
+    /**
+     * Check if the index is of the passed lines, as painted.
+     */
+    boolean isOf(List<String> lines, int count, FontMetrics fm) {
+        return this.lines == lines && leads.length == count
+                && this.fm.equals(fm);
+    }
+
+    /**
+     * Get the font metrics the lines are painted with.
+     * 
+     * @return the font metrics
+     */
+    FontMetrics getFontMetrics() {
+        return fm;
+    }
+
+    /**
+     * Set the line painted with a clip indication.
+     * 
+     * @param line
+     *            the line, -1 if none
+     * @param s
+     *            the clipped string painted on the line
+     */
+    void setClip(int line, String s) {
+        if (line != clipIndex || s != clipped) {
+            if (clipIndex >= 0) {
+                advances[clipIndex] = null;
+                xKnown[clipIndex] = false;
+            }
+            if (line >= 0) {
+                advances[line] = null;
+                xKnown[line] = false;
+            }
+            clipIndex = line;
+            clipped = s;
+        }
+    }
+
+    /**
+     * Get the number of lines indexed.
+     * 
+     * @return the number of lines
+     */
+    int getLineCount() {
+        return leads.length;
+    }
+
+    /**
+     * Get the offset at which a line starts.
+     * 
+     * @param line
+     *            the line, or the number of lines for the end of the last line
+     * @return the offset
+     */
+    int getStart(int line) {
+        return starts[line];
+    }
+
+    /**
+     * Find the line holding an offset.
+     * 
+     * @param offset
+     *            the offset
+     * @return the line, clamped to the lines indexed
+     */
+    int lineOf(int offset) {
+        int lo = 0;
+        int hi = leads.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= offset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Get the painted x-coordinate of the start of a line, if known.
+     * 
+     * @param line
+     *            the line
+     * @return the x-coordinate, or <code>Integer.MIN_VALUE</code>
+     */
+    int getX(int line) {
+        return xKnown[line] ? xs[line] : Integer.MIN_VALUE;
+    }
+
+    /**
+     * Remember the painted x-coordinate of the start of a line.
+     */
+    void setX(int line, int x) {
+        xs[line] = x;
+        xKnown[line] = true;
+    }
+
+    /**
+     * Get the string painted on a line.
+     * 
+     * @param line
+     *            the line
+     * @return the trimmed, possibly clipped, line
+     */
+    String getPainted(int line) {
+        return line == clipIndex ? clipped : lines.get(line).trim();
+    }
+
+    /**
+     * Get the distance from the start of a line to an offset within it.
+     * Offsets before or after the painted characters are clamped to them.
+     * 
+     * @param line
+     *            the line
+     * @param offset
+     *            the offset
+     * @return the distance in pixels
+     */
+    int distanceTo(int line, int offset) {
+        int[] a = getAdvances(line);
+        int k = offset - starts[line] - leads[line];
+        return a[Math.max(0, Math.min(k, a.length - 1))];
+    }
+
+    /**
+     * Get the offset closest to a distance from the start of a line.
+     * 
+     * @param line
+     *            the line
+     * @param distance
+     *            the distance in pixels
+     * @return the offset
+     */
+    int offsetAt(int line, int distance) {
+        int[] a = getAdvances(line);
+        int lo = 0;
+        int hi = a.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (a[mid] <= distance) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        // Round to the nearer edge of the character hit.
+        if (lo + 1 < a.length && distance - a[lo] > a[lo + 1] - distance) {
+            lo++;
+        }
+        return starts[line] + leads[line] + lo;
+    }
+
+    /**
+     * Get the advances of the selectable characters of a line, summing them
+     * the first time.
+     */
+    private int[] getAdvances(int line) {
+        int[] a = advances[line];
+        if (a == null) {
+            String s = getPainted(line);
+            int n = s.length();
+            if (line == clipIndex) {
+                // Only the characters before the clip indication.
+                String trimmed = lines.get(line).trim();
+                int common = 0;
+                while (common < n && common < trimmed.length()
+                        && s.charAt(common) == trimmed.charAt(common)) {
+                    common++;
+                }
+                n = common;
+            }
+            a = new int[n + 1];
+            for (int i = 0; i < n; i++) {
+                a[i + 1] = a[i] + fm.charWidth(s.charAt(i));
+            }
+            advances[line] = a;
+        }
+        return a;
+    }
+}
@@ -23,23 +23,48 @@
  */
 package sas.swing.plaf;
 
+import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.Insets;
+import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
+import java.awt.event.MouseEvent;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
+import java.text.BreakIterator;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import javax.swing.Icon;
 import javax.swing.JComponent;
 import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.UIManager;
+import javax.swing.event.MouseInputAdapter;
+import javax.swing.event.MouseInputListener;
 import javax.swing.plaf.ComponentUI;
 import javax.swing.plaf.LabelUI;
+import javax.swing.plaf.basic.BasicGraphicsUtils;
 import javax.swing.plaf.basic.BasicLabelUI;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
@@ -75,6 +100,16 @@ import sas.swing.MultiLineLabel;
  * by overriding {@link #paintEnabledText(JLabel, Graphics, String, int, int)}
  * and {@link #paintDisabledText(JLabel, Graphics, String, int, int)}. This
  * class is designed to be easily extended by subclasses.
+ * <p>
+ * Repainting a label whose text, font, size and other layout properties are
+ * unchanged does not allocate any memory: the layout, the lines and the
+ * strings painted are remembered on the label between paints. This state is
+ * dropped when the label is no longer showing.
+ * <p>
+ * During a live resize, re-wrapping can be deferred with
+ * {@link #setLiveResizeDelay(int)}: labels keep painting their previous lines,
+ * aligned and clipped to the new bounds, and are re-wrapped once the resizing
+ * has settled.
  * 
  * @author Samuel Sjoberg, http://samuelsjoberg.com
  * @version 1.3.0
@@ -85,15 +120,61 @@ public class MultiLineLabelUI extends BasicLabelUI implements ComponentListener
     public static LabelUI labelUI = new MultiLineLabelUI();
 
     /**
-     * Client property key used to store the calculated wrapped lines on the
-     * JLabel.
+     * Client property key formerly used to store the calculated wrapped lines
+     * on the JLabel.
+     * 
+     * @deprecated wrapped lines are kept in the shared {@link LayoutCache}
      */
+    @Deprecated
     public static final String PROPERTY_KEY = "WrappedText";
 
-    // Static references to avoid heap allocations.
+    // Reused references to avoid heap allocations. These are kept per
+    // instance, labels painted on different threads must use separate
+    // instances of the UI delegate.
+    protected Rectangle layoutIconR = new Rectangle();
+    protected Rectangle layoutTextR = new Rectangle();
+    protected Rectangle layoutViewR = new Rectangle();
+    protected Insets layoutViewInsets = new Insets(0, 0, 0, 0);
+    protected Rectangle paintClipR = new Rectangle();
+
+    /**
+     * Icon rectangle of the label laid out last by any instance.
+     * 
+     * @deprecated shared by all instances, which keeps labels from being
+     *             painted on several threads; use {@link #layoutIconR}. The
+     *             rectangle is still updated by
+     *             {@link #updateLayout(JLabel, FontMetrics, int, int)}, but
+     *             is only reliable when all labels are laid out on the event
+     *             dispatch thread.
+     */
+    @Deprecated
     protected static Rectangle paintIconR = new Rectangle();
+
+    /**
+     * Text rectangle of the label laid out last by any instance.
+     * 
+     * @deprecated shared by all instances; use {@link #layoutTextR}
+     * @see #paintIconR
+     */
+    @Deprecated
     protected static Rectangle paintTextR = new Rectangle();
+
+    /**
+     * View rectangle of the label laid out last by any instance.
+     * 
+     * @deprecated shared by all instances; use {@link #layoutViewR}
+     * @see #paintIconR
+     */
+    @Deprecated
     protected static Rectangle paintViewR = new Rectangle();
+
+    /**
+     * Insets of the label laid out last by any instance.
+     * 
+     * @deprecated shared by all instances; use {@link #layoutViewInsets}
+     * @see #paintIconR
+     */
+    @Deprecated
     protected static Insets paintViewInsets = new Insets(0, 0, 0, 0);
 
     /** Font metrics of the JLabel being rendered. */
@@ -102,6 +183,154 @@ public class MultiLineLabelUI extends BasicLabelUI implements ComponentListener
     /** Default size of the lines list. */
     protected static int defaultSize = 4;
 
+    /** Text length from which text is wrapped lazily. */
+    private static volatile int lazyThreshold = 1 << 16;
+
+    /** Text length from which paragraphs are wrapped in parallel. */
+    private static volatile int parallelThreshold = 1 << 14;
+
+    /** Number of characters of paragraphs wrapped by one parallel task. */
+    private static final int PARALLEL_CHUNK = 1 << 12;
+
+    /** Image providing graphics to measure text off screen. */
+    private static final BufferedImage SCRATCH_IMAGE = new BufferedImage(1,
+            1, BufferedImage.TYPE_INT_ARGB);
+
+    /** Length of the first prefix of a long text measured by the layout. */
+    private static final int MEASURED_PREFIX = 256;
+
+    /** Pool wrapping paragraphs in parallel, created when first needed. */
+    private static ForkJoinPool wrapPool;
+
+    /** Quiet period after a resize before re-wrapping, 0 to never defer. */
+    private static volatile int resizeDelay;
+
+    /** Longest time lines wrapped for a previous width are painted. */
+    private static volatile int resizeMaxStaleness = 500;
+
+    /** Labels resized since the resizing last settled. */
+    private final Set<JLabel> resizedLabels = Collections
+            .newSetFromMap(new WeakHashMap<JLabel, Boolean>());
+
+    /** Timer re-wrapping the resized labels once resizing has settled. */
+    private Timer resizeTimer;
+
+    /** Number of lines after which {@link #wrap(List, Element)} stops. */
+    private int lineLimit = Integer.MAX_VALUE;
+
+    /** Flag telling if {@link #wrap(List, Element)} balances the lines. */
+    private boolean balancedWrap;
+
+    /** Number of texts wrapped, to tell if lines came from a cache. */
+    private int wrapCount;
+
+    /**
+     * Flag telling if a subclass overrides the deprecated
+     * {@link #calculateBreakPosition(Document, int, int)}, which can only
+     * wrap the label being painted.
+     */
+    private final boolean legacyBreaks = overrides("calculateBreakPosition",
+            Document.class, int.class, int.class);
+
+    /** Flag telling if a subclass changes where lines are broken. */
+    private final boolean customBreaks = legacyBreaks
+            || overrides("calculateBreakPosition", Document.class, int.class,
+                    int.class, FontMetrics.class, int.class);
+
+    /**
+     * Flag telling if the lines are wrapped by the rules of this class, and
+     * can be shared with other delegates through the {@link LayoutCache}. The
+     * cache key doesn't tell delegates apart, and lazily wrapped lines of a
+     * subclass would keep the delegate reachable from the shared cache.
+     */
+    private final boolean sharedLayouts = !customBreaks
+            && !overrides("prepareLines", JLabel.class)
+            && !overrides("wrap", List.class, Element.class)
+            && !overrides("wrap", List.class, Element.class,
+                    FontMetrics.class, int.class)
+            && !overrides("wrap", List.class, Element.class,
+                    FontMetrics.class, int.class, int.class)
+            && !overrides("wrapBalanced", List.class, Element.class,
+                    FontMetrics.class, int.class, int.class);
+
+    /** Mouse handler selecting the text of selectable labels. */
+    private final MouseInputListener selectionHandler = new SelectionHandler();
+
+    /**
+     * Listener dropping the state remembered between paints of a label when
+     * the label is no longer showing, so that hidden and removed labels only
+     * keep their lines in the shared, bounded {@link LayoutCache}.
+     */
+    private final HierarchyListener hierarchyHandler = new HierarchyListener() {
+        public void hierarchyChanged(HierarchyEvent e) {
+            if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0
+                    && !e.getComponent().isShowing()) {
+                clearCache((JLabel) e.getComponent());
+            }
+        }
+    };
+
+    /**
+     * Client property key selecting balanced wrapping of a label. When set to
+     * {@link Boolean#TRUE}, each paragraph is broken into lines of about the
+     * same width, rather than filling each line before the next one and
+     * leaving a short last line. Meant for headlines. Texts longer than the
+     * lazy wrap threshold are still wrapped greedily.
+     * 
+     * @see #wrapBalanced(List, Element, FontMetrics, int, int)
+     */
+    public static final String BALANCED_KEY = "MultiLineLabelUI.balanced";
+
+    /**
+     * Client property key opting a label in to retained painting. When set to
+     * {@link Boolean#TRUE}, the fully rendered label is kept in an image that
+     * later paints are copied from, until the text, font, size, colors, icon,
+     * enabled state or any other layout property of the label changes. Meant
+     * for labels that rarely change; animated icons are not animated. All
+     * retained images share the budget set with
+     * {@link #setRetainedBudget(long)}.
+     */
+    public static final String RETAINED_KEY = "MultiLineLabelUI.retained";
+
+    /** Client property key of the retained image of a label. */
+    private static final String RETAINED_IMAGE_KEY = "MultiLineLabelUI.retainedImage";
+
+    /** Client property key of the state remembered between paints. */
+    static final String STATE_KEY = "MultiLineLabelUI.paintState";
+
+    /** Selection color used if the look and feel defines none. */
+    private static final Color DEFAULT_SELECTION_COLOR = new Color(184, 207,
+            229);
+
+    // Colors derived from the background of the most recently painted disabled
+    // label.
+    private Color disabledBackground;
+    private Color disabledBrighter;
+    private Color disabledDarker;
+
+    /**
+     * Check if the class of this delegate overrides a method declared by this
+     * class.
+     * 
+     * @param name
+     *            the method name
+     * @param types
+     *            the parameter types
+     * @return <code>true</code> if a subclass declares the method
+     */
+    private boolean overrides(String name, Class<?>... types) {
+        for (Class<?> c = getClass(); c != MultiLineLabelUI.class; c = c
+                .getSuperclass()) {
+            try {
+                c.getDeclaredMethod(name, types);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // Look in the superclass.
+            }
+        }
+        return false;
+    }
+
     /**
      * Get the shared UI instance.
      * 
@@ -113,43 +342,245 @@ public class MultiLineLabelUI extends BasicLabelUI implements ComponentListener
         return labelUI;
     }
 
+    /**
+     * Set the text length from which text is wrapped lazily. The paragraphs of
+     * a lazily wrapped text are wrapped as painting reaches them, and the
+     * preferred height is estimated from the lines wrapped so far while the
+     * rest of the text is wrapped in the background.
+     * 
+     * @param length
+     *            number of characters, or {@link Integer#MAX_VALUE} to always
+     *            wrap all text up front
+     */
+    public static void setLazyWrapThreshold(int length) {
+        lazyThreshold = length;
+    }
+
+    /**
+     * Get the text length from which text is wrapped lazily.
+     * 
+     * @return number of characters
+     * @see #setLazyWrapThreshold(int)
+     */
+    public static int getLazyWrapThreshold() {
+        return lazyThreshold;
+    }
+
+    /**
+     * Set the text length from which the paragraphs of a text are wrapped in
+     * parallel on a fork-join pool, in chunks of a few thousand characters.
+     * The lines are identical to the lines wrapped sequentially. Texts longer
+     * than the lazy wrap threshold are wrapped lazily instead, and texts
+     * shown with a maximum number of lines are always wrapped sequentially.
+     * 
+     * @param length
+     *            number of characters, or {@link Integer#MAX_VALUE} to always
+     *            wrap sequentially
+     * @see #setLazyWrapThreshold(int)
+     */
+    public static void setParallelWrapThreshold(int length) {
+        parallelThreshold = length;
+    }
+
+    /**
+     * Get the text length from which paragraphs are wrapped in parallel.
+     * 
+     * @return number of characters
+     * @see #setParallelWrapThreshold(int)
+     */
+    public static int getParallelWrapThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Set the memory budget shared by the retained images of all labels. The
+     * least recently painted images are released when it is exceeded, and
+     * labels whose image alone exceeds it are painted directly.
+     * 
+     * @param bytes
+     *            the budget in bytes, 16 MB by default
+     * @see #RETAINED_KEY
+     */
+    public static void setRetainedBudget(long bytes) {
+        RetainedImage.setBudget(bytes);
+    }
+
+    /**
+     * Get the memory budget shared by the retained images of all labels.
+     * 
+     * @return the budget in bytes
+     * @see #setRetainedBudget(long)
+     */
+    public static long getRetainedBudget() {
+        return RetainedImage.getBudget();
+    }
+
+    /**
+     * Set the quiet period after which labels resized during a live resize are
+     * re-wrapped. While resize events keep arriving, the labels paint the lines
+     * wrapped for their previous width. The final lines are identical to the
+     * lines of an immediate re-wrap.
+     * 
+     * @param millis
+     *            the delay in milliseconds, or 0 to re-wrap on every resize
+     *            (the default)
+     * @see #setLiveResizeMaxStaleness(int)
+     */
+    public static void setLiveResizeDelay(int millis) {
+        resizeDelay = millis;
+    }
+
+    /**
+     * Get the quiet period after which resized labels are re-wrapped.
+     * 
+     * @return the delay in milliseconds, 0 if re-wrapping is never deferred
+     * @see #setLiveResizeDelay(int)
+     */
+    public static int getLiveResizeDelay() {
+        return resizeDelay;
+    }
+
+    /**
+     * Set the longest time a label being resized paints lines wrapped for a
+     * previous width. When exceeded, the label is re-wrapped once for its
+     * current width even if the resizing has not settled.
+     * 
+     * @param millis
+     *            the maximum staleness in milliseconds, 500 by default
+     * @see #setLiveResizeDelay(int)
+     */
+    public static void setLiveResizeMaxStaleness(int millis) {
+        resizeMaxStaleness = millis;
+    }
+
+    /**
+     * Get the longest time a label being resized paints stale lines.
+     * 
+     * @return the maximum staleness in milliseconds
+     * @see #setLiveResizeMaxStaleness(int)
+     */
+    public static int getLiveResizeMaxStaleness() {
+        return resizeMaxStaleness;
+    }
+
     /** {@inheritDoc} */
     protected void uninstallDefaults(JLabel c) {
         super.uninstallDefaults(c);
         clearCache(c);
+        RetainedImage r = (RetainedImage) c
+                .getClientProperty(RETAINED_IMAGE_KEY);
+        if (r != null) {
+            r.dispose();
+            c.putClientProperty(RETAINED_IMAGE_KEY, null);
+        }
     }
 
     /** {@inheritDoc} */
     protected void installListeners(JLabel c) {
         super.installListeners(c);
         c.addComponentListener(this);
+        c.addHierarchyListener(hierarchyHandler);
+        if (isSelectable(c)) {
+            c.addMouseListener(selectionHandler);
+            c.addMouseMotionListener(selectionHandler);
+        }
     }
 
     /** {@inheritDoc} */
     protected void uninstallListeners(JLabel c) {
         super.uninstallListeners(c);
         c.removeComponentListener(this);
+        c.removeHierarchyListener(hierarchyHandler);
+        c.removeMouseListener(selectionHandler);
+        c.removeMouseMotionListener(selectionHandler);
     }
 
     /**
-     * Clear the wrapped line cache.
+     * Invoked when the text, font or size of the label changes. The wrapped
+     * lines are kept in the shared {@link LayoutCache}, keyed on exactly these
+     * properties, so stale layouts are left for the cache to evict. The state
+     * remembered between paints of the label is dropped. Subclasses keeping
+     * their own state per label may override this method.
      * 
      * @param l
-     *            the label containing a cached value
+     *            the label whose layout changed
      */
     protected void clearCache(JLabel l) {
-        l.putClientProperty(PROPERTY_KEY, null);
+        if (l.getClientProperty(STATE_KEY) != null) {
+            l.putClientProperty(STATE_KEY, null);
+        }
+    }
+
+    /**
+     * Get the state remembered between paints of the label.
+     * 
+     * @param l
+     *            the label
+     * @return the paint state of the label
+     */
+    private static PaintState getState(JLabel l) {
+        Object state = l.getClientProperty(STATE_KEY);
+        if (state instanceof PaintState) {
+            return (PaintState) state;
+        }
+        PaintState created = new PaintState();
+        l.putClientProperty(STATE_KEY, created);
+        return created;
     }
 
     /** {@inheritDoc} */
     public void propertyChange(PropertyChangeEvent e) {
         super.propertyChange(e);
         final String name = e.getPropertyName();
-        if (name.equals("text") || "font".equals(name)) {
-            clearCache((JLabel) e.getSource());
+        if (name.equals("text") || "textSource".equals(name)
+                || "font".equals(name) || "maxLines".equals(name)
+                || BALANCED_KEY.equals(name) || "autoFit".equals(name)
+                || "minimumFitSize".equals(name) || "border".equals(name)
+                || TextEffect.ICON_EFFECT_KEY.equals(name)) {
+            // Properties changing the layout. The text source is also fired
+            // when the characters of the same source change, which the
+            // retained image can't tell from the source itself.
+            JLabel l = (JLabel) e.getSource();
+            clearCache(l);
+            RetainedImage r = (RetainedImage) l
+                    .getClientProperty(RETAINED_IMAGE_KEY);
+            if (r != null) {
+                r.invalidate();
+            }
+        } else if ("selectable".equals(name)) {
+            JLabel l = (JLabel) e.getSource();
+            l.removeMouseListener(selectionHandler);
+            l.removeMouseMotionListener(selectionHandler);
+            if (isSelectable(l)) {
+                l.addMouseListener(selectionHandler);
+                l.addMouseMotionListener(selectionHandler);
+            }
+        } else if ("selectionStart".equals(name)
+                || "selectionEnd".equals(name)) {
+            JLabel l = (JLabel) e.getSource();
+            RetainedImage r = (RetainedImage) l
+                    .getClientProperty(RETAINED_IMAGE_KEY);
+            if (r != null) {
+                r.invalidate();
+            }
+            repaintSelection(l);
         }
     }
 
+    /**
+     * Get the characters shown by the label: the text source of a
+     * {@link MultiLineLabel}, otherwise the text.
+     * 
+     * @param l
+     *            the label
+     * @return the characters shown, or <code>null</code>
+     * @see MultiLineLabel#setTextSource(CharSequence)
+     */
+    protected CharSequence getTextSource(JLabel l) {
+        return l instanceof MultiLineLabel ? ((MultiLineLabel) l)
+                .getTextSource() : l.getText();
+    }
+
     /**
      * Calculate the paint rectangles for the icon and text for the passed
      * label.
@@ -170,32 +601,202 @@ public class MultiLineLabelUI extends BasicLabelUI implements ComponentListener
         }
         metrics = fm;
 
-        String text = l.getText();
+        CharSequence text = getTextSource(l);
         Icon icon = l.getIcon();
-        Insets insets = l.getInsets(paintViewInsets);
+        Insets insets = l.getInsets(layoutViewInsets);
+
+        PaintState state = getState(l);
+        if (state.isLayoutOf(l, fm, text, icon, width, height, insets)) {
+            layoutViewR.setBounds(state.viewR);
+            layoutIconR.setBounds(state.iconR);
+            layoutTextR.setBounds(state.textR);
+        } else {
+            layoutViewR.x = insets.left;
+            layoutViewR.y = insets.top;
+            layoutViewR.width = width - (insets.left + insets.right);
+            layoutViewR.height = height - (insets.top + insets.bottom);
+
+            layoutIconR.setBounds(0, 0, 0, 0);
+            layoutTextR.setBounds(0, 0, 0, 0);
+
+            layoutSource(l, fm, text, icon, layoutViewR, layoutIconR,
+                    layoutTextR);
+
+            state.setLayout(l, fm, text, icon, width, height, insets,
+                    layoutViewR, layoutIconR, layoutTextR);
+        }
+        publishLayout();
+    }
+
+    /**
+     * Copy the layout to the deprecated static rectangles, for subclasses
+     * still reading them.
+     */
+    @SuppressWarnings("deprecation")
+    private void publishLayout() {
+        paintViewR.setBounds(layoutViewR);
+        paintIconR.setBounds(layoutIconR);
+        paintTextR.setBounds(layoutTextR);
+        paintViewInsets.set(layoutViewInsets.top, layoutViewInsets.left,
+                layoutViewInsets.bottom, layoutViewInsets.right);
+    }
 
-        paintViewR.x = insets.left;
-        paintViewR.y = insets.top;
-        paintViewR.width = width - (insets.left + insets.right);
-        paintViewR.height = height - (insets.top + insets.bottom);
+    /**
+     * Compute the location and size of the icon and the text. The text
+     * rectangle is as wide as the unwrapped text, clipped to the available
+     * width, so a long text is measured only as far as it can be shown
+     * instead of in full.
+     */
+    protected String layoutCL(JLabel label, FontMetrics fm, String text,
+            Icon icon, Rectangle viewR, Rectangle iconR, Rectangle textR) {
+        return super.layoutCL(label, fm, getMeasuredText(fm, text,
+                viewR.width), icon, viewR, iconR, textR);
+    }
 
-        paintIconR.x = paintIconR.y = paintIconR.width = paintIconR.height = 0;
-        paintTextR.x = paintTextR.y = paintTextR.width = paintTextR.height = 0;
+    /**
+     * Lay out the text of a label through {@link #layoutCL}, unless it is a
+     * text source other than a string. Such a source is measured here instead,
+     * so that it isn't copied to a string in full.
+     */
+    private String layoutSource(JLabel label, FontMetrics fm,
+            CharSequence text, Icon icon, Rectangle viewR, Rectangle iconR,
+            Rectangle textR) {
+        if (text == null || text instanceof String) {
+            return layoutCL(label, fm, (String) text, icon, viewR, iconR,
+                    textR);
+        }
+        return super.layoutCL(label, fm, getMeasuredText(fm, text,
+                viewR.width), icon, viewR, iconR, textR);
+    }
 
-        layoutCL(l, fm, text, icon, paintViewR, paintIconR, paintTextR);
+    /**
+     * Get the part of a text that must be measured to lay it out in the passed
+     * width: the text itself if short, otherwise a prefix at least twice as
+     * wide as the width. The prefix is clipped to the same string as the full
+     * text. Only the prefix of a text source is copied to a string.
+     * 
+     * @param fm
+     *            the font metrics
+     * @param text
+     *            the text
+     * @param width
+     *            the width available
+     * @return the text to measure
+     */
+    private static String getMeasuredText(FontMetrics fm, CharSequence text,
+            int width) {
+        if (text == null || text.length() <= MEASURED_PREFIX) {
+            return text == null ? null : text.toString();
+        }
+        int n = MEASURED_PREFIX;
+        while (n < text.length()
+                && fm.stringWidth(text.subSequence(0, n).toString()) <= width) {
+            n <<= 1;
+        }
+        n <<= 1; // Margin for fractional character widths.
+        return (n < text.length() ? text.subSequence(0, n) : text).toString();
     }
 
     protected void prepareGraphics(Graphics g) {
     }
 
-    /** {@inheritDoc} */
+    /**
+     * Paint the label. Labels opted in to retained painting are painted from
+     * their retained image, rendering it first if any property of the label
+     * has changed since.
+     * 
+     * @see #RETAINED_KEY
+     */
     public void paint(Graphics g, JComponent c) {
+        JLabel label = (JLabel) c;
+        long start = RepaintHeatMap.begin(c);
+        if (c.getClientProperty(RETAINED_KEY) != Boolean.TRUE
+                || !paintRetained(g, label)) {
+            paintLabel(g, label);
+        }
+        if (start != 0) {
+            RepaintHeatMap.end(c, g, start);
+        }
+    }
+
+    /**
+     * Paint the label from its retained image.
+     * 
+     * @param g
+     *            the graphics to paint on
+     * @param l
+     *            the label
+     * @return <code>false</code> if the label can't be retained right now
+     *         and must be painted directly
+     */
+    private boolean paintRetained(Graphics g, JLabel l) {
+        int w = l.getWidth();
+        int h = l.getHeight();
+        if (w <= 0 || h <= 0 || !(g instanceof Graphics2D) || !canRetain(l)) {
+            return false;
+        }
+        Graphics2D g2 = (Graphics2D) g;
+        if ((g2.getTransform().getType() & ~AffineTransform.TYPE_TRANSLATION) != 0) {
+            // A retained image would be scaled, paint crisp text instead.
+            return false;
+        }
+        RetainedImage r = (RetainedImage) l
+                .getClientProperty(RETAINED_IMAGE_KEY);
+        if (r == null) {
+            r = new RetainedImage();
+            l.putClientProperty(RETAINED_IMAGE_KEY, r);
+        }
+        GraphicsConfiguration gc = l.getGraphicsConfiguration();
+        do {
+            if (!r.validate(gc, w, h)) {
+                return false;
+            }
+            if (!r.isOf(l, l.getInsets(layoutViewInsets))) {
+                Graphics2D ig = r.createGraphics();
+                try {
+                    ig.setRenderingHints(g2.getRenderingHints());
+                    ig.setFont(g.getFont());
+                    ig.setColor(g.getColor());
+                    paintLabel(ig, l);
+                } finally {
+                    ig.dispose();
+                }
+                r.setRendered(l, l.getInsets(layoutViewInsets));
+            }
+            g.drawImage(r.getImage(), 0, 0, null);
+        } while (r.contentsLost());
+        return true;
+    }
+
+    /**
+     * Check if the label may be painted from a retained image right now.
+     * Subclasses painting at a temporarily reduced quality should return
+     * <code>false</code> while doing so.
+     * 
+     * @param l
+     *            the label about to be painted
+     * @return <code>true</code> by default
+     * @see #RETAINED_KEY
+     */
+    protected boolean canRetain(JLabel l) {
+        return true;
+    }
+
+    /**
+     * Paint the icon and text of the label.
+     * 
+     * @param g
+     *            the graphics to paint on
+     * @param label
+     *            the label
+     */
+    private void paintLabel(Graphics g, JLabel label) {
 
         // parent's update method fills the background
         prepareGraphics(g);
 
-        JLabel label = (JLabel) c;
-        String text = label.getText();
+        JComponent c = label;
+        CharSequence text = getTextSource(label);
         Icon icon = (label.isEnabled()) ? label.getIcon() : label
                 .getDisabledIcon();
 
@@ -204,27 +805,63 @@ public class MultiLineLabelUI extends BasicLabelUI implements ComponentListener
         }
 
         FontMetrics fm = g.getFontMetrics();
+        getState(label).paintFrc = fm.getFontRenderContext();
+
+        if (text != null && isAutoFit(label)
+                && c.getClientProperty("html") == null) {
+            Font fitted = getFittedFont(g, label, text, fm);
+            if (fitted != fm.getFont()) {
+                g.setFont(fitted);
+                fm = g.getFontMetrics();
+            }
+        }
 
         updateLayout(label, fm, c.getWidth(), c.getHeight());
 
         if (icon != null) {
-            icon.paintIcon(c, g, paintIconR.x, paintIconR.y);
+            paintIcon(g, label, icon, layoutIconR.x, layoutIconR.y);
         }
 
         if (text != null) {
             View v = (View) c.getClientProperty("html");
             if (v != null) {
                 // HTML view disables multi-line painting.
-                v.paint(g, paintTextR);
+                v.paint(g, layoutTextR);
             } else {
                 // Paint the multi line text
+                Object event = FlightEvents.begin(FlightEvents.PAINT);
+                int wraps = wrapCount;
                 paintTextLines(g, label, fm);
+                if (event != null) {
+                    FlightEvents.end(event, text.length(),
+                            getLineCount(getState(label).lines),
+                            layoutTextR.width, wraps == wrapCount);
+                }
             }
         }
     }
 
     /**
-     * Paint the wrapped text lines.
+     * Paint the icon of the label.
+     * 
+     * @param g
+     *            the graphics to paint on
+     * @param l
+     *            the label
+     * @param icon
+     *            the icon, enabled or disabled depending on the label
+     * @param x
+     *            the x coordinate of the icon
+     * @param y
+     *            the y coordinate of the icon
+     */
+    protected void paintIcon(Graphics g, JLabel l, Icon icon, int x, int y) {
+        icon.paintIcon(l, g, x, y);
+    }
+
+    /**
+     * Paint the wrapped text lines. Lines outside of the clip of the graphics
+     * are skipped.
      * 
      * @param g
      *            graphics component to paint on
@@ -235,35 +872,89 @@ public class MultiLineLabelUI extends BasicLabelUI implements ComponentListener
      */
     protected void paintTextLines(Graphics g, JLabel label, FontMetrics fm) {
         List<String> lines = getTextLines(label);
+        PaintState state = getState(label);
 
         // Available component height to paint on.
         int height = getAvailableHeight(label);
+        int lineHeight = fm.getHeight();
+
+        // Lines further down than the clip are never painted, so there is no
+        // need to know them exactly (or to wrap them when wrapping lazily).
+        paintClipR.setBounds(0, 0, label.getWidth(), label.getHeight());
+        g.getClipBounds(paintClipR);
+        int maxLines = Math.max(height, 0) / lineHeight + 2;
+        int clipLines = Math.max(paintClipR.y + paintClipR.height
+                - layoutViewInsets.top, 0)
+                / lineHeight + 4;
+        int limit = getMaxLines(label);
+        int numOfLines;
+        if (limit > 0 && limit < maxLines) {
+            // Only the first lines are shown, count one more to know if the
+            // last line shown needs a clip indication.
+            numOfLines = getLineCount(lines, limit + 1, limit + 1);
+        } else {
+            numOfLines = getLineCount(lines, Math.min(clipLines, maxLines),
+                    maxLines);
+        }
+        boolean truncated = limit > 0 && numOfLines > limit;
+        if (truncated) {
+            numOfLines = limit;
+        }
 
-        int textHeight = lines.size() * fm.getHeight();
+        int textHeight = numOfLines * lineHeight;
         while (textHeight > height) {
             // Remove one line until no. of visible lines is found.
-            textHeight -= fm.getHeight();
+            textHeight -= lineHeight;
+        }
+        layoutTextR.height = Math.min(textHeight, height);
+        layoutTextR.y = alignmentY(label, fm, layoutTextR);
+
+        int textX = layoutTextR.x;
+        int textY = layoutTextR.y;
+
+        LineIndex index = null;
+        if (isSelectable(label)) {
+            index = state.getIndex(lines, numOfLines, fm);
+            state.firstBaseline = textY;
         }
-        paintTextR.height = Math.min(textHeight, height);
-        paintTextR.y = alignmentY(label, fm, paintTextR);
 
-        int textX = paintTextR.x;
-        int textY = paintTextR.y;
+        // Leave room for text effects painted outside of the line.
+        int clipTop = paintClipR.y - 2 * lineHeight;
+        int clipBottom = paintClipR.y + paintClipR.height + 2 * lineHeight;
 
-        for (Iterator<String> it = lines.iterator(); it.hasNext()
-                && paintTextR.contains(textX, textY + getAscent(fm)); textY += fm
-                .getHeight()) {
+        for (int i = 0; i < numOfLines && textY <= clipBottom
+                && layoutTextR.contains(textX, textY + getAscent(fm)); i++, textY += lineHeight) {
+
+            if (textY < clipTop) {
+                continue;
+            }
 
-            String text = it.next().trim();
+            String text = state.getLine(lines, i, numOfLines);
 
-            if (it.hasNext()
-                    && !paintTextR.contains(textX, textY + fm.getHeight()
-                            + getAscent(fm))) {
+            if ((truncated && i + 1 == numOfLines)
+                    || (i + 1 < numOfLines && !layoutTextR.contains(textX, textY
+                            + lineHeight + getAscent(fm)))) {
                 // The last visible row, add a clip indication.
-                text = clip(text, fm, paintTextR);
+                if (state.clipIndex != i || state.clipSource != text
+                        || state.clipWidth != layoutTextR.width) {
+                    state.clipIndex = i;
+                    state.clipSource = text;
+                    state.clipWidth = layoutTextR.width;
+                    state.clipped = clip(text, fm, layoutTextR);
+                }
+                text = state.clipped;
+                if (index != null) {
+                    index.setClip(i, text);
+                }
             }
 
-            int x = alignmentX(label, fm, text, paintTextR);
+            int x = alignmentX(label, fm, text, layoutTextR);
+
+            if (index != null) {
+                index.setX(i, x);
+                paintSelection(g, (MultiLineLabel) label, index, i, x, textY
+                        - getAscent(fm), lineHeight);
+            }
 
             if (label.isEnabled()) {
                 paintEnabledText(label, g, text, x, textY);
@@ -274,73 +965,466 @@ public class MultiLineLabelUI extends BasicLabelUI implements ComponentListener
     }
 
     /**
-     * Returns the available height to paint text on. This is the height of the
-     * passed component with insets subtracted.
+     * Paint disabled text like <code>BasicLabelUI</code> does, embossed in
+     * colors derived from the label background. The derived colors are
+     * remembered between paints.
      * 
      * @param l
-     *            a component
-     * @return the available height
+     *            the label being painted
+     * @param g
+     *            graphics component to paint on
+     * @param s
+     *            the string to paint
+     * @param textX
+     *            the x coordinate
+     * @param textY
+     *            the y coordinate
      */
-    protected int getAvailableHeight(JLabel l) {
-        l.getInsets(paintViewInsets);
-        return l.getHeight() - paintViewInsets.top - paintViewInsets.bottom;
+    protected void paintDisabledText(JLabel l, Graphics g, String s,
+            int textX, int textY) {
+        int accChar = l.getDisplayedMnemonicIndex();
+        Color background = l.getBackground();
+        g.setColor(brighter(background));
+        drawString(l, g, s, accChar, textX + 1, textY + 1);
+        g.setColor(darker(background));
+        drawString(l, g, s, accChar, textX, textY);
     }
 
     /**
-     * Add a clip indication to the string. It is important that the string
-     * length does not exceed the length or the original string.
-     * 
-     * @param text
-     *            the to be painted
-     * @param fm
-     *            font metrics
-     * @param bounds
-     *            the text bounds
-     * @return the clipped string
+     * Draw a string with the text antialiasing of the label, underlining the
+     * character at the passed index.
      */
-    protected String clip(String text, FontMetrics fm, Rectangle bounds) {
-        // Fast and lazy way to insert a clip indication is to simply replace
-        // the last characters in the string with the clip indication.
-        // A better way would be to use metrics and calculate how many (if any)
-        // characters that need to be replaced.
-        if (text.length() < 3) {
-            return "...";
+    private static void drawString(JLabel l, Graphics g, String s,
+            int underlinedIndex, int x, int y) {
+        Object aa = l.getClientProperty(RenderingHints.KEY_TEXT_ANTIALIASING);
+        if (aa == null || !(g instanceof Graphics2D)) {
+            BasicGraphicsUtils.drawStringUnderlineCharAt(g, s,
+                    underlinedIndex, x, y);
+            return;
         }
-        return text.substring(0, text.length() - 3) + "...";
+        Graphics2D g2 = (Graphics2D) g;
+        Object old = g2.getRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING);
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, aa);
+        BasicGraphicsUtils.drawStringUnderlineCharAt(g, s, underlinedIndex, x,
+                y);
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, old);
     }
 
     /**
-     * Establish the vertical text alignment. The default alignment is to center
-     * the text in the label.
+     * Get a brighter version of the color, see {@link Color#brighter()}. The
+     * color derived from the most recently passed color is remembered.
      * 
-     * @param label
-     *            the label to paint
-     * @param fm
-     *            font metrics
-     * @param bounds
-     *            the text bounds rectangle
-     * @return the vertical text alignment, defaults to CENTER.
+     * @param c
+     *            a color
+     * @return a brighter version of the color
      */
-    protected int alignmentY(JLabel label, FontMetrics fm, Rectangle bounds) {
-        final int height = getAvailableHeight(label);
-        int textHeight = bounds.height;
+    protected Color brighter(Color c) {
+        if (c != disabledBackground || disabledBrighter == null) {
+            setDisabledBackground(c);
+        }
+        return disabledBrighter;
+    }
 
-        if (label instanceof MultiLineLabel) {
-            int align = ((MultiLineLabel) label).getVerticalTextAlignment();
+    /**
+     * Get a darker version of the color, see {@link Color#darker()}. The color
+     * derived from the most recently passed color is remembered.
+     * 
+     * @param c
+     *            a color
+     * @return a darker version of the color
+     */
+    protected Color darker(Color c) {
+        if (c != disabledBackground || disabledDarker == null) {
+            setDisabledBackground(c);
+        }
+        return disabledDarker;
+    }
+
+    private void setDisabledBackground(Color c) {
+        disabledBackground = c;
+        disabledBrighter = c.brighter();
+        disabledDarker = c.darker();
+    }
+
+    /**
+     * Get the number of lines, but no more than <code>max</code>. Lazily
+     * wrapped lines are only wrapped up to <code>needed</code>, the remaining
+     * lines are estimated.
+     * 
+     * @param lines
+     *            the lines
+     * @param needed
+     *            number of lines that must be exact
+     * @param max
+     *            maximum number of lines of interest
+     * @return the number of lines
+     */
+    private static int getLineCount(List<String> lines, int needed, int max) {
+        if (lines instanceof LazyLineList) {
+            return ((LazyLineList) lines).count(needed, max);
+        }
+        return Math.min(lines.size(), max);
+    }
+
+    /**
+     * Get the number of lines, estimated if wrapped lazily.
+     * 
+     * @param lines
+     *            the lines, or <code>null</code>
+     * @return the number of lines
+     */
+    private static int getLineCount(List<String> lines) {
+        return lines == null ? 0 : getLineCount(lines, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get the maximum number of lines shown by the label.
+     * 
+     * @param l
+     *            a label
+     * @return the maximum number of lines, 0 if not limited
+     * @see MultiLineLabel#setMaxLines(int)
+     */
+    protected int getMaxLines(JLabel l) {
+        return l instanceof MultiLineLabel ? ((MultiLineLabel) l)
+                .getMaxLines() : 0;
+    }
+
+    /**
+     * Check if the lines of a label are balanced.
+     * 
+     * @param l
+     *            a label
+     * @return <code>true</code> if the label is opted in to balanced wrapping
+     * @see #BALANCED_KEY
+     */
+    protected boolean isBalanced(JLabel l) {
+        return l.getClientProperty(BALANCED_KEY) == Boolean.TRUE;
+    }
+
+    /**
+     * Check if the font of a label is shrunk for the text to fit.
+     * 
+     * @param l
+     *            a label
+     * @return <code>true</code> if the label is an auto-fit
+     *         {@link MultiLineLabel}
+     * @see MultiLineLabel#setAutoFit(boolean)
+     */
+    protected boolean isAutoFit(JLabel l) {
+        return l instanceof MultiLineLabel && ((MultiLineLabel) l).isAutoFit();
+    }
+
+    /**
+     * Get the smallest font size the text of a label is shrunk to.
+     * 
+     * @param l
+     *            a label
+     * @return the size in points
+     * @see MultiLineLabel#setMinimumFitSize(float)
+     */
+    protected float getMinimumFitSize(JLabel l) {
+        return l instanceof MultiLineLabel ? ((MultiLineLabel) l)
+                .getMinimumFitSize() : 6f;
+    }
+
+    /**
+     * Get the font an auto-fit label is painted with. The fitted font is
+     * remembered until the text, font or size of the label changes.
+     * 
+     * @param g
+     *            the graphics the label is painted with
+     * @param l
+     *            the label
+     * @param text
+     *            the text of the label
+     * @param fm
+     *            font metrics of the font of the label
+     * @return the largest font the text fits with
+     */
+    private Font getFittedFont(Graphics g, JLabel l, CharSequence text,
+            FontMetrics fm) {
+        PaintState state = getState(l);
+        Font font = fm.getFont();
+        FontRenderContext frc = fm.getFontRenderContext();
+        int width = l.getWidth();
+        int height = l.getHeight();
+        float minSize = getMinimumFitSize(l);
+        int maxLines = getMaxLines(l);
+        if (state.fitted == null || state.fitText != text
+                || state.fitWidth != width || state.fitHeight != height
+                || state.fitMinSize != minSize
+                || state.fitMaxLines != maxLines || !font.equals(state.fitFont)
+                || !frc.equals(state.fitFrc)) {
+            // The text is fitted to the text bounds at the largest size.
+            updateLayout(l, fm, width, height);
+            state.fitted = FontFitter.fit(text, font, g, layoutTextR.width,
+                    getAvailableHeight(l), minSize, maxLines);
+            state.fitText = text;
+            state.fitFont = font;
+            state.fitFrc = frc;
+            state.fitWidth = width;
+            state.fitHeight = height;
+            state.fitMinSize = minSize;
+            state.fitMaxLines = maxLines;
+        }
+        return state.fitted;
+    }
+
+    /**
+     * Check if the text of a label can be selected.
+     * 
+     * @param l
+     *            a label
+     * @return <code>true</code> if the label is a selectable
+     *         {@link MultiLineLabel}
+     * @see MultiLineLabel#setSelectable(boolean)
+     */
+    protected boolean isSelectable(JLabel l) {
+        return l instanceof MultiLineLabel
+                && ((MultiLineLabel) l).isSelectable();
+    }
+
+    /**
+     * Get the color the selected text is highlighted with.
+     * 
+     * @param l
+     *            a selectable label
+     * @return the text area selection background of the look and feel
+     */
+    protected Color getSelectionColor(JLabel l) {
+        Color c = UIManager.getColor("TextArea.selectionBackground");
+        return c != null ? c : DEFAULT_SELECTION_COLOR;
+    }
+
+    /**
+     * Get the text offset closest to a point of a selectable label, as the
+     * label was last painted. The line is found from the y-coordinate and the
+     * offset by a binary search over the advances of the line.
+     * 
+     * @param l
+     *            a selectable label
+     * @param p
+     *            the point, in label coordinates
+     * @return the offset, or -1 if the label hasn't been painted
+     */
+    public int viewToModel(JLabel l, Point p) {
+        LineIndex index = getIndex(l);
+        if (index == null) {
+            return -1;
+        }
+        FontMetrics fm = index.getFontMetrics();
+        int lineHeight = fm.getHeight();
+        int top = getState(l).firstBaseline - getAscent(fm);
+        int line = p.y < top ? 0 : Math.min((p.y - top) / lineHeight, index
+                .getLineCount() - 1);
+        return index.offsetAt(line, p.x - getLineX(l, index, line));
+    }
+
+    /**
+     * Get the bounds of the caret position before a text offset of a
+     * selectable label, as the label was last painted. The line is found by a
+     * binary search over the offsets at which the lines start.
+     * 
+     * @param l
+     *            a selectable label
+     * @param offset
+     *            the text offset
+     * @return the bounds, zero pixels wide and a line high, or
+     *         <code>null</code> if the label hasn't been painted
+     */
+    public Rectangle modelToView(JLabel l, int offset) {
+        LineIndex index = getIndex(l);
+        if (index == null) {
+            return null;
+        }
+        FontMetrics fm = index.getFontMetrics();
+        int lineHeight = fm.getHeight();
+        int top = getState(l).firstBaseline - getAscent(fm);
+        int line = index.lineOf(offset);
+        return new Rectangle(getLineX(l, index, line)
+                + index.distanceTo(line, offset), top + line * lineHeight, 0,
+                lineHeight);
+    }
+
+    /**
+     * Get the index of the lines of a label as last painted.
+     * 
+     * @return the index, or <code>null</code> if the label hasn't been
+     *         painted selectable or shows no lines
+     */
+    private static LineIndex getIndex(JLabel l) {
+        Object state = l.getClientProperty(STATE_KEY);
+        LineIndex index = state instanceof PaintState ? ((PaintState) state)
+                .index : null;
+        return index != null && index.getLineCount() > 0 ? index : null;
+    }
+
+    /**
+     * Get the painted x-coordinate of the start of a line, aligning it if it
+     * wasn't painted.
+     */
+    private int getLineX(JLabel l, LineIndex index, int line) {
+        int x = index.getX(line);
+        if (x == Integer.MIN_VALUE) {
+            FontMetrics fm = index.getFontMetrics();
+            updateLayout(l, fm, l.getWidth(), l.getHeight());
+            x = alignmentX(l, fm, index.getPainted(line), layoutTextR);
+            index.setX(line, x);
+        }
+        return x;
+    }
+
+    /**
+     * Highlight the selected part of a line.
+     * 
+     * @param g
+     *            graphics to paint on
+     * @param l
+     *            the label
+     * @param index
+     *            the index of the lines painted
+     * @param line
+     *            the line
+     * @param x
+     *            x-coordinate of the start of the line
+     * @param top
+     *            y-coordinate of the top of the line
+     * @param height
+     *            the line height
+     */
+    private void paintSelection(Graphics g, MultiLineLabel l,
+            LineIndex index, int line, int x, int top, int height) {
+        int start = l.getSelectionStart();
+        int end = l.getSelectionEnd();
+        if (start >= end || end <= index.getStart(line)
+                || start >= index.getStart(line + 1)) {
+            return;
+        }
+        int x0 = x + index.distanceTo(line, start);
+        int x1 = x + index.distanceTo(line, end);
+        if (x1 > x0) {
+            Color c = g.getColor();
+            g.setColor(getSelectionColor(l));
+            g.fillRect(x0, top, x1 - x0, height);
+            g.setColor(c);
+        }
+    }
+
+    /**
+     * Repaint the lines of a label whose selection changed since the
+     * selection was last repainted.
+     */
+    private void repaintSelection(JLabel l) {
+        MultiLineLabel m = (MultiLineLabel) l;
+        PaintState state = getState(l);
+        int s0 = state.selectionStart;
+        int e0 = state.selectionEnd;
+        int s1 = m.getSelectionStart();
+        int e1 = m.getSelectionEnd();
+        state.selectionStart = s1;
+        state.selectionEnd = e1;
+        if (s0 == e0 || s1 == e1) {
+            // Appeared or vanished, or moved within the text.
+            repaintSelection(l, s0, e0);
+            repaintSelection(l, s1, e1);
+        } else {
+            // Only the characters between the old and new ends changed.
+            repaintSelection(l, Math.min(s0, s1), Math.max(s0, s1));
+            repaintSelection(l, Math.min(e0, e1), Math.max(e0, e1));
+        }
+    }
+
+    /**
+     * Repaint the lines of a label holding the characters between two
+     * offsets.
+     */
+    private void repaintSelection(JLabel l, int start, int end) {
+        if (start >= end) {
+            return;
+        }
+        LineIndex index = getIndex(l);
+        if (index == null) {
+            l.repaint();
+            return;
+        }
+        FontMetrics fm = index.getFontMetrics();
+        int lineHeight = fm.getHeight();
+        int first = index.lineOf(start);
+        int last = index.lineOf(end - 1);
+        int top = getState(l).firstBaseline - getAscent(fm) + first
+                * lineHeight;
+        l.repaint(0, top, l.getWidth(), (last - first + 1) * lineHeight);
+    }
+
+    /**
+     * Returns the available height to paint text on. This is the height of the
+     * passed component with insets subtracted.
+     * 
+     * @param l
+     *            a component
+     * @return the available height
+     */
+    protected int getAvailableHeight(JLabel l) {
+        l.getInsets(layoutViewInsets);
+        return l.getHeight() - layoutViewInsets.top - layoutViewInsets.bottom;
+    }
+
+    /**
+     * Add a clip indication to the string. It is important that the string
+     * length does not exceed the length or the original string.
+     * 
+     * @param text
+     *            the to be painted
+     * @param fm
+     *            font metrics
+     * @param bounds
+     *            the text bounds
+     * @return the clipped string
+     */
+    protected String clip(String text, FontMetrics fm, Rectangle bounds) {
+        // Fast and lazy way to insert a clip indication is to simply replace
+        // the last characters in the string with the clip indication.
+        // A better way would be to use metrics and calculate how many (if any)
+        // characters that need to be replaced.
+        if (text.length() < 3) {
+            return "...";
+        }
+        return text.substring(0, text.length() - 3) + "...";
+    }
+
+    /**
+     * Establish the vertical text alignment. The default alignment is to center
+     * the text in the label.
+     * 
+     * @param label
+     *            the label to paint
+     * @param fm
+     *            font metrics
+     * @param bounds
+     *            the text bounds rectangle
+     * @return the vertical text alignment, defaults to CENTER.
+     */
+    protected int alignmentY(JLabel label, FontMetrics fm, Rectangle bounds) {
+        final int height = getAvailableHeight(label);
+        int textHeight = bounds.height;
+
+        if (label instanceof MultiLineLabel) {
+            int align = ((MultiLineLabel) label).getVerticalTextAlignment();
             switch (align) {
             case JLabel.TOP:
-                return getAscent(fm) + paintViewInsets.top;
+                return getAscent(fm) + layoutViewInsets.top;
             case JLabel.BOTTOM:
-                return getAscent(fm) + height - paintViewInsets.top
-                        + paintViewInsets.bottom - textHeight;
+                return getAscent(fm) + height - layoutViewInsets.top
+                        + layoutViewInsets.bottom - textHeight;
             default:
             }
         }
 
         // Center alignment
-        int textY = paintViewInsets.top + (height - textHeight) / 2
+        int textY = layoutViewInsets.top + (height - textHeight) / 2
                 + getAscent(fm);
-        return Math.max(textY, getAscent(fm) + paintViewInsets.top);
+        return Math.max(textY, getAscent(fm) + layoutViewInsets.top);
     }
 
     private static int getAscent(FontMetrics fm) {
@@ -367,9 +1451,9 @@ public class MultiLineLabelUI extends BasicLabelUI implements ComponentListener
             int align = ((MultiLineLabel) label).getHorizontalTextAlignment();
             switch (align) {
             case JLabel.RIGHT:
-                return bounds.x + paintViewR.width - fm.stringWidth(s);
+                return bounds.x + layoutViewR.width - fm.stringWidth(s);
             case JLabel.CENTER:
-                return bounds.x + paintViewR.width / 2 - fm.stringWidth(s) / 2;
+                return bounds.x + layoutViewR.width / 2 - fm.stringWidth(s) / 2;
             default:
                 return bounds.x;
             }
@@ -399,37 +1483,90 @@ public class MultiLineLabelUI extends BasicLabelUI implements ComponentListener
 
     /** {@inheritDoc} */
     public Dimension getPreferredSize(JComponent c) {
-        Dimension d = super.getPreferredSize(c);
         JLabel label = (JLabel) c;
+        CharSequence text = getTextSource(label);
 
-        if (isHTMLString(label.getText())) {
-            return d; // HTML overrides everything and we don't need to process
+        if (text instanceof String && isHTMLString((String) text)) {
+            // HTML overrides everything and we don't need to process
+            return super.getPreferredSize(c);
         }
+        Object event = FlightEvents.begin(FlightEvents.MEASURE);
+        int wraps = wrapCount;
+
+        FontMetrics fm = label.getFontMetrics(label.getFont());
+        Dimension d = getMeasureSize(label, fm, text);
+        updateLayout(label, fm, d.width, d.height);
+
+        // The preferred height is either the preferred height of the text
+        // lines, or the height of the icon.
+        d.height = Math.max(d.height, getPreferredHeight(label));
+
+        if (event != null) {
+            FlightEvents.end(event, text == null ? 0 : text.length(),
+                    getLineCount(getState(label).lines), d.width,
+                    wraps == wrapCount);
+        }
+        return d;
+    }
+
+    /**
+     * Get the size a label is laid out in to compute its preferred size: the
+     * size of the unwrapped content, no wider than its parent container.
+     */
+    private Dimension getMeasureSize(JLabel label, FontMetrics fm,
+            CharSequence text) {
+        // The size of the unwrapped content is remembered with the label, since
+        // layout managers ask for the preferred size over and over.
+        Icon icon = label.isEnabled() ? label.getIcon() : label
+                .getDisabledIcon();
+        Insets viewInsets = label.getInsets(layoutViewInsets);
+        PaintState state = getState(label);
+        if (!state.isPreferredSizeOf(label, fm, text, icon, viewInsets)) {
+            state.setPreferredSize(label, fm, text, icon, viewInsets,
+                    getUnwrappedSize(label, fm, text, icon, viewInsets));
+        }
+        Dimension d = new Dimension(state.preferredSize);
 
         // Width calculated by super is OK. The preferred width is the width of
         // the unwrapped content as long as it does not exceed the width of the
         // parent container.
 
-        if (c.getParent() != null) {
+        if (label.getParent() != null) {
             // Ensure that preferred width never exceeds the available width
             // (including its border insets) of the parent container.
-            Insets insets = c.getParent().getInsets();
-            Dimension size = c.getParent().getSize();
+            Insets insets = label.getParent().getInsets();
+            Dimension size = label.getParent().getSize();
             if (size.width > 0) {
                 // If width isn't set component shouldn't adjust.
                 d.width = size.width - insets.left - insets.right;
             }
         }
-
-        updateLayout(label, null, d.width, d.height);
-
-        // The preferred height is either the preferred height of the text
-        // lines, or the height of the icon.
-        d.height = Math.max(d.height, getPreferredHeight(label));
-
         return d;
     }
 
+    /**
+     * Get the size of the unwrapped content, like
+     * <code>BasicLabelUI.getPreferredSize</code> computes it for the text of
+     * the label.
+     */
+    private Dimension getUnwrappedSize(JLabel label, FontMetrics fm,
+            CharSequence text, Icon icon, Insets insets) {
+        if (text == null || text instanceof String) {
+            return super.getPreferredSize(label);
+        }
+        Rectangle viewR = new Rectangle(insets.left, insets.top,
+                Short.MAX_VALUE, Short.MAX_VALUE);
+        Rectangle iconR = new Rectangle();
+        Rectangle textR = new Rectangle();
+        layoutSource(label, fm, text, icon, viewR, iconR, textR);
+        int x1 = Math.min(iconR.x, textR.x);
+        int x2 = Math.max(iconR.x + iconR.width, textR.x + textR.width);
+        int y1 = Math.min(iconR.y, textR.y);
+        int y2 = Math.max(iconR.y + iconR.height, textR.y + textR.height);
+        return new Dimension(x2 - x1 + insets.left + insets.right, y2 - y1
+                + insets.top + insets.bottom);
+    }
+
     /**
      * The preferred height of the label is the height of the lines with added
      * top and bottom insets.
@@ -439,26 +1576,74 @@ public class MultiLineLabelUI extends BasicLabelUI implements ComponentListener
      * @return the preferred height of the wrapped lines.
      */
     protected int getPreferredHeight(JLabel label) {
-        int numOfLines = getTextLines(label).size();
-        Insets insets = label.getInsets(paintViewInsets);
+        List<String> lines = getTextLines(label);
+        int limit = getMaxLines(label);
+        int numOfLines;
+        if (lines instanceof LazyLineList) {
+            LazyLineList lazy = (LazyLineList) lines;
+            if (limit > 0) {
+                numOfLines = lazy.count(limit, limit);
+            } else {
+                // Estimate the height until all lines are wrapped.
+                numOfLines = lazy.estimatedSize();
+                lazy.complete(label);
+            }
+        } else {
+            numOfLines = limit > 0 ? Math.min(lines.size(), limit) : lines
+                    .size();
+        }
+        Insets insets = label.getInsets(layoutViewInsets);
         return numOfLines * metrics.getHeight() + insets.top + insets.bottom;
     }
 
     /**
-     * Get the lines of text contained in the text label. The prepared lines is
-     * cached as a client property, accessible via {@link #PROPERTY_KEY}.
+     * Get the lines of text contained in the text label. The prepared lines are
+     * cached in the shared {@link LayoutCache}, keyed on the text, the font
+     * metrics and the width available for text. The lines of a text source
+     * other than a string, and the lines of a subclass changing how text is
+     * wrapped, are only remembered with the label.
      * 
      * @param l
      *            the label
      * @return the text lines of the label.
      */
-    @SuppressWarnings("unchecked")
     protected List<String> getTextLines(JLabel l) {
-        List<String> lines = (List<String>) l.getClientProperty(PROPERTY_KEY);
+        CharSequence text = getTextSource(l);
+        if (text == null) {
+            return null; // Null guard
+        }
+        Font font = metrics.getFont();
+        FontRenderContext frc = metrics.getFontRenderContext();
+        int width = layoutTextR.width;
+        int maxLines = getMaxLines(l);
+        PaintState state = getState(l);
+        if (state.areLinesOf(text, font, frc, width, maxLines)
+                || state.canDefer(text, font, frc, maxLines,
+                        resizeMaxStaleness)) {
+            if (RepaintHeatMap.enabled) {
+                RepaintHeatMap.cacheHit(l);
+            }
+            return state.lines;
+        }
+
+        if (!(text instanceof String) || !sharedLayouts) {
+            List<String> lines = prepareLines(l);
+            state.setLines(text, font, frc, width, maxLines, lines);
+            return lines;
+        }
+        LayoutCache cache = LayoutCache.getSharedInstance();
+        LayoutCache.Key key = new LayoutCache.Key((String) text, font, frc,
+                width, maxLines, isBalanced(l));
+        List<String> lines = cache.get(key);
         if (lines == null) {
             lines = prepareLines(l);
-            l.putClientProperty(PROPERTY_KEY, lines);
+            if (lines != null) {
+                cache.put(key, lines);
+            }
+        } else if (RepaintHeatMap.enabled) {
+            RepaintHeatMap.cacheHit(l);
         }
+        state.setLines(text, font, frc, width, maxLines, lines);
         return lines;
     }
 
@@ -474,7 +1659,42 @@ public class MultiLineLabelUI extends BasicLabelUI implements ComponentListener
 
     /** {@inheritDoc} */
     public void componentResized(ComponentEvent e) {
-        clearCache((JLabel) e.getSource());
+        JLabel l = (JLabel) e.getSource();
+        if (resizeDelay > 0 && l.isShowing()) {
+            deferRewrap(l);
+        } else {
+            clearCache(l);
+        }
+    }
+
+    /**
+     * Keep painting the current lines of a resized label until the resizing
+     * has settled, then re-wrap it.
+     * 
+     * @param l
+     *            the resized label
+     * @see #setLiveResizeDelay(int)
+     */
+    private void deferRewrap(JLabel l) {
+        getState(l).resizing = true;
+        resizedLabels.add(l);
+        if (resizeTimer == null) {
+            resizeTimer = new Timer(resizeDelay, new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    List<JLabel> labels = new ArrayList<JLabel>(
+                            resizedLabels);
+                    resizedLabels.clear();
+                    for (JLabel label : labels) {
+                        clearCache(label);
+                        label.revalidate();
+                        label.repaint();
+                    }
+                }
+            });
+            resizeTimer.setRepeats(false);
+        }
+        resizeTimer.setInitialDelay(resizeDelay);
+        resizeTimer.restart();
     }
 
     /** {@inheritDoc} */
@@ -485,17 +1705,58 @@ public class MultiLineLabelUI extends BasicLabelUI implements ComponentListener
     /**
      * Prepare the text lines for rendering. The lines are wrapped to fit in the
      * current available space for text. Explicit line breaks are preserved.
+     * Text longer than the lazy wrap threshold is wrapped a paragraph at the
+     * time, as the lines are requested. Text longer than the parallel wrap
+     * threshold is wrapped in parallel, with
+     * {@link #wrap(List, Element, FontMetrics, int)}. A text source other
+     * than a string is always wrapped lazily, directly from its characters.
+     * All paths break lines at the positions returned by
+     * {@link #calculateBreakPosition(Document, int, int, FontMetrics, int)}.
+     * If a subclass overrides the deprecated
+     * {@link #calculateBreakPosition(Document, int, int)} instead, the text is
+     * always wrapped at once, on the calling thread.
+     * 
+     * @see #setLazyWrapThreshold(int)
+     * @see #setParallelWrapThreshold(int)
      * 
      * @param l
      *            the label to render
      * @return a list of text lines to render
      */
     protected List<String> prepareLines(JLabel l) {
-        List<String> lines = new ArrayList<String>(defaultSize);
-        String text = l.getText();
-        if (text == null) {
+        CharSequence source = getTextSource(l);
+        if (source == null) {
             return null; // Null guard
         }
+        if (RepaintHeatMap.enabled) {
+            RepaintHeatMap.wrapped(l);
+        }
+        wrapCount++;
+        Object event = FlightEvents.begin(FlightEvents.WRAP);
+        List<String> lines = prepareLines(l, source);
+        if (event != null) {
+            FlightEvents.end(event, source.length(), getLineCount(lines),
+                    layoutTextR.width, false);
+        }
+        return lines;
+    }
+
+    /**
+     * Wrap the text of a label.
+     * 
+     * @param l
+     *            the label to render
+     * @param source
+     *            the text of the label
+     * @return a list of text lines to render
+     */
+    private List<String> prepareLines(JLabel l, CharSequence source) {
+        if (!legacyBreaks && (!(source instanceof String)
+                || source.length() >= lazyThreshold)) {
+            return new LazyLineList(source, metrics, layoutTextR.width,
+                    customBreaks ? this : null);
+        }
+        String text = source.toString();
         PlainDocument doc = new PlainDocument();
         try {
             doc.insertString(0, text, null);
@@ -503,12 +1764,260 @@ public class MultiLineLabelUI extends BasicLabelUI implements ComponentListener
             return null;
         }
         Element root = doc.getDefaultRootElement();
-        for (int i = 0, j = root.getElementCount(); i < j; i++) {
-            wrap(lines, root.getElement(i));
+        int maxLines = getMaxLines(l);
+        boolean balanced = isBalanced(l);
+        if (maxLines == 0 && !legacyBreaks
+                && text.length() >= parallelThreshold
+                && root.getElementCount() > 1
+                && Runtime.getRuntime().availableProcessors() > 1) {
+            return getWrapPool().invoke(
+                    new WrapTask(root, 0, root.getElementCount(), metrics,
+                            layoutTextR.width, balanced));
+        }
+        List<String> lines = new ArrayList<String>(defaultSize);
+        lineLimit = maxLines > 0 ? maxLines + 1 : Integer.MAX_VALUE;
+        balancedWrap = balanced;
+        try {
+            for (int i = 0, j = root.getElementCount(); i < j
+                    && lines.size() < lineLimit; i++) {
+                wrap(lines, root.getElement(i));
+            }
+        } finally {
+            lineLimit = Integer.MAX_VALUE;
+            balancedWrap = false;
         }
         return lines;
     }
 
+    /**
+     * Get the font render context a label was last painted with.
+     * 
+     * @param l
+     *            the label
+     * @return the font render context, or <code>null</code> if the label
+     *         hasn't been painted since its layout last changed
+     */
+    public FontRenderContext getPaintFontRenderContext(JLabel l) {
+        Object state = l.getClientProperty(STATE_KEY);
+        return state instanceof PaintState ? ((PaintState) state).paintFrc
+                : null;
+    }
+
+    /**
+     * Create a task wrapping the text of a label ahead of its first paint at
+     * its current size. The task may be run on any thread; it adds the lines
+     * to the shared {@link LayoutCache}, where the paint will find them. This
+     * method must be called on the event dispatch thread. Subclasses changing
+     * how lines are prepared should return <code>null</code>; this is done for
+     * subclasses overriding the deprecated
+     * {@link #calculateBreakPosition(Document, int, int)}.
+     * 
+     * @param l
+     *            the label
+     * @param frc
+     *            the font render context the label will be painted with
+     * @return the task, or <code>null</code> if the lines are already cached
+     *         or the text isn't wrapped through the cache, with the font of
+     *         the label
+     * @see sas.swing.ScrollPrefetcher
+     */
+    public Runnable createPrefetch(JLabel l, FontRenderContext frc) {
+        CharSequence source = getTextSource(l);
+        if (!canPrefetch(l, source) || l.getWidth() <= 0) {
+            return null;
+        }
+        FontMetrics fm = getFontMetrics(l.getFont(), frc);
+        if (fm == null) {
+            return null;
+        }
+        return createPrefetch(l, fm, (String) source, l.getWidth(), l
+                .getHeight());
+    }
+
+    /**
+     * Create a task wrapping the text of a label ahead of its next
+     * {@link #getPreferredSize(JComponent)}, like
+     * {@link #createPrefetch(JLabel, FontRenderContext)} does ahead of a
+     * paint. The task may be run on any thread. This method must be called on
+     * the event dispatch thread.
+     * 
+     * @param l
+     *            the label
+     * @return the task, or <code>null</code> if the lines are already cached
+     *         or the text isn't wrapped through the cache
+     * @see sas.swing.LabelBatch
+     */
+    public Runnable createMeasure(JLabel l) {
+        CharSequence source = getTextSource(l);
+        if (!canPrefetch(l, source)) {
+            return null;
+        }
+        FontMetrics fm = l.getFontMetrics(l.getFont());
+        Dimension d = getMeasureSize(l, fm, source);
+        return createPrefetch(l, fm, (String) source, d.width, d.height);
+    }
+
+    /**
+     * Check if the text of a label is wrapped through the shared
+     * {@link LayoutCache} by {@link #wrapText}, so it may be wrapped ahead.
+     */
+    private boolean canPrefetch(JLabel l, CharSequence source) {
+        return source instanceof String && !isHTMLString((String) source)
+                && source.length() < lazyThreshold && !isAutoFit(l)
+                && sharedLayouts;
+    }
+
+    /**
+     * Create a task wrapping the text of a label laid out in the passed size.
+     */
+    private Runnable createPrefetch(JLabel l, final FontMetrics fm,
+            final String text, int width, int height) {
+        Insets insets = l.getInsets();
+        Rectangle viewR = new Rectangle(insets.left, insets.top, width
+                - (insets.left + insets.right), height
+                - (insets.top + insets.bottom));
+        Rectangle textR = new Rectangle();
+        layoutCL(l, fm, text, l.getIcon(), viewR, new Rectangle(), textR);
+
+        final int textWidth = textR.width;
+        final int maxLines = getMaxLines(l);
+        final boolean balanced = isBalanced(l);
+        final LayoutCache.Key key = new LayoutCache.Key(text, fm.getFont(),
+                fm.getFontRenderContext(), textWidth, maxLines, balanced);
+        final LayoutCache cache = LayoutCache.getSharedInstance();
+        if (cache.contains(key)) {
+            return null;
+        }
+        return new Runnable() {
+            public void run() {
+                if (!cache.contains(key)) {
+                    cache.put(key, wrapText(text, fm, textWidth, maxLines,
+                            balanced));
+                }
+            }
+        };
+    }
+
+    /**
+     * Wrap a text into the same lines as {@link #prepareLines(JLabel)}. This
+     * method only uses its arguments and may be invoked from any thread.
+     */
+    private List<String> wrapText(String text, FontMetrics fm, int width,
+            int maxLines, boolean balanced) {
+        PlainDocument doc = new PlainDocument();
+        try {
+            doc.insertString(0, text, null);
+        } catch (BadLocationException e) {
+            return null;
+        }
+        Element root = doc.getDefaultRootElement();
+        int limit = maxLines > 0 ? maxLines + 1 : Integer.MAX_VALUE;
+        List<String> lines = new ArrayList<String>(defaultSize);
+        for (int i = 0, j = root.getElementCount(); i < j
+                && lines.size() < limit; i++) {
+            if (balanced) {
+                wrapBalanced(lines, root.getElement(i), fm, width, limit);
+            } else {
+                wrap(lines, root.getElement(i), fm, width, limit);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Get font metrics measuring text like a graphics with the passed font
+     * render context does.
+     * 
+     * @return the font metrics, or <code>null</code> if the font render
+     *         context can't be reproduced
+     */
+    private static FontMetrics getFontMetrics(Font font,
+            FontRenderContext frc) {
+        Graphics2D g = SCRATCH_IMAGE.createGraphics();
+        try {
+            g.setTransform(frc.getTransform());
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, frc
+                    .getAntiAliasingHint());
+            g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, frc
+                    .getFractionalMetricsHint());
+            FontMetrics fm = g.getFontMetrics(font);
+            return frc.equals(fm.getFontRenderContext()) ? fm : null;
+        } finally {
+            g.dispose();
+        }
+    }
+
+    /**
+     * Get the pool wrapping paragraphs in parallel.
+     * 
+     * @return the pool
+     */
+    private static synchronized ForkJoinPool getWrapPool() {
+        if (wrapPool == null) {
+            wrapPool = new ForkJoinPool();
+        }
+        return wrapPool;
+    }
+
+    /**
+     * Task wrapping a range of paragraphs. Ranges longer than
+     * {@link #PARALLEL_CHUNK} characters are split in two, and the lines of
+     * the halves are joined in order.
+     */
+    private final class WrapTask extends RecursiveTask<List<String>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Element root;
+
+        private final int lo;
+
+        private final int hi;
+
+        private final FontMetrics fm;
+
+        private final int width;
+
+        private final boolean balanced;
+
+        WrapTask(Element root, int lo, int hi, FontMetrics fm, int width,
+                boolean balanced) {
+            this.root = root;
+            this.lo = lo;
+            this.hi = hi;
+            this.fm = fm;
+            this.width = width;
+            this.balanced = balanced;
+        }
+
+        /** {@inheritDoc} */
+        protected List<String> compute() {
+            int length = root.getElement(hi - 1).getEndOffset()
+                    - root.getElement(lo).getStartOffset();
+            if (hi - lo > 1 && length > PARALLEL_CHUNK) {
+                int mid = (lo + hi) >>> 1;
+                WrapTask second = new WrapTask(root, mid, hi, fm, width,
+                        balanced);
+                second.fork();
+                List<String> lines = new WrapTask(root, lo, mid, fm, width,
+                        balanced).compute();
+                lines.addAll(second.join());
+                return lines;
+            }
+            List<String> lines = new ArrayList<String>(Math.max(defaultSize,
+                    hi - lo));
+            for (int i = lo; i < hi; i++) {
+                if (balanced) {
+                    wrapBalanced(lines, root.getElement(i), fm, width,
+                            Integer.MAX_VALUE);
+                } else {
+                    wrap(lines, root.getElement(i), fm, width);
+                }
+            }
+            return lines;
+        }
+    }
+
     /**
      * If necessary, wrap the text into multiple lines.
      * 
@@ -518,10 +2027,56 @@ public class MultiLineLabelUI extends BasicLabelUI implements ComponentListener
      *            the document element containing the text content
      */
     protected void wrap(List<String> lines, Element elem) {
+        if (balancedWrap) {
+            wrapBalanced(lines, elem, metrics, layoutTextR.width, lineLimit);
+        } else {
+            wrap(lines, elem, metrics, layoutTextR.width, lineLimit);
+        }
+    }
+
+    /**
+     * If necessary, wrap the text into multiple lines. This method only uses
+     * its arguments and may be invoked from any thread.
+     * 
+     * @param lines
+     *            line array in which to store the wrapped lines
+     * @param elem
+     *            the document element containing the text content
+     * @param fm
+     *            font metrics used to measure the text
+     * @param width
+     *            the width to wrap the text to
+     */
+    protected void wrap(List<String> lines, Element elem, FontMetrics fm,
+            int width) {
+        wrap(lines, elem, fm, width, Integer.MAX_VALUE);
+    }
+
+    /**
+     * If necessary, wrap the text into multiple lines, but stop as soon as the
+     * list holds <code>limit</code> lines. This method only uses its arguments
+     * and may be invoked from any thread.
+     * 
+     * @param lines
+     *            line array in which to store the wrapped lines
+     * @param elem
+     *            the document element containing the text content
+     * @param fm
+     *            font metrics used to measure the text
+     * @param width
+     *            the width to wrap the text to
+     * @param limit
+     *            number of lines after which wrapping stops
+     */
+    protected void wrap(List<String> lines, Element elem, FontMetrics fm,
+            int width, int limit) {
         int p1 = elem.getEndOffset();
         Document doc = elem.getDocument();
-        for (int p0 = elem.getStartOffset(); p0 < p1;) {
-            int p = calculateBreakPosition(doc, p0, p1);
+        for (int p0 = elem.getStartOffset(); p0 < p1 && lines.size() < limit;) {
+            // A UI overriding the deprecated hook only wraps the label being
+            // painted, with the metrics and width of that label.
+            int p = legacyBreaks ? calculateBreakPosition(doc, p0, p1)
+                    : calculateBreakPosition(doc, p0, p1, fm, width);
             try {
                 lines.add(doc.getText(p0, p - p0));
             } catch (BadLocationException e) {
@@ -532,7 +2087,52 @@ public class MultiLineLabelUI extends BasicLabelUI implements ComponentListener
     }
 
     /**
-     * Calculate the position on which to break (wrap) the line.
+     * Wrap the text into lines of about the same width, but stop as soon as
+     * the list holds <code>limit</code> lines. Lines are only broken at
+     * whitespace; a paragraph with a word wider than <code>width</code> is
+     * wrapped like by {@link #wrap(List, Element, FontMetrics, int, int)}.
+     * This method only uses its arguments and may be invoked from any thread.
+     * 
+     * @param lines
+     *            line array in which to store the wrapped lines
+     * @param elem
+     *            the document element containing the text content
+     * @param fm
+     *            font metrics used to measure the text
+     * @param width
+     *            the width to wrap the text to
+     * @param limit
+     *            number of lines after which wrapping stops
+     * @see #BALANCED_KEY
+     */
+    protected void wrapBalanced(List<String> lines, Element elem,
+            FontMetrics fm, int width, int limit) {
+        int p0 = elem.getStartOffset();
+        int p1 = elem.getEndOffset();
+        Segment segment = SegmentCache.getSegment();
+        try {
+            elem.getDocument().getText(p0, p1 - p0, segment);
+        } catch (BadLocationException e) {
+            throw new Error("Can't get line text");
+        }
+        int[] starts = width > 0 ? BalancedWrap.breaks(segment, fm, width)
+                : null;
+        if (starts == null) {
+            SegmentCache.releaseSegment(segment);
+            wrap(lines, elem, fm, width, limit);
+            return;
+        }
+        int end = segment.offset + segment.count;
+        for (int i = 0; i < starts.length && lines.size() < limit; i++) {
+            int next = i + 1 < starts.length ? starts[i + 1] : end;
+            lines.add(new String(segment.array, starts[i], next - starts[i]));
+        }
+        SegmentCache.releaseSegment(segment);
+    }
+
+    /**
+     * Calculate the position on which to break (wrap) the line, measured with
+     * the metrics and text width of the label being painted.
      * 
      * @param doc
      *            the document
@@ -542,8 +2142,39 @@ public class MultiLineLabelUI extends BasicLabelUI implements ComponentListener
      *            end position
      * @return the actual end position, will be <code>p1</code> if content does
      *         not need to wrap, otherwise it will be less than <code>p1</code>.
+     * @deprecated override
+     *             {@link #calculateBreakPosition(Document, int, int, FontMetrics, int)}
+     *             , which is also used when text is wrapped lazily, in
+     *             parallel or ahead of painting. An override of this method
+     *             is still honoured, but then all text is wrapped at once on
+     *             the painting thread.
      */
+    @Deprecated
     protected int calculateBreakPosition(Document doc, int p0, int p1) {
+        return calculateBreakPosition(doc, p0, p1, metrics, layoutTextR.width);
+    }
+
+    /**
+     * Calculate the position on which to break (wrap) the line. This method
+     * only uses its arguments and may be invoked from any thread. All text is
+     * broken into lines at the positions returned by this method; lazily
+     * wrapped text passes a document holding a single paragraph.
+     * 
+     * @param doc
+     *            the document
+     * @param p0
+     *            start position
+     * @param p1
+     *            end position
+     * @param fm
+     *            font metrics used to measure the text
+     * @param width
+     *            the width to wrap the text to
+     * @return the actual end position, will be <code>p1</code> if content does
+     *         not need to wrap, otherwise it will be less than <code>p1</code>.
+     */
+    protected int calculateBreakPosition(Document doc, int p0, int p1,
+            FontMetrics fm, int width) {
         Segment segment = SegmentCache.getSegment();
         try {
             doc.getText(p0, p1 - p0, segment);
@@ -551,16 +2182,281 @@ public class MultiLineLabelUI extends BasicLabelUI implements ComponentListener
             throw new Error("Can't get line text");
         }
 
-        int width = paintTextR.width;
         int p = p0
-                + Utilities.getBreakLocation(segment, metrics, 0, width, null,
-                        p0);
+                + Utilities.getBreakLocation(segment, fm, 0, width, null, p0);
         SegmentCache.releaseSegment(segment);
         return p;
     }
 
     /**
-     * Static singleton {@link Segment} cache.
+     * State remembered between paints of a label: the rectangles computed by
+     * the last layout and the inputs it was computed from, the wrapped lines
+     * and the strings painted for the visible lines.
+     */
+    private static final class PaintState {
+
+        // Layout inputs and result.
+        private final LayoutInputs layout = new LayoutInputs();
+        private final Rectangle viewR = new Rectangle();
+        private final Rectangle iconR = new Rectangle();
+        private final Rectangle textR = new Rectangle();
+
+        // Preferred size computed by BasicLabelUI and its inputs.
+        private final LayoutInputs preferred = new LayoutInputs();
+        private final Dimension preferredSize = new Dimension();
+
+        // Wrapped lines and the properties they were wrapped for.
+        private List<String> lines;
+        private CharSequence linesText;
+        private Font linesFont;
+        private FontRenderContext linesFrc;
+        private int linesWidth;
+        private int linesMaxLines;
+
+        // Trimmed lines, starting at line number first, of the lines painted.
+        private List<String> shown;
+        private int first;
+        private String[] trimmed;
+
+        // The last visible line with a clip indication.
+        private int clipIndex = -1;
+        private String clipSource;
+        private int clipWidth;
+        private String clipped;
+
+        // The font render context of the last paint.
+        private FontRenderContext paintFrc;
+
+        // Index of the lines painted selectable and the first baseline.
+        private LineIndex index;
+        private int firstBaseline;
+
+        // The selection as last repainted.
+        private int selectionStart, selectionEnd;
+
+        // The font an auto-fit label is painted with and its inputs.
+        private Font fitted;
+        private CharSequence fitText;
+        private Font fitFont;
+        private FontRenderContext fitFrc;
+        private int fitWidth, fitHeight;
+        private float fitMinSize;
+        private int fitMaxLines;
+
+        // Set while the label is resized with deferred re-wrapping; the time
+        // the current lines started to be painted for another width.
+        private boolean resizing;
+        private boolean stale;
+        private long staleSince;
+
+        LineIndex getIndex(List<String> lines, int count, FontMetrics fm) {
+            if (index == null || !index.isOf(lines, count, fm)) {
+                index = new LineIndex(lines, count, fm);
+            }
+            return index;
+        }
+
+        boolean isLayoutOf(JLabel l, FontMetrics fm, CharSequence text,
+                Icon icon, int width, int height, Insets insets) {
+            return layout.matches(l, fm, text, icon, width, height, insets);
+        }
+
+        void setLayout(JLabel l, FontMetrics fm, CharSequence text,
+                Icon icon, int width, int height, Insets insets,
+                Rectangle viewR, Rectangle iconR, Rectangle textR) {
+            layout.set(l, fm, text, icon, width, height, insets);
+            this.viewR.setBounds(viewR);
+            this.iconR.setBounds(iconR);
+            this.textR.setBounds(textR);
+        }
+
+        boolean isPreferredSizeOf(JLabel l, FontMetrics fm,
+                CharSequence text, Icon icon, Insets insets) {
+            return preferred.matches(l, fm, text, icon, 0, 0, insets);
+        }
+
+        void setPreferredSize(JLabel l, FontMetrics fm, CharSequence text,
+                Icon icon, Insets insets, Dimension size) {
+            preferred.set(l, fm, text, icon, 0, 0, insets);
+            preferredSize.setSize(size);
+        }
+
+        boolean areLinesOf(CharSequence text, Font font, FontRenderContext frc,
+                int width, int maxLines) {
+            return lines != null && text == linesText && width == linesWidth
+                    && maxLines == linesMaxLines
+                    && font.equals(linesFont) && frc.equals(linesFrc);
+        }
+
+        /**
+         * Check if the lines, wrapped for another width, may still be painted
+         * while the label is being resized.
+         */
+        boolean canDefer(CharSequence text, Font font, FontRenderContext frc,
+                int maxLines, int maxStaleness) {
+            if (!resizing || lines == null || text != linesText
+                    || maxLines != linesMaxLines
+                    || !font.equals(linesFont) || !frc.equals(linesFrc)) {
+                return false;
+            }
+            long now = System.nanoTime();
+            if (!stale) {
+                stale = true;
+                staleSince = now;
+            }
+            return now - staleSince <= maxStaleness * 1000000L;
+        }
+
+        void setLines(CharSequence text, Font font, FontRenderContext frc,
+                int width, int maxLines, List<String> lines) {
+            stale = false;
+            linesMaxLines = maxLines;
+            linesText = text;
+            linesFont = font;
+            linesFrc = frc;
+            linesWidth = width;
+            this.lines = lines;
+        }
+
+        /**
+         * Get a line trimmed for painting.
+         * 
+         * @param lines
+         *            the lines being painted
+         * @param index
+         *            the line number
+         * @param count
+         *            the number of lines being painted
+         * @return the trimmed line
+         */
+        String getLine(List<String> lines, int index, int count) {
+            if (lines != shown) {
+                shown = lines;
+                trimmed = null;
+                clipIndex = -1;
+                clipSource = clipped = null;
+            }
+            if (trimmed == null || index < first
+                    || index >= first + trimmed.length) {
+                first = index;
+                trimmed = new String[Math.max(count - index, 1)];
+            }
+            String line = trimmed[index - first];
+            if (line == null) {
+                line = lines.get(index).trim();
+                trimmed[index - first] = line;
+            }
+            return line;
+        }
+    }
+
+    /**
+     * Selects the text of selectable labels with the mouse: press and drag to
+     * select, double-click to select a word and triple-click to select a
+     * line.
+     */
+    private final class SelectionHandler extends MouseInputAdapter {
+
+        /** Offset at which the selection was started. */
+        private int anchor;
+
+        /** {@inheritDoc} */
+        public void mousePressed(MouseEvent e) {
+            MultiLineLabel l = (MultiLineLabel) e.getSource();
+            int offset = viewToModel(l, e.getPoint());
+            if (!SwingUtilities.isLeftMouseButton(e) || offset < 0) {
+                return;
+            }
+            l.requestFocusInWindow();
+            LineIndex index = getIndex(l);
+            int line = index.lineOf(offset);
+            int start = index.getStart(line);
+            if (e.getClickCount() == 2) {
+                String s = l.getTextSource().subSequence(start,
+                        Math.min(index.getStart(line + 1), l.getTextSource()
+                                .length())).toString();
+                if (s.length() > 0) {
+                    BreakIterator words = BreakIterator.getWordInstance();
+                    words.setText(s);
+                    int end = words.following(Math.min(offset - start, s
+                            .length() - 1));
+                    anchor = start + words.previous();
+                    l.select(anchor, start + end);
+                }
+            } else if (e.getClickCount() > 2) {
+                anchor = start;
+                l.select(start, index.getStart(line + 1));
+            } else {
+                anchor = offset;
+                l.select(offset, offset);
+            }
+        }
+
+        /** {@inheritDoc} */
+        public void mouseDragged(MouseEvent e) {
+            MultiLineLabel l = (MultiLineLabel) e.getSource();
+            int offset = viewToModel(l, e.getPoint());
+            if (SwingUtilities.isLeftMouseButton(e) && offset >= 0) {
+                l.select(anchor, offset);
+                l.scrollRectToVisible(new Rectangle(e.getX(), e.getY(), 1, 1));
+            }
+        }
+    }
+
+    /**
+     * The inputs of a layout of a label, compared by identity where the
+     * label keeps the same object until the property changes.
+     */
+    static final class LayoutInputs {
+
+        private CharSequence text;
+        private Icon icon;
+        private FontMetrics fm;
+        private int width, height;
+        private int top, left, bottom, right;
+        private int valign, halign, vpos, hpos, gap;
+        private boolean leftToRight;
+        private boolean valid;
+
+        boolean matches(JLabel l, FontMetrics fm, CharSequence text,
+                Icon icon, int width, int height, Insets insets) {
+            return valid && fm == this.fm && text == this.text
+                    && icon == this.icon && width == this.width
+                    && height == this.height && insets.top == top
+                    && insets.left == left && insets.bottom == bottom
+                    && insets.right == right
+                    && l.getVerticalAlignment() == valign
+                    && l.getHorizontalAlignment() == halign
+                    && l.getVerticalTextPosition() == vpos
+                    && l.getHorizontalTextPosition() == hpos
+                    && l.getIconTextGap() == gap
+                    && l.getComponentOrientation().isLeftToRight() == leftToRight;
+        }
+
+        void set(JLabel l, FontMetrics fm, CharSequence text, Icon icon,
+                int width, int height, Insets insets) {
+            this.fm = fm;
+            this.text = text;
+            this.icon = icon;
+            this.width = width;
+            this.height = height;
+            top = insets.top;
+            left = insets.left;
+            bottom = insets.bottom;
+            right = insets.right;
+            valign = l.getVerticalAlignment();
+            halign = l.getHorizontalAlignment();
+            vpos = l.getVerticalTextPosition();
+            hpos = l.getHorizontalTextPosition();
+            gap = l.getIconTextGap();
+            leftToRight = l.getComponentOrientation().isLeftToRight();
+            valid = true;
+        }
+    }
+
+    /**
+     * Static singleton {@link Segment} cache. The cache is synchronized, since
+     * separate UI instances may wrap text on different threads.
      * 
      * @see javax.swing.text.SegmentCache
      * 
@@ -585,9 +2481,11 @@ public class MultiLineLabelUI extends BasicLabelUI implements ComponentListener
          * @return a <code>Segment</code>.
          */
         public static Segment getSegment() {
-            int size = cache.segments.size();
-            if (size > 0) {
-                return cache.segments.remove(size - 1);
+            synchronized (cache) {
+                int size = cache.segments.size();
+                if (size > 0) {
+                    return cache.segments.remove(size - 1);
+                }
             }
             return new Segment();
         }
@@ -600,7 +2498,9 @@ public class MultiLineLabelUI extends BasicLabelUI implements ComponentListener
         public static void releaseSegment(Segment segment) {
             segment.array = null;
             segment.count = 0;
-            cache.segments.add(segment);
+            synchronized (cache) {
+                cache.segments.add(segment);
+            }
         }
     }
 }
@@ -23,19 +23,22 @@
  */
 package sas.swing.plaf;
 
+import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 
+import javax.swing.Icon;
 import javax.swing.JComponent;
 import javax.swing.JLabel;
 import javax.swing.plaf.ComponentUI;
 import javax.swing.plaf.LabelUI;
 
 /**
- * <code>MultiLineLabelUI</code> that paints the text with a drop shadow.
+ * <code>MultiLineLabelUI</code> that paints the text with a drop shadow, or
+ * any other {@link TextEffect}.
  * 
  * @see MultiLineLabelUI
- * @see Effects#paintTextShadow(Graphics2D, String)
+ * @see TextEffect
  * 
  * @author Samuel Sjoberg, http://samuelsjoberg.com
  * @version 1.0.0
@@ -56,6 +59,83 @@ public class MultiLineShadowUI extends MultiLineLabelUI {
     	return labelUI;
     }
 
+    /** The effect painted with the text. */
+    private final TextEffect effect;
+
+    /** Tracker of the paint durations, used when the quality adapts. */
+    private final AdaptiveQuality quality = new AdaptiveQuality();
+
+    /** Flag telling if the current paint is of reduced quality. */
+    private boolean reducedQuality;
+
+    /**
+     * Create a UI painting the text with a black drop shadow.
+     */
+    public MultiLineShadowUI() {
+        this(new TextEffect(new TextEffect.Shadow(Color.BLACK)));
+    }
+
+    /**
+     * Create a UI painting the text with an effect. The effect must not be
+     * shared with other UI instances.
+     * 
+     * @param effect
+     *            the effect
+     */
+    public MultiLineShadowUI(TextEffect effect) {
+        this.effect = effect;
+    }
+
+    /**
+     * Get the effect painted with the text.
+     * 
+     * @return the effect
+     */
+    public TextEffect getTextEffect() {
+        return effect;
+    }
+
+    /**
+     * Paint the label, at reduced quality if the paint quality adapts and the
+     * label is repainted frequently while taking too long to paint.
+     * 
+     * @see AdaptiveQuality
+     */
+    public void paint(Graphics g, JComponent c) {
+        reducedQuality = quality.begin(c);
+        long start = System.nanoTime();
+        try {
+            super.paint(g, c);
+        } finally {
+            quality.end(c, reducedQuality, System.nanoTime() - start);
+            reducedQuality = false;
+        }
+    }
+
+    /**
+     * Labels painted at reduced quality are not retained.
+     * 
+     * @see AdaptiveQuality
+     */
+    protected boolean canRetain(JLabel l) {
+        return !reducedQuality;
+    }
+
+    /**
+     * Paint the icon, with the text effect if the label is opted in to it.
+     * The effect is drawn from the layer the effect keeps for the icon.
+     * 
+     * @see TextEffect#ICON_EFFECT_KEY
+     */
+    protected void paintIcon(Graphics g, JLabel l, Icon icon, int x, int y) {
+        Object opted = l.getClientProperty(TextEffect.ICON_EFFECT_KEY);
+        if (reducedQuality || opted != Boolean.TRUE) {
+            super.paintIcon(g, l, icon, x, y);
+        } else {
+            effect.paintIcon(l, g, icon, x, y);
+        }
+    }
+
     /**
      * Paint the text with a text effect.
      * 
@@ -69,9 +149,11 @@ public class MultiLineShadowUI extends MultiLineLabelUI {
      *            the y coordinate
      */
     private void paintText(Graphics g, String s, int textX, int textY) {
-        g.translate(textX, textY);
-        Effects.paintTextShadow((Graphics2D) g, s);
-        g.translate(-textX, -textY);
+        if (reducedQuality) {
+            AdaptiveQuality.paintReduced((Graphics2D) g, s, textX, textY);
+        } else {
+            effect.paint((Graphics2D) g, s, textX, textY);
+        }
     }
 
     /** {@inheritDoc} */
@@ -84,7 +166,7 @@ public class MultiLineShadowUI extends MultiLineLabelUI {
     /** {inheritDoc} */
     protected void paintDisabledText(JLabel l, Graphics g, String s, int textX,
             int textY) {
-        g.setColor(l.getBackground().darker());
+        g.setColor(darker(l.getBackground()));
         paintText(g, s, textX, textY);
     }
 }
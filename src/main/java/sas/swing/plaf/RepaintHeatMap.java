@@ -0,0 +1,251 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing.plaf;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Window;
+
+import javax.swing.JComponent;
+
+/**
+ * Debug overlay showing which components repaint, re-wrap and paint text
+ * effects the most. When enabled, every {@link MultiLineLabelUI} label and
+ * {@link sas.swing.GradientPanel} is tinted by its recent paint load, the
+ * time spent painting it per second, from transparent blue for a light load
+ * to red at {@link #HOT_LOAD} and above. A counter line in the corner of each
+ * component shows its paints, re-wraps, layout cache hits and text effect
+ * paints.
+ * <p>
+ * The instrumentation in the UI delegates, the panel and the effects checks
+ * a single flag and costs nothing else when the overlay is disabled.
+ * <p>
+ * Example of usage:
+ * 
+ * <pre>
+ * RepaintHeatMap.setEnabled(true); // e.g., from a debug key binding
+ * </pre>
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+public final class RepaintHeatMap {
+
+    /**
+     * Paint load, in milliseconds of painting per second, at which a
+     * component is tinted red.
+     */
+    public static final double HOT_LOAD = 20;
+
+    /** Time constant of the decay of the paint load, in seconds. */
+    private static final double DECAY = 1;
+
+    /** Client property holding the statistics of a component. */
+    private static final String STATS_KEY = "RepaintHeatMap.stats";
+
+    /** Font of the counters. */
+    private static final Font COUNTER_FONT = new Font("Dialog", Font.PLAIN, 9);
+
+    /** Flag telling if the overlay is shown. */
+    static volatile boolean enabled;
+
+    /** Statistics of the component being painted by the current thread. */
+    private static final ThreadLocal<Stats> painting = new ThreadLocal<Stats>();
+
+    /** Private constructor, all methods are static. */
+    private RepaintHeatMap() {
+    }
+
+    /**
+     * Show or hide the overlay. All windows are repainted.
+     * 
+     * @param enabled
+     *            <code>true</code> to show the overlay
+     */
+    public static void setEnabled(boolean enabled) {
+        RepaintHeatMap.enabled = enabled;
+        for (Window w : Window.getWindows()) {
+            w.repaint();
+        }
+    }
+
+    /**
+     * Check if the overlay is shown.
+     * 
+     * @return <code>true</code> if the overlay is enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Instrumentation hook invoked when a component starts to paint.
+     * 
+     * @param c
+     *            the component
+     * @return the start time to pass to
+     *         {@link #end(JComponent, Graphics, long)}, or 0 if the overlay
+     *         is disabled
+     */
+    public static long begin(JComponent c) {
+        if (!enabled) {
+            return 0;
+        }
+        painting.set(getStats(c));
+        return System.nanoTime();
+    }
+
+    /**
+     * Instrumentation hook invoked when a component has painted. The overlay
+     * is painted on top of the component.
+     * 
+     * @param c
+     *            the component
+     * @param g
+     *            the graphics the component painted on
+     * @param start
+     *            the start time returned by {@link #begin(JComponent)}
+     */
+    public static void end(JComponent c, Graphics g, long start) {
+        if (start == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        Stats stats = getStats(c);
+        stats.painted(now, now - start);
+        painting.remove();
+        paintOverlay(c, g, stats);
+    }
+
+    /**
+     * Instrumentation hook invoked when the text of a label is wrapped.
+     * 
+     * @param c
+     *            the label
+     */
+    static void wrapped(JComponent c) {
+        getStats(c).wraps++;
+    }
+
+    /**
+     * Instrumentation hook invoked when the wrapped lines of a label are found
+     * in a cache.
+     * 
+     * @param c
+     *            the label
+     */
+    static void cacheHit(JComponent c) {
+        getStats(c).hits++;
+    }
+
+    /**
+     * Instrumentation hook invoked when a text effect is painted.
+     */
+    static void effectPainted() {
+        Stats stats = painting.get();
+        if (stats != null) {
+            stats.effects++;
+        }
+    }
+
+    /**
+     * Get the statistics of a component, creating them if needed.
+     */
+    private static Stats getStats(JComponent c) {
+        Stats stats = (Stats) c.getClientProperty(STATS_KEY);
+        if (stats == null) {
+            stats = new Stats();
+            c.putClientProperty(STATS_KEY, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Tint the component by its load and paint the counters.
+     */
+    private static void paintOverlay(JComponent c, Graphics g, Stats stats) {
+        Color color = g.getColor();
+        Font font = g.getFont();
+
+        double heat = Math.min(stats.load / 1e6 / HOT_LOAD, 1);
+        float hue = (float) (2 / 3.0 * (1 - heat));
+        Color tint = Color.getHSBColor(hue, 1, 1);
+        g.setColor(new Color(tint.getRed(), tint.getGreen(), tint.getBlue(),
+                (int) (48 + 96 * heat)));
+        g.fillRect(0, 0, c.getWidth(), c.getHeight());
+
+        String counters = "p" + stats.paints + " w" + stats.wraps + " h"
+                + stats.hits + " e" + stats.effects;
+        g.setFont(COUNTER_FONT);
+        FontMetrics fm = g.getFontMetrics();
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, fm.stringWidth(counters) + 4, fm.getHeight());
+        g.setColor(Color.WHITE);
+        g.drawString(counters, 2, fm.getAscent());
+
+        g.setFont(font);
+        g.setColor(color);
+    }
+
+    /**
+     * Paint statistics of a component.
+     */
+    private static final class Stats {
+
+        /** Number of paints. */
+        int paints;
+
+        /** Number of times the text was wrapped. */
+        int wraps;
+
+        /** Number of times wrapped lines were found in a cache. */
+        int hits;
+
+        /** Number of text effects painted. */
+        int effects;
+
+        /** Decayed paint time per second, in nanoseconds. */
+        double load;
+
+        /** Time of the most recent paint. */
+        long last = System.nanoTime();
+
+        /**
+         * Record a paint.
+         * 
+         * @param now
+         *            the current time
+         * @param nanos
+         *            the duration of the paint
+         */
+        void painted(long now, long nanos) {
+            double decay = Math.exp(-(now - last) / 1e9 / DECAY);
+            load = load * decay + nanos / DECAY;
+            last = now;
+            paints++;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing.plaf;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Insets;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.swing.Icon;
+import javax.swing.JLabel;
+
+import sas.swing.MultiLineLabel;
+
+/**
+ * Fully rendered content of a label, kept between paints of labels opted in
+ * to retained painting. The image is rendered with a transparent background
+ * and is valid as long as the properties it was rendered from are unchanged.
+ * All retained images share a memory budget; the least recently painted
+ * images are released when it is exceeded.
+ * 
+ * @see MultiLineLabelUI#RETAINED_KEY
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+final class RetainedImage {
+
+    /** Retained images holding pixels, least recently painted first. */
+    private static final LinkedHashMap<RetainedImage, Boolean> images = new LinkedHashMap<RetainedImage, Boolean>(
+            16, 0.75f, true);
+
+    /** Memory budget of all retained images, in bytes. */
+    private static long budget = 16L << 20;
+
+    /** Bytes held by the retained images. */
+    private static long used;
+
+    /** The image, <code>null</code> if released. */
+    private Image image;
+
+    /** Bytes held by the image. */
+    private long bytes;
+
+    /** Flag telling if the image holds a rendered label. */
+    private boolean rendered;
+
+    // The properties the image was rendered from.
+    private CharSequence text;
+    private Font font;
+    private Color foreground, background;
+    private Icon icon;
+    private boolean enabled;
+    private int width, height;
+    private int top, left, bottom, right;
+    private int valign, halign, vpos, hpos, gap, textValign, textHalign;
+    private int maxLines;
+    private boolean leftToRight, balanced;
+
+    /**
+     * Set the memory budget of all retained images.
+     * 
+     * @param bytes
+     *            the budget in bytes
+     */
+    static synchronized void setBudget(long bytes) {
+        budget = bytes;
+        evict(0);
+    }
+
+    /**
+     * Get the memory budget of all retained images.
+     * 
+     * @return the budget in bytes
+     */
+    static synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Prepare the image for a label of the passed size, allocating it if
+     * needed.
+     * 
+     * @param gc
+     *            the graphics configuration of the label, or <code>null</code>
+     * @param w
+     *            the label width
+     * @param h
+     *            the label height
+     * @return <code>false</code> if the image doesn't fit in the budget
+     */
+    boolean validate(GraphicsConfiguration gc, int w, int h) {
+        long size = 4L * w * h;
+        synchronized (RetainedImage.class) {
+            boolean buffered = image instanceof BufferedImage;
+            if (image != null && (image.getWidth(null) != w
+                    || image.getHeight(null) != h || buffered != (gc == null))) {
+                release();
+            }
+            if (image == null) {
+                if (size > budget) {
+                    return false;
+                }
+                evict(size);
+                image = gc != null ? gc.createCompatibleVolatileImage(w, h,
+                        Transparency.TRANSLUCENT) : new BufferedImage(w, h,
+                        BufferedImage.TYPE_INT_ARGB_PRE);
+                bytes = size;
+                used += size;
+                rendered = false;
+            }
+            images.put(this, Boolean.TRUE); // Mark as recently painted.
+        }
+        if (image instanceof VolatileImage) {
+            int status = ((VolatileImage) image).validate(gc);
+            if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                synchronized (RetainedImage.class) {
+                    release();
+                }
+                return validate(gc, w, h);
+            }
+            if (status == VolatileImage.IMAGE_RESTORED) {
+                rendered = false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if the image holds the rendered label as it looks now.
+     * 
+     * @param l
+     *            the label
+     * @param insets
+     *            the insets of the label
+     * @return <code>true</code> if the image can be painted as is
+     */
+    boolean isOf(JLabel l, Insets insets) {
+        return rendered && getText(l) == text && l.isEnabled() == enabled
+                && getIcon(l) == icon && l.getWidth() == width
+                && l.getHeight() == height && insets.top == top
+                && insets.left == left && insets.bottom == bottom
+                && insets.right == right && equal(l.getFont(), font)
+                && equal(l.getForeground(), foreground)
+                && equal(l.getBackground(), background)
+                && l.getVerticalAlignment() == valign
+                && l.getHorizontalAlignment() == halign
+                && l.getVerticalTextPosition() == vpos
+                && l.getHorizontalTextPosition() == hpos
+                && l.getIconTextGap() == gap
+                && l.getComponentOrientation().isLeftToRight() == leftToRight
+                && isBalanced(l) == balanced && textAlignmentsOf(l);
+    }
+
+    private static boolean isBalanced(JLabel l) {
+        Object balanced = l.getClientProperty(MultiLineLabelUI.BALANCED_KEY);
+        return balanced == Boolean.TRUE;
+    }
+
+    private boolean textAlignmentsOf(JLabel l) {
+        if (!(l instanceof MultiLineLabel)) {
+            return true;
+        }
+        MultiLineLabel m = (MultiLineLabel) l;
+        return m.getVerticalTextAlignment() == textValign
+                && m.getHorizontalTextAlignment() == textHalign
+                && m.getMaxLines() == maxLines;
+    }
+
+    /**
+     * Create a graphics to render the label on. The image is cleared.
+     * 
+     * @return the graphics
+     */
+    Graphics2D createGraphics() {
+        Graphics2D g = (Graphics2D) image.getGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, image.getWidth(null), image.getHeight(null));
+        g.setComposite(AlphaComposite.SrcOver);
+        return g;
+    }
+
+    /**
+     * Remember the properties the label was rendered from.
+     * 
+     * @param l
+     *            the label
+     * @param insets
+     *            the insets of the label
+     */
+    void setRendered(JLabel l, Insets insets) {
+        text = getText(l);
+        enabled = l.isEnabled();
+        icon = getIcon(l);
+        width = l.getWidth();
+        height = l.getHeight();
+        top = insets.top;
+        left = insets.left;
+        bottom = insets.bottom;
+        right = insets.right;
+        font = l.getFont();
+        foreground = l.getForeground();
+        background = l.getBackground();
+        valign = l.getVerticalAlignment();
+        halign = l.getHorizontalAlignment();
+        vpos = l.getVerticalTextPosition();
+        hpos = l.getHorizontalTextPosition();
+        gap = l.getIconTextGap();
+        leftToRight = l.getComponentOrientation().isLeftToRight();
+        balanced = isBalanced(l);
+        if (l instanceof MultiLineLabel) {
+            MultiLineLabel m = (MultiLineLabel) l;
+            textValign = m.getVerticalTextAlignment();
+            textHalign = m.getHorizontalTextAlignment();
+            maxLines = m.getMaxLines();
+        }
+        rendered = true;
+    }
+
+    /**
+     * Get the image.
+     * 
+     * @return the image
+     */
+    Image getImage() {
+        return image;
+    }
+
+    /**
+     * Check if the contents of the image were lost since it was validated.
+     * 
+     * @return <code>true</code> if the image must be rendered again
+     */
+    boolean contentsLost() {
+        if (image instanceof VolatileImage
+                && ((VolatileImage) image).contentsLost()) {
+            rendered = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Render the label again on the next paint, e.g., when the characters of
+     * its text source have changed.
+     */
+    void invalidate() {
+        rendered = false;
+    }
+
+    /**
+     * Release the image, if any.
+     */
+    void dispose() {
+        synchronized (RetainedImage.class) {
+            release();
+        }
+    }
+
+    /**
+     * Release the image. Must hold the class lock.
+     */
+    private void release() {
+        if (image != null) {
+            images.remove(this);
+            used -= bytes;
+            image.flush();
+            image = null;
+            rendered = false;
+        }
+    }
+
+    /**
+     * Release the least recently painted images until the passed number of
+     * bytes fits in the budget. Must hold the class lock.
+     */
+    private static void evict(long needed) {
+        Iterator<RetainedImage> it = images.keySet().iterator();
+        while (used + needed > budget && it.hasNext()) {
+            RetainedImage r = it.next();
+            it.remove();
+            used -= r.bytes;
+            r.image.flush();
+            r.image = null;
+            r.rendered = false;
+        }
+    }
+
+    private static CharSequence getText(JLabel l) {
+        return l instanceof MultiLineLabel ? ((MultiLineLabel) l)
+                .getTextSource() : l.getText();
+    }
+
+    private static Icon getIcon(JLabel l) {
+        return l.isEnabled() ? l.getIcon() : l.getDisabledIcon();
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
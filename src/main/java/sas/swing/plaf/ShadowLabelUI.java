@@ -23,16 +23,25 @@
  */
 package sas.swing.plaf;
 
+import java.awt.Color;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Insets;
+import java.awt.Rectangle;
 
+import javax.swing.Icon;
+import javax.swing.JComponent;
 import javax.swing.JLabel;
 import javax.swing.border.EmptyBorder;
 import javax.swing.plaf.LabelUI;
+import javax.swing.plaf.basic.BasicHTML;
 import javax.swing.plaf.basic.BasicLabelUI;
+import javax.swing.text.View;
 
 /**
- * Label UI delegate painting the text with a subtle drop shadow.
+ * Label UI delegate painting the text with a subtle drop shadow, or any
+ * other {@link TextEffect}. The icon is painted with the effect as well.
  * 
  * @author Samuel Sjoberg, http://samuelsjoberg.com
  * @version 1.0.0
@@ -41,7 +50,170 @@ public class ShadowLabelUI extends BasicLabelUI {
     
     /** Static reference to the UI. */
     public static LabelUI labelUI = new ShadowLabelUI();
+
+    /** The effect painted with the text. */
+    private final TextEffect effect;
+
+    /** Tracker of the paint durations, used when the quality adapts. */
+    private final AdaptiveQuality quality = new AdaptiveQuality();
+
+    /** Flag telling if the current paint is of reduced quality. */
+    private boolean reducedQuality;
+
+    /** Background of the most recently painted disabled label. */
+    private Color disabledBackground;
+
+    /** Darker version of the disabled background. */
+    private Color disabledDarker;
+
+    /** Rectangles of the label being painted, reused between paints. */
+    private final Rectangle paintViewR = new Rectangle();
+    private final Rectangle paintIconR = new Rectangle();
+    private final Rectangle paintTextR = new Rectangle();
+    private final Insets paintViewInsets = new Insets(0, 0, 0, 0);
+
+    // The last layout and its inputs, reused while the inputs are unchanged
+    // since the layout allocates the clipped text.
+    private final MultiLineLabelUI.LayoutInputs layout =
+            new MultiLineLabelUI.LayoutInputs();
+    private final Rectangle layoutIconR = new Rectangle();
+    private final Rectangle layoutTextR = new Rectangle();
+    private String layoutText;
+
+    /**
+     * Create a UI painting the text with a black drop shadow.
+     */
+    public ShadowLabelUI() {
+        this(new TextEffect(new TextEffect.Shadow(Color.BLACK)));
+    }
+
+    /**
+     * Create a UI painting the text with an effect. The effect must not be
+     * shared with other UI instances.
+     * 
+     * @param effect
+     *            the effect
+     */
+    public ShadowLabelUI(TextEffect effect) {
+        this.effect = effect;
+    }
+
+    /**
+     * Get the effect painted with the text.
+     * 
+     * @return the effect
+     */
+    public TextEffect getTextEffect() {
+        return effect;
+    }
+
+    /**
+     * Paint the label, at reduced quality if the paint quality adapts and the
+     * label is repainted frequently while taking too long to paint.
+     * 
+     * @see AdaptiveQuality
+     */
+    public void paint(Graphics g, JComponent c) {
+        reducedQuality = quality.begin(c);
+        long start = System.nanoTime();
+        try {
+            paintLabel(g, (JLabel) c);
+        } finally {
+            quality.end(c, reducedQuality, System.nanoTime() - start);
+            reducedQuality = false;
+        }
+    }
     
+    /**
+     * Paint the icon and text of the label, like {@link BasicLabelUI} but
+     * with the icon painted by {@link #paintIcon}. The layout is reused while
+     * the same label is repainted unchanged.
+     * 
+     * @param g
+     *            the graphics to paint on
+     * @param label
+     *            the label
+     */
+    private void paintLabel(Graphics g, JLabel label) {
+        String text = label.getText();
+        Icon icon = label.isEnabled() ? label.getIcon() : label
+                .getDisabledIcon();
+        if (icon == null && text == null) {
+            return;
+        }
+
+        FontMetrics fm = label.getFontMetrics(g.getFont());
+        label.getInsets(paintViewInsets);
+        int width = label.getWidth();
+        int height = label.getHeight();
+        String clippedText;
+        if (layout.matches(label, fm, text, icon, width, height,
+                paintViewInsets)) {
+            paintIconR.setBounds(layoutIconR);
+            paintTextR.setBounds(layoutTextR);
+            clippedText = layoutText;
+        } else {
+            paintViewR.x = paintViewInsets.left;
+            paintViewR.y = paintViewInsets.top;
+            paintViewR.width = width
+                    - (paintViewInsets.left + paintViewInsets.right);
+            paintViewR.height = height
+                    - (paintViewInsets.top + paintViewInsets.bottom);
+            paintIconR.setBounds(0, 0, 0, 0);
+            paintTextR.setBounds(0, 0, 0, 0);
+            clippedText = layoutCL(label, fm, text, icon, paintViewR,
+                    paintIconR, paintTextR);
+            layout.set(label, fm, text, icon, width, height, paintViewInsets);
+            layoutIconR.setBounds(paintIconR);
+            layoutTextR.setBounds(paintTextR);
+            layoutText = clippedText;
+        }
+
+        if (icon != null) {
+            paintIcon(g, label, icon, paintIconR.x, paintIconR.y);
+        }
+
+        if (text != null) {
+            View v = (View) label.getClientProperty(BasicHTML.propertyKey);
+            if (v != null) {
+                v.paint(g, paintTextR);
+            } else {
+                int textX = paintTextR.x;
+                int textY = paintTextR.y + fm.getAscent();
+                if (label.isEnabled()) {
+                    paintEnabledText(label, g, clippedText, textX, textY);
+                } else {
+                    paintDisabledText(label, g, clippedText, textX, textY);
+                }
+            }
+        }
+    }
+
+    /**
+     * Paint the icon, with the text effect if the label is opted in to it.
+     * The effect is drawn from the layer the effect keeps for the icon.
+     * 
+     * @param g
+     *            the graphics to paint on
+     * @param l
+     *            the label
+     * @param icon
+     *            the icon, enabled or disabled depending on the label
+     * @param x
+     *            the x coordinate of the icon
+     * @param y
+     *            the y coordinate of the icon
+     * @see TextEffect#ICON_EFFECT_KEY
+     */
+    protected void paintIcon(Graphics g, JLabel l, Icon icon, int x, int y) {
+        Object opted = l.getClientProperty(TextEffect.ICON_EFFECT_KEY);
+        if (reducedQuality || opted != Boolean.TRUE) {
+            icon.paintIcon(l, g, x, y);
+        } else {
+            effect.paintIcon(l, g, icon, x, y);
+        }
+    }
+
     /** {@inheritDoc} */
     protected void installDefaults(JLabel c) {
         super.installDefaults(c);
@@ -53,18 +225,39 @@ public class ShadowLabelUI extends BasicLabelUI {
     /** {@inheritDoc} */
     protected void paintDisabledText(JLabel l, Graphics g, String s, int textX,
             int textY) {
-        g.setColor(l.getBackground().darker());
-        g.translate(textX, textY);
-        Effects.paintTextShadow((Graphics2D) g, s);
-        g.translate(-textX, -textY);
+        Color background = l.getBackground();
+        if (background != disabledBackground) {
+            disabledBackground = background;
+            disabledDarker = background.darker();
+        }
+        g.setColor(disabledDarker);
+        paintText(g, s, textX, textY);
     }
 
     /** {@inheritDoc} */
     protected void paintEnabledText(JLabel l, Graphics g, String s, int textX,
             int textY) {
         g.setColor(l.getForeground());
-        g.translate(textX, textY);
-        Effects.paintTextShadow((Graphics2D) g, s);
-        g.translate(-textX, -textY);
+        paintText(g, s, textX, textY);
+    }
+
+    /**
+     * Paint the text with the text effect, or at reduced quality.
+     * 
+     * @param g
+     *            graphics component used to paint on
+     * @param s
+     *            the string to paint
+     * @param textX
+     *            the x coordinate
+     * @param textY
+     *            the y coordinate
+     */
+    private void paintText(Graphics g, String s, int textX, int textY) {
+        if (reducedQuality) {
+            AdaptiveQuality.paintReduced((Graphics2D) g, s, textX, textY);
+        } else {
+            effect.paint((Graphics2D) g, s, textX, textY);
+        }
     }
 }
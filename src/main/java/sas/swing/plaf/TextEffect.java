@@ -0,0 +1,744 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing.plaf;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.swing.Icon;
+
+/**
+ * Text effect composed of stages, painted in a single pass. The coverage mask
+ * of the text is rendered once, every stage derives its layer from the mask
+ * (e.g., by blurring it) and the layers are composited into one image, which
+ * is drawn below the text in one step. Stacking effects thus costs one mask
+ * plus one blur per stage, where {@link Effects#paintTextShadow(Graphics2D,
+ * String)} draws the whole string once per pass of every effect.
+ * <p>
+ * The stages are painted in the order they are added, the first stage at the
+ * bottom. The text itself is painted on top, in the color of the graphics
+ * unless a {@link Tint} stage is added.
+ * <p>
+ * Icons can be painted with the effect too, derived from the alpha of the
+ * icon instead of the text coverage. Since an icon rarely changes, its layer
+ * is rendered once and kept for as long as the icon is in use; every paint
+ * only draws the kept image below the icon. The shadow UIs paint the icon of
+ * a label opted in with {@link #ICON_EFFECT_KEY} this way.
+ * <p>
+ * An effect keeps its mask and layer buffers between paints and must not be
+ * used by several threads at the same time. The UI delegates use one effect
+ * per UI instance.
+ * <p>
+ * Example of usage:
+ * 
+ * <pre>
+ * TextEffect effect = new TextEffect(new TextEffect.Shadow(Color.BLACK),
+ *         new TextEffect.Outline(Color.WHITE, 1));
+ * effect.paint(g, &quot;Text&quot;, x, y);
+ * </pre>
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+public class TextEffect {
+
+    /**
+     * Client property key opting a label with a {@link ShadowLabelUI} or
+     * {@link MultiLineShadowUI} in to painting its icon with the effect. When
+     * set to {@link Boolean#TRUE}, the icon is painted by
+     * {@link #paintIcon(Component, Graphics, Icon, int, int)}, otherwise
+     * plain.
+     */
+    public static final String ICON_EFFECT_KEY = "TextEffect.icon";
+
+    /** The stages, bottom first. */
+    private final List<Stage> stages = new ArrayList<Stage>(2);
+
+    /** Number of pixels the stages reach beyond the glyphs. */
+    private int extent;
+
+    /** Scratch image holding the text coverage mask. */
+    private BufferedImage maskImage;
+
+    /** Graphics rendering the mask. */
+    private Graphics2D maskGraphics;
+
+    /** The pixels of the mask image. */
+    private byte[] mask;
+
+    /** Scratch image holding the composited layers. */
+    private BufferedImage layerImage;
+
+    /** The pixels of the layer image, premultiplied ARGB. */
+    private int[] layer;
+
+    /** Transparency of the stage being composited, per pixel. */
+    private float[] transparency;
+
+    /** Layers of the icons painted, released with the icons. */
+    private final Map<Icon, IconLayer> iconLayers =
+            new WeakHashMap<Icon, IconLayer>();
+
+    /**
+     * Create a new effect.
+     * 
+     * @param stages
+     *            the stages of the effect, bottom first
+     */
+    public TextEffect(Stage... stages) {
+        for (Stage stage : stages) {
+            add(stage);
+        }
+    }
+
+    /**
+     * Add a stage on top of the stages added so far.
+     * 
+     * @param stage
+     *            the stage
+     */
+    public void add(Stage stage) {
+        stages.add(stage);
+        extent = Math.max(extent, stage.getExtent());
+        iconLayers.clear();
+    }
+
+    /**
+     * Get the stages of the effect.
+     * 
+     * @return an unmodifiable list of the stages, bottom first
+     */
+    public List<Stage> getStages() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    /**
+     * Paint a string with the effect. The graphics is left with text
+     * antialiasing turned on, just like after painting an effect with
+     * {@link Effects}; all other modifications are restored.
+     * 
+     * @param g
+     *            graphics to paint on
+     * @param s
+     *            the string to paint
+     * @param x
+     *            the x coordinate of the text
+     * @param y
+     *            the y coordinate of the text baseline
+     */
+    public void paint(Graphics2D g, String s, int x, int y) {
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+        Color color = g.getColor();
+        Color textColor = color;
+        Stage single = null;
+        int layers = 0;
+        for (int i = 0, n = stages.size(); i < n; i++) {
+            Stage stage = stages.get(i);
+            if (stage instanceof Tint) {
+                textColor = ((Tint) stage).tint(textColor);
+            } else {
+                single = stage;
+                layers++;
+            }
+        }
+
+        if (layers > 0 && RepaintHeatMap.enabled) {
+            RepaintHeatMap.effectPainted();
+        }
+        if (layers > 0 && s.length() > 0
+                && !(layers == 1 && paintFromAtlas(g, s, x, y, single))) {
+            paintLayers(g, s, x, y);
+        }
+
+        g.setColor(textColor);
+        g.drawString(s, x, y);
+        g.setColor(color);
+    }
+
+    /**
+     * Paint a single shadow or glow stage from the glyph atlas, if it is
+     * enabled.
+     * 
+     * @return <code>true</code> if the stage was painted
+     * @see Effects#setGlyphAtlasEnabled(boolean)
+     */
+    private static boolean paintFromAtlas(Graphics2D g, String s, int x,
+            int y, Stage stage) {
+        if (!Effects.isGlyphAtlasEnabled() || !(stage instanceof Kernel)) {
+            return false;
+        }
+        Kernel kernel = (Kernel) stage;
+        return kernel.atlas
+                && GlyphAtlas.paintEffect(g, s, kernel.color, kernel.size, x
+                        + kernel.dx, y + kernel.dy, kernel.shadow);
+    }
+
+    /**
+     * Render the mask, composite the layers of the stages and draw them.
+     */
+    private void paintLayers(Graphics2D g, String s, int x, int y) {
+        FontMetrics fm = g.getFontMetrics();
+        int ascent = fm.getMaxAscent();
+        // Room for glyphs reaching outside of their advance (e.g., italics).
+        int slack = fm.getHeight() / 4 + 1;
+        int left = extent + slack;
+        int top = extent + 1;
+        int w = fm.stringWidth(s) + 2 * left;
+        int h = ascent + fm.getMaxDescent() + 2 * top;
+        ensureCapacity(w, h);
+        int stride = maskImage.getWidth();
+
+        for (int row = 0; row < h; row++) {
+            Arrays.fill(mask, row * stride, row * stride + w, (byte) 0);
+            Arrays.fill(layer, row * stride, row * stride + w, 0);
+        }
+        maskGraphics.setFont(g.getFont());
+        maskGraphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, g
+                .getRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS));
+        maskGraphics.drawString(s, left, top + ascent);
+        applyStages(stride, w, h);
+
+        int lx = x - left;
+        int ly = y - ascent - top;
+        g.drawImage(layerImage, lx, ly, lx + w, ly + h, 0, 0, w, h, null);
+    }
+
+    /**
+     * Paint an icon with the effect. The layer of the icon is rendered the
+     * first time the icon is painted at its current size, and drawn below
+     * the icon on every paint. An icon painting other pixels at the same
+     * size, e.g. an animated image, therefore keeps the layer of the pixels
+     * it first painted. {@link Tint} stages don't apply to icons.
+     * 
+     * @param c
+     *            the component the icon is painted for
+     * @param g
+     *            graphics to paint on
+     * @param icon
+     *            the icon
+     * @param x
+     *            the x coordinate of the icon
+     * @param y
+     *            the y coordinate of the icon
+     */
+    public void paintIcon(Component c, Graphics g, Icon icon, int x, int y) {
+        int w = icon.getIconWidth();
+        int h = icon.getIconHeight();
+        if (w > 0 && h > 0 && extent > 0) {
+            IconLayer cached = iconLayers.get(icon);
+            if (cached == null || cached.width != w || cached.height != h) {
+                cached = renderIconLayer(c, icon, w, h);
+                iconLayers.put(icon, cached);
+            }
+            if (cached.image != null) {
+                g.drawImage(cached.image, x - extent - 1, y - extent - 1, null);
+            }
+        }
+        icon.paintIcon(c, g, x, y);
+    }
+
+    /**
+     * Render the layer of an icon from the alpha of its pixels.
+     */
+    private IconLayer renderIconLayer(Component c, Icon icon, int w, int h) {
+        BufferedImage pixels = new BufferedImage(w, h,
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D ig = pixels.createGraphics();
+        try {
+            icon.paintIcon(c, ig, 0, 0);
+        } finally {
+            ig.dispose();
+        }
+        int[] argb = ((DataBufferInt) pixels.getRaster().getDataBuffer())
+                .getData();
+
+        int margin = extent + 1;
+        int lw = w + 2 * margin;
+        int lh = h + 2 * margin;
+        ensureCapacity(lw, lh);
+        int stride = maskImage.getWidth();
+        for (int row = 0; row < lh; row++) {
+            Arrays.fill(mask, row * stride, row * stride + lw, (byte) 0);
+            Arrays.fill(layer, row * stride, row * stride + lw, 0);
+        }
+        boolean opaque = false;
+        for (int row = 0; row < h; row++) {
+            int p = (row + margin) * stride + margin;
+            for (int col = 0, q = row * w; col < w; col++, q++) {
+                int alpha = argb[q] >>> 24;
+                mask[p + col] = (byte) alpha;
+                opaque |= alpha != 0;
+            }
+        }
+        if (!opaque || !applyStages(stride, lw, lh)) {
+            return new IconLayer(w, h, null);
+        }
+
+        BufferedImage image = new BufferedImage(lw, lh,
+                BufferedImage.TYPE_INT_ARGB_PRE);
+        int[] dst = ((DataBufferInt) image.getRaster().getDataBuffer())
+                .getData();
+        for (int row = 0; row < lh; row++) {
+            System.arraycopy(layer, row * stride, dst, row * lw, lw);
+        }
+        return new IconLayer(w, h, image);
+    }
+
+    /**
+     * Compute the layers of the stages from the mask and composite them.
+     * 
+     * @return <code>false</code> if no stage paints a layer
+     */
+    private boolean applyStages(int stride, int w, int h) {
+        boolean applied = false;
+        for (int i = 0, n = stages.size(); i < n; i++) {
+            Stage stage = stages.get(i);
+            if (stage instanceof Tint) {
+                continue;
+            }
+            for (int row = 0; row < h; row++) {
+                Arrays.fill(transparency, row * stride, row * stride + w, 1f);
+            }
+            stage.apply(mask, stride, w, h, extent, transparency);
+            composite(stage.color, stride, w, h);
+            applied = true;
+        }
+        return applied;
+    }
+
+    /**
+     * Composite the layer of a stage, given by its transparency, over the
+     * layers of the stages below.
+     */
+    private void composite(Color color, int stride, int w, int h) {
+        float opacity = color.getAlpha() / 255f;
+        int r = color.getRed();
+        int gr = color.getGreen();
+        int b = color.getBlue();
+        for (int row = 0; row < h; row++) {
+            for (int p = row * stride, end = p + w; p < end; p++) {
+                float a = (1f - transparency[p]) * opacity;
+                if (a <= 0f) {
+                    continue;
+                }
+                float keep = 1f - a;
+                int dst = layer[p];
+                int da = (int) (255 * a + (dst >>> 24) * keep + 0.5f);
+                int dr = (int) (r * a + ((dst >> 16) & 0xff) * keep + 0.5f);
+                int dg = (int) (gr * a + ((dst >> 8) & 0xff) * keep + 0.5f);
+                int db = (int) (b * a + (dst & 0xff) * keep + 0.5f);
+                layer[p] = (da << 24) | (dr << 16) | (dg << 8) | db;
+            }
+        }
+    }
+
+    /**
+     * Make sure the scratch buffers can hold a layer of the passed size.
+     */
+    private void ensureCapacity(int w, int h) {
+        if (maskImage != null && maskImage.getWidth() >= w
+                && maskImage.getHeight() >= h) {
+            return;
+        }
+        if (maskImage != null) {
+            w = Math.max(w, maskImage.getWidth());
+            h = Math.max(h, maskImage.getHeight());
+            maskGraphics.dispose();
+        }
+        maskImage = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+        mask = ((DataBufferByte) maskImage.getRaster().getDataBuffer())
+                .getData();
+        maskGraphics = maskImage.createGraphics();
+        maskGraphics.setColor(Color.WHITE);
+        maskGraphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        layerImage = new BufferedImage(w, h,
+                BufferedImage.TYPE_INT_ARGB_PRE);
+        layer = ((DataBufferInt) layerImage.getRaster().getDataBuffer())
+                .getData();
+        transparency = new float[w * h];
+    }
+
+    /**
+     * The layer of an icon and the size it was rendered at.
+     */
+    private static final class IconLayer {
+
+        final int width, height;
+
+        /** The layer, <code>null</code> if nothing is painted below. */
+        final BufferedImage image;
+
+        IconLayer(int width, int height, BufferedImage image) {
+            this.width = width;
+            this.height = height;
+            this.image = image;
+        }
+    }
+
+    /**
+     * A stage of a text effect.
+     */
+    public abstract static class Stage {
+
+        /** The color of the stage. */
+        final Color color;
+
+        /**
+         * Create a new stage.
+         * 
+         * @param color
+         *            the color of the stage
+         */
+        Stage(Color color) {
+            this.color = color;
+        }
+
+        /**
+         * Get the color of the stage.
+         * 
+         * @return the color
+         */
+        public Color getColor() {
+            return color;
+        }
+
+        /**
+         * Get the number of pixels the stage reaches beyond the glyphs.
+         * 
+         * @return the extent of the stage
+         */
+        abstract int getExtent();
+
+        /**
+         * Compute the layer of the stage. The transparency of every pixel
+         * is initially 1 and is lowered where the stage covers the pixel.
+         * Only the mask pixels at least <code>extent</code> pixels from the
+         * edges are considered.
+         * 
+         * @param mask
+         *            the text coverage, 0-255
+         * @param stride
+         *            the row length of the buffers
+         * @param w
+         *            the width of the layer
+         * @param h
+         *            the height of the layer
+         * @param extent
+         *            the extent of the effect
+         * @param transparency
+         *            the transparency of the layer, 0-1
+         */
+        abstract void apply(byte[] mask, int stride, int w, int h,
+                int extent, float[] transparency);
+    }
+
+    /**
+     * Stage spreading the text mask with a kernel of weighted offsets. A
+     * pixel covered by several offsets is covered like by painting the text
+     * once per offset with the weight as alpha.
+     */
+    abstract static class Kernel extends Stage {
+
+        final int size;
+
+        final int dx;
+
+        final int dy;
+
+        final boolean shadow;
+
+        /**
+         * Flag telling if the stage is painted exactly like an effect of the
+         * glyph atlas.
+         */
+        final boolean atlas;
+
+        /** Horizontal offsets. */
+        private final int[] offsetX;
+
+        /** Vertical offsets. */
+        private final int[] offsetY;
+
+        /** Transparency factor per offset and coverage. */
+        private final float[][] factors;
+
+        Kernel(Color color, int size, int dx, int dy, boolean shadow) {
+            super(color);
+            this.size = size;
+            this.dx = dx;
+            this.dy = dy;
+            this.shadow = shadow;
+            this.atlas = color.getAlpha() == 255;
+
+            // A shadow looks softer without the last row and column.
+            int max = shadow ? size - 1 : size;
+            int n = (max + size + 1) * (max + size + 1);
+            offsetX = new int[n];
+            offsetY = new int[n];
+            factors = new float[n][256];
+            int k = 0;
+            for (int i = -size; i <= max; i++) {
+                for (int j = -size; j <= max; j++) {
+                    offsetX[k] = i + dx;
+                    offsetY[k] = j + dy;
+                    float alpha = Effects.getAlpha(i, j, size,
+                            Effects.EFFECT_PRE_ALPHA);
+                    for (int m = 0; m < 256; m++) {
+                        factors[k][m] = 1f - alpha * m / 255f;
+                    }
+                    k++;
+                }
+            }
+        }
+
+        /** {@inheritDoc} */
+        int getExtent() {
+            return size + Math.max(Math.abs(dx), Math.abs(dy));
+        }
+
+        /** {@inheritDoc} */
+        void apply(byte[] mask, int stride, int w, int h, int extent,
+                float[] transparency) {
+            int n = offsetX.length;
+            for (int y = extent; y < h - extent; y++) {
+                for (int x = extent, p = y * stride + x; x < w - extent; x++, p++) {
+                    int m = mask[p] & 0xff;
+                    if (m == 0) {
+                        continue;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        transparency[p + offsetY[k] * stride + offsetX[k]] *= factors[k][m];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop shadow. The default shadow looks like the shadow painted by
+     * {@link Effects#paintTextShadow(Graphics2D, String)}.
+     */
+    public static class Shadow extends Kernel {
+
+        /**
+         * Create a shadow of size {@link Effects#TEXT_SHADOW_SIZE}, cast one
+         * pixel downwards.
+         * 
+         * @param color
+         *            the shadow color. The alpha of the color sets the opacity
+         *            of the shadow
+         */
+        public Shadow(Color color) {
+            this(color, Effects.TEXT_SHADOW_SIZE, 0, 1);
+        }
+
+        /**
+         * Create a shadow.
+         * 
+         * @param color
+         *            the shadow color. The alpha of the color sets the opacity
+         *            of the shadow
+         * @param size
+         *            the shadow size
+         * @param dx
+         *            horizontal displacement
+         * @param dy
+         *            vertical displacement
+         */
+        public Shadow(Color color, int size, int dx, int dy) {
+            super(color, size, dx, dy, true);
+        }
+    }
+
+    /**
+     * Glow around the text. The default glow looks like the glow painted by
+     * {@link Effects#paintTextGlow(Graphics2D, String, Color)}.
+     */
+    public static class Glow extends Kernel {
+
+        /**
+         * Create a glow of size {@link Effects#TEXT_SHADOW_SIZE}.
+         * 
+         * @param color
+         *            the glow color. The alpha of the color sets the opacity
+         *            of the glow
+         */
+        public Glow(Color color) {
+            this(color, Effects.TEXT_SHADOW_SIZE);
+        }
+
+        /**
+         * Create a glow.
+         * 
+         * @param color
+         *            the glow color. The alpha of the color sets the opacity
+         *            of the glow
+         * @param size
+         *            the glow size
+         */
+        public Glow(Color color, int size) {
+            super(color, size, 0, 0, false);
+        }
+    }
+
+    /**
+     * Solid outline around the text.
+     */
+    public static class Outline extends Stage {
+
+        /** Outline width. */
+        private final int width;
+
+        /** Horizontal offsets within the outline width. */
+        private final int[] offsetX;
+
+        /** Vertical offsets within the outline width. */
+        private final int[] offsetY;
+
+        /**
+         * Create an outline.
+         * 
+         * @param color
+         *            the outline color
+         * @param width
+         *            the outline width
+         */
+        public Outline(Color color, int width) {
+            super(color);
+            this.width = width;
+            int n = 0;
+            int[] x = new int[(2 * width + 1) * (2 * width + 1)];
+            int[] y = new int[x.length];
+            for (int i = -width; i <= width; i++) {
+                for (int j = -width; j <= width; j++) {
+                    if (i * i + j * j <= width * width + width) {
+                        x[n] = i;
+                        y[n] = j;
+                        n++;
+                    }
+                }
+            }
+            offsetX = Arrays.copyOf(x, n);
+            offsetY = Arrays.copyOf(y, n);
+        }
+
+        /** {@inheritDoc} */
+        int getExtent() {
+            return width;
+        }
+
+        /** {@inheritDoc} */
+        void apply(byte[] mask, int stride, int w, int h, int extent,
+                float[] transparency) {
+            int n = offsetX.length;
+            for (int y = extent; y < h - extent; y++) {
+                for (int x = extent, p = y * stride + x; x < w - extent; x++, p++) {
+                    int m = mask[p] & 0xff;
+                    if (m == 0) {
+                        continue;
+                    }
+                    float t = 1f - m / 255f;
+                    for (int k = 0; k < n; k++) {
+                        int q = p + offsetY[k] * stride + offsetX[k];
+                        if (t < transparency[q]) {
+                            transparency[q] = t;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Tint of the text itself. The text color is blended with the tint color,
+     * using the alpha of the tint color.
+     */
+    public static class Tint extends Stage {
+
+        /** The most recently tinted color. */
+        private Color tinted;
+
+        /** The tint of the most recently tinted color. */
+        private Color result;
+
+        /**
+         * Create a tint.
+         * 
+         * @param color
+         *            the tint color. The alpha of the color sets the strength
+         *            of the tint
+         */
+        public Tint(Color color) {
+            super(color);
+        }
+
+        /**
+         * Tint a color. The result for the most recently passed color is
+         * remembered.
+         * 
+         * @param c
+         *            the text color
+         * @return the tinted color
+         */
+        synchronized Color tint(Color c) {
+            if (c != tinted) {
+                float a = color.getAlpha() / 255f;
+                result = new Color(Math.round(c.getRed() * (1 - a)
+                        + color.getRed() * a), Math.round(c.getGreen()
+                        * (1 - a) + color.getGreen() * a), Math.round(c
+                        .getBlue()
+                        * (1 - a) + color.getBlue() * a), c.getAlpha());
+                tinted = c;
+            }
+            return result;
+        }
+
+        /** {@inheritDoc} */
+        int getExtent() {
+            return 0;
+        }
+
+        /** {@inheritDoc} */
+        void apply(byte[] mask, int stride, int w, int h, int extent,
+                float[] transparency) {
+            // The tint applies to the text, not to a layer.
+        }
+    }
+}
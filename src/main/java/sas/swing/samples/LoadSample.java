@@ -0,0 +1,419 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing.samples;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.swing.BoxLayout;
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JViewport;
+import javax.swing.Scrollable;
+import javax.swing.SwingUtilities;
+import javax.swing.border.EmptyBorder;
+import javax.swing.plaf.LabelUI;
+
+import sas.swing.GradientPanel;
+import sas.swing.MultiLineLabel;
+import sas.swing.plaf.MultiLineLabelUI;
+import sas.swing.plaf.MultiLineShadowUI;
+import sas.swing.plaf.ShadowLabelUI;
+
+/**
+ * Load generator for the labels. A scrolling feed of thousands of cards, each
+ * a {@link GradientPanel} with a title and a {@link MultiLineLabel} body, is
+ * driven through scripted phases: scrolling, storms of text changes,
+ * resizing, and all three at once. Each frame applies one step of the phase
+ * and paints the window synchronously. For each phase, the frames per second,
+ * the percentiles of the paint time and the heap usage are printed, so runs
+ * of different versions can be compared. The bodies cycle through the UI
+ * delegates, balanced wrapping included, and the titles use the
+ * {@link ShadowLabelUI}.
+ * <p>
+ * With a display, e.g. under Xvfb on Linux, the feed is shown in a frame:
+ * 
+ * <pre>
+ * xvfb-run java -cp target/classes sas.swing.samples.MultiLineSample --stress [labels] [seconds per phase]
+ * </pre>
+ * 
+ * Headless, the feed is painted to an image of the window size instead:
+ * 
+ * <pre>
+ * java -Djava.awt.headless=true -cp target/classes sas.swing.samples.LoadSample [labels] [seconds per phase]
+ * </pre>
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+public class LoadSample implements Runnable {
+
+    /** Words used to build the label texts. */
+    private static final String[] WORDS = ("Lorem ipsum dolor sit amet "
+            + "consectetur adipiscing elit Phasellus non sapien quam Fusce "
+            + "posuere nisl vitae tristique volutpat augue erat faucibus")
+            .split(" ");
+
+    /** The phases of the script. */
+    private static final String[] PHASES = { "scroll", "setText", "resize",
+            "mixed" };
+
+    /** Window widths the resize phase cycles through. */
+    private static final int[] WIDTHS = { 480, 420, 360, 320, 360, 420, 480,
+            560, 640, 560 };
+
+    /** Window height. */
+    private static final int HEIGHT = 720;
+
+    /** Pixels scrolled per frame. */
+    private static final int SCROLL_STEP = 48;
+
+    /** Labels given a new text per frame of a text storm. */
+    private static final int STORM_SIZE = 64;
+
+    /** Number of cards. */
+    private final int count;
+
+    /** Duration of each phase, in nanoseconds. */
+    private final long phaseNanos;
+
+    /** Random source of the text storms, seeded for repeatable runs. */
+    private final Random random = new Random(42);
+
+    /** The body labels. */
+    private MultiLineLabel[] bodies;
+
+    /** The frame, <code>null</code> when headless. */
+    private JFrame frame;
+
+    /** The painted root. */
+    private JComponent root;
+
+    /** The viewport of the feed. */
+    private JViewport viewport;
+
+    /** Image painted on when headless. */
+    private BufferedImage image;
+
+    /** Scroll direction, 1 or -1. */
+    private int direction = 1;
+
+    /** Index of the current phase. */
+    private int phase;
+
+    /** Frame number within the phase. */
+    private int frameCount;
+
+    /** Start of the current phase. */
+    private long phaseStart;
+
+    /** Paint times of the frames of the current phase, in nanoseconds. */
+    private long[] paintTimes = new long[1024];
+
+    /** Peak heap usage sampled during the phase. */
+    private long peakHeap;
+
+    /**
+     * Create a new load generator.
+     * 
+     * @param count
+     *            number of cards
+     * @param seconds
+     *            duration of each phase
+     */
+    public LoadSample(int count, int seconds) {
+        this.count = count;
+        this.phaseNanos = seconds * 1000000000L;
+    }
+
+    /**
+     * Create the feed and start the script.
+     */
+    public void run() {
+        Feed feed = new Feed();
+        bodies = new MultiLineLabel[count];
+        LabelUI[] uis = { MultiLineLabelUI.labelUI, MultiLineShadowUI.labelUI };
+        for (int i = 0; i < count; i++) {
+            GradientPanel card = new GradientPanel(Color.getHSBColor(
+                    (i % 12) / 12f, 0.4f, 0.5f), Color.DARK_GRAY);
+            card.setCachedBackground(true);
+            card.setLayout(new BorderLayout());
+            card.setBorder(new EmptyBorder(4, 6, 4, 6));
+
+            JLabel title = new JLabel("Card " + (i + 1));
+            Font font = title.getFont().deriveFont(Font.BOLD, 15f);
+            title.setUI(ShadowLabelUI.labelUI);
+            title.setFont(font);
+            title.setForeground(Color.WHITE);
+            card.add(title, BorderLayout.NORTH);
+
+            MultiLineLabel body = new MultiLineLabel(createText(i));
+            font = body.getFont();
+            body.setUI(uis[i % uis.length]);
+            body.setFont(font);
+            body.setForeground(Color.WHITE);
+            if (i % 4 == 3) {
+                body.putClientProperty(MultiLineLabelUI.BALANCED_KEY,
+                        Boolean.TRUE);
+            }
+            card.add(body, BorderLayout.CENTER);
+            bodies[i] = body;
+            feed.add(card);
+        }
+
+        JScrollPane scroll = new JScrollPane(feed);
+        scroll.setBorder(null);
+        viewport = scroll.getViewport();
+
+        if (GraphicsEnvironment.isHeadless()) {
+            // Lightweight peers let the feed validate without a window.
+            root = scroll;
+            root.addNotify();
+        } else {
+            frame = new JFrame("Multiline JLabels under load");
+            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            frame.setContentPane(scroll);
+            frame.setVisible(true);
+            root = frame.getRootPane();
+        }
+        setWidth(WIDTHS[0]);
+
+        System.out.println(count + " labels, "
+                + (frame != null ? "on screen" : "headless"));
+        System.out.println("phase      frames    fps   p50 ms   p90 ms   "
+                + "p99 ms   max ms  heap MB  peak MB");
+        startPhase(0);
+        SwingUtilities.invokeLater(new Step());
+    }
+
+    /**
+     * Create the text of a body, of a length varying with the index.
+     */
+    private static String createText(int i) {
+        StringBuilder text = new StringBuilder();
+        for (int j = 0; j < 6 + (i * 13) % 60; j++) {
+            text.append(WORDS[(i + j * 7) % WORDS.length]);
+            text.append(j % 23 == 22 ? ".\n" : " ");
+        }
+        return text.toString();
+    }
+
+    /**
+     * Resize the window.
+     */
+    private void setWidth(int width) {
+        if (frame != null) {
+            frame.setSize(width, HEIGHT);
+            frame.validate();
+        } else {
+            root.setSize(width, HEIGHT);
+            root.validate();
+            if (image == null || image.getWidth() != width) {
+                image = new BufferedImage(width, HEIGHT,
+                        BufferedImage.TYPE_INT_RGB);
+            }
+        }
+    }
+
+    /**
+     * Reset the statistics for a phase.
+     */
+    private void startPhase(int index) {
+        phase = index;
+        frameCount = 0;
+        peakHeap = 0;
+        phaseStart = System.nanoTime();
+    }
+
+    /**
+     * Apply one step of the current phase.
+     */
+    private void apply() {
+        String name = PHASES[phase];
+        boolean mixed = name.equals("mixed");
+        if (mixed || name.equals("scroll")) {
+            scroll();
+        }
+        if (mixed || name.equals("setText")) {
+            for (int i = 0; i < STORM_SIZE; i++) {
+                int target = random.nextInt(count);
+                bodies[target].setText(createText(random.nextInt(count)));
+            }
+        }
+        if (mixed ? frameCount % 8 == 0 : name.equals("resize")) {
+            setWidth(WIDTHS[(frameCount / (mixed ? 8 : 1)) % WIDTHS.length]);
+        }
+    }
+
+    /**
+     * Scroll the feed, turning at either end.
+     */
+    private void scroll() {
+        Point p = viewport.getViewPosition();
+        int max = viewport.getViewSize().height
+                - viewport.getExtentSize().height;
+        p.y += direction * SCROLL_STEP;
+        if (p.y < 0 || p.y > max) {
+            direction = -direction;
+            p.y = Math.max(0, Math.min(p.y, max));
+        }
+        viewport.setViewPosition(p);
+    }
+
+    /**
+     * Lay out and paint the window, returning the time taken.
+     */
+    private long paint() {
+        long start = System.nanoTime();
+        if (frame != null) {
+            root.validate();
+            root.paintImmediately(0, 0, root.getWidth(), root.getHeight());
+        } else {
+            root.validate();
+            Graphics g = image.createGraphics();
+            root.paint(g);
+            g.dispose();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Print the statistics of the current phase.
+     */
+    private void report(long elapsed) {
+        long[] times = Arrays.copyOf(paintTimes, frameCount);
+        Arrays.sort(times);
+        Runtime rt = Runtime.getRuntime();
+        long heap = rt.totalMemory() - rt.freeMemory();
+        System.out.printf("%-9s %7d %6.1f %8.2f %8.2f %8.2f %8.2f %8d %8d%n",
+                PHASES[phase], frameCount, frameCount * 1e9 / elapsed,
+                percentile(times, 0.5), percentile(times, 0.9), percentile(
+                        times, 0.99), percentile(times, 1), heap >> 20,
+                peakHeap >> 20);
+    }
+
+    /**
+     * Get a percentile of sorted times, in milliseconds.
+     */
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int i = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(i, 0)] / 1e6;
+    }
+
+    /**
+     * One frame of the script. Each frame is posted on its own, so events
+     * posted by the previous frame (e.g., resizes) are dispatched first.
+     */
+    private final class Step implements Runnable {
+
+        /** {@inheritDoc} */
+        public void run() {
+            apply();
+            long time = LoadSample.this.paint();
+            if (frameCount == paintTimes.length) {
+                paintTimes = Arrays.copyOf(paintTimes, 2 * frameCount);
+            }
+            paintTimes[frameCount++] = time;
+            Runtime rt = Runtime.getRuntime();
+            peakHeap = Math.max(peakHeap, rt.totalMemory() - rt.freeMemory());
+
+            long elapsed = System.nanoTime() - phaseStart;
+            if (elapsed >= phaseNanos) {
+                report(elapsed);
+                if (phase + 1 == PHASES.length) {
+                    System.exit(0);
+                }
+                startPhase(phase + 1);
+            }
+            SwingUtilities.invokeLater(this);
+        }
+    }
+
+    /**
+     * Vertical feed of cards, as wide as the viewport.
+     */
+    private static final class Feed extends JPanel implements Scrollable {
+
+        /** Default serial version UID. */
+        private static final long serialVersionUID = 1L;
+
+        Feed() {
+            setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+        }
+
+        /** {@inheritDoc} */
+        public Dimension getPreferredScrollableViewportSize() {
+            return getPreferredSize();
+        }
+
+        /** {@inheritDoc} */
+        public int getScrollableUnitIncrement(Rectangle visibleRect,
+                int orientation, int direction) {
+            return SCROLL_STEP;
+        }
+
+        /** {@inheritDoc} */
+        public int getScrollableBlockIncrement(Rectangle visibleRect,
+                int orientation, int direction) {
+            return visibleRect.height;
+        }
+
+        /** {@inheritDoc} */
+        public boolean getScrollableTracksViewportWidth() {
+            return true;
+        }
+
+        /** {@inheritDoc} */
+        public boolean getScrollableTracksViewportHeight() {
+            return false;
+        }
+    }
+
+    /**
+     * Program entry point.
+     * 
+     * @param args
+     *            optional number of labels and seconds per phase
+     */
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        SwingUtilities.invokeLater(new LoadSample(count, seconds));
+    }
+}
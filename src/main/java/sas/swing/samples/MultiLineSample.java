@@ -28,9 +28,9 @@ import java.awt.Color;
 import java.awt.FlowLayout;
 import java.awt.Font;
 import java.awt.event.ActionEvent;
+import java.util.Arrays;
 
 import javax.swing.AbstractAction;
-import javax.swing.JComponent;
 import javax.swing.JCheckBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -46,6 +46,8 @@ import sas.swing.plaf.MultiLineShadowUI;
 
 /**
  * Sample demonstration some of the capabilities of the {@link MultiLineLabel}.
+ * Run with <code>--stress [labels] [seconds per phase]</code> to put thousands
+ * of labels under scripted load instead, see {@link LoadSample}.
  * 
  * @author Samuel Sjoberg, http://samuelsjoberg.com
  * @version 1.0.0
@@ -59,8 +61,11 @@ public class MultiLineSample implements Runnable {
         JFrame frame = new JFrame("Multiline JLabels");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-        // Use a GradientPanel as ContentPane.
-        JComponent contentPane = new GradientPanel(Color.GRAY, Color.DARK_GRAY);
+        // Use a GradientPanel as ContentPane. The cached background keeps
+        // label updates from repainting the whole frame.
+        GradientPanel contentPane = new GradientPanel(Color.GRAY,
+                Color.DARK_GRAY);
+        contentPane.setCachedBackground(true);
         contentPane.setLayout(new BorderLayout());
         contentPane.setBorder(new EmptyBorder(5, 5, 5, 5));
 
@@ -136,9 +141,14 @@ public class MultiLineSample implements Runnable {
      * Program entry point.
      * 
      * @param args
-     *            not used
+     *            <code>--stress</code>, optionally followed by the number of
+     *            labels and the seconds per phase, to run the load generator
      */
     public static void main(String[] args) {
-        SwingUtilities.invokeLater(new MultiLineSample());
+        if (args.length > 0 && args[0].equals("--stress")) {
+            LoadSample.main(Arrays.copyOfRange(args, 1, args.length));
+        } else {
+            SwingUtilities.invokeLater(new MultiLineSample());
+        }
     }
 }
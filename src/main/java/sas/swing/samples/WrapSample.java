@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing.samples;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+
+import sas.swing.plaf.MultiLineLabelUI;
+
+/**
+ * Benchmark of balanced wrapping against greedy wrapping. Paragraphs of an
+ * increasing number of words are wrapped both ways; the time per paragraph,
+ * the ratio between the two and the width of the shortest line relative to
+ * the widest line are printed. The ratio should stay about the same as the
+ * paragraphs grow, since both ways are linear in the length of the text. Run
+ * it headless:
+ * 
+ * <pre>
+ * java -Djava.awt.headless=true -cp target/classes sas.swing.samples.WrapSample [width]
+ * </pre>
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+public class WrapSample extends MultiLineLabelUI {
+
+    /** Words used to build the paragraphs. */
+    private static final String[] WORDS = ("Lorem ipsum dolor sit amet "
+            + "consectetur adipiscing elit Phasellus non sapien quam Fusce "
+            + "posuere nisl vitae tristique volutpat augue erat faucibus")
+            .split(" ");
+
+    /** Number of words of the paragraphs benchmarked. */
+    private static final int[] SIZES = { 8, 16, 64, 256, 1024, 4096 };
+
+    /**
+     * Create a paragraph.
+     * 
+     * @param words
+     *            number of words
+     * @return the paragraph, in a document
+     */
+    private static Element createParagraph(int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append(WORDS[(i * 7 + i / WORDS.length) % WORDS.length]);
+            text.append(i + 1 < words ? " " : "\n");
+        }
+        PlainDocument doc = new PlainDocument();
+        try {
+            doc.insertString(0, text.toString(), null);
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+        return doc.getDefaultRootElement().getElement(0);
+    }
+
+    /**
+     * Wrap a paragraph repeatedly for at least 100 milliseconds.
+     * 
+     * @return the time per paragraph in nanoseconds
+     */
+    private double time(Element elem, FontMetrics fm, int width,
+            boolean balanced, List<String> lines) {
+        int runs = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            lines.clear();
+            if (balanced) {
+                wrapBalanced(lines, elem, fm, width, Integer.MAX_VALUE);
+            } else {
+                wrap(lines, elem, fm, width, Integer.MAX_VALUE);
+            }
+            runs++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < 100000000L);
+        return (double) elapsed / runs;
+    }
+
+    /**
+     * Get the width of the shortest line relative to the widest line.
+     */
+    private static double evenness(List<String> lines, FontMetrics fm) {
+        int min = Integer.MAX_VALUE, max = 0;
+        for (String line : lines) {
+            int w = fm.stringWidth(line.trim());
+            min = Math.min(min, w);
+            max = Math.max(max, w);
+        }
+        return max == 0 ? 1 : (double) min / max;
+    }
+
+    /**
+     * Program entry point.
+     * 
+     * @param args
+     *            optional wrap width in pixels
+     */
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 240;
+        Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB)
+                .createGraphics();
+        FontMetrics fm = g.getFontMetrics(new Font("Dialog", Font.PLAIN, 13));
+        g.dispose();
+
+        WrapSample ui = new WrapSample();
+        List<String> greedy = new ArrayList<String>();
+        List<String> balanced = new ArrayList<String>();
+        System.out.println(" words  greedy us  balanced us  ratio"
+                + "  lines  shortest/widest");
+        for (int words : SIZES) {
+            Element elem = createParagraph(words);
+            for (int warmup = 0; warmup < 3; warmup++) {
+                ui.time(elem, fm, width, false, greedy);
+                ui.time(elem, fm, width, true, balanced);
+            }
+            double g0 = ui.time(elem, fm, width, false, greedy);
+            double b0 = ui.time(elem, fm, width, true, balanced);
+            System.out.printf("%6d %10.1f %12.1f %6.2f %3d/%-3d %6.2f/%.2f%n",
+                    words, g0 / 1e3, b0 / 1e3, b0 / g0, greedy.size(),
+                    balanced.size(), evenness(greedy, fm), evenness(
+                            balanced, fm));
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing.plaf;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The flight recorder events, loaded by {@link FlightEvents} only when the
+ * <code>jdk.jfr</code> module is present.
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+final class JfrEvents extends FlightEvents {
+
+    /** The event types, checked before an event is created. */
+    private final EventType[] types = {
+            EventType.getEventType(WrapEvent.class),
+            EventType.getEventType(MeasureEvent.class),
+            EventType.getEventType(PaintEvent.class),
+            EventType.getEventType(EffectEvent.class) };
+
+    /** {@inheritDoc} */
+    Object start(int type) {
+        if (!types[type].isEnabled()) {
+            return null;
+        }
+        LabelEvent event;
+        switch (type) {
+        case WRAP:
+            event = new WrapEvent();
+            break;
+        case MEASURE:
+            event = new MeasureEvent();
+            break;
+        case PAINT:
+            event = new PaintEvent();
+            break;
+        default:
+            EffectEvent effect = new EffectEvent();
+            effect.begin();
+            return effect;
+        }
+        event.begin();
+        return event;
+    }
+
+    /** {@inheritDoc} */
+    void commit(Object event, int textLength, int lines, int width,
+            boolean hit) {
+        LabelEvent e = (LabelEvent) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.textLength = textLength;
+            e.lines = lines;
+            e.width = width;
+            if (e instanceof LookupEvent) {
+                ((LookupEvent) e).cacheHit = hit;
+            }
+            e.commit();
+        }
+    }
+
+    /** {@inheritDoc} */
+    void commitEffect(Object event, int textLength, int size, boolean atlas) {
+        EffectEvent e = (EffectEvent) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.textLength = textLength;
+            e.size = size;
+            e.atlas = atlas;
+            e.commit();
+        }
+    }
+
+    /**
+     * Fields of the label events.
+     */
+    @Category( { "Swing", "Multi-line Label" })
+    @StackTrace(false)
+    @Threshold("1 ms")
+    abstract static class LabelEvent extends Event {
+
+        @Label("Text Length")
+        int textLength;
+
+        @Label("Lines")
+        @Description("Number of lines, estimated if wrapped lazily")
+        int lines;
+
+        @Label("Width")
+        @Description("Width available to the text, in pixels")
+        int width;
+
+    }
+
+    /**
+     * Fields of the label events that may find the lines in a cache.
+     */
+    abstract static class LookupEvent extends LabelEvent {
+
+        @Label("Cache Hit")
+        @Description("The lines were found in a cache, the text wasn't wrapped")
+        boolean cacheHit;
+    }
+
+    @Name("sas.swing.Wrap")
+    @Label("Wrap Label Text")
+    static final class WrapEvent extends LabelEvent {
+    }
+
+    @Name("sas.swing.Measure")
+    @Label("Measure Label")
+    static final class MeasureEvent extends LookupEvent {
+    }
+
+    @Name("sas.swing.PaintText")
+    @Label("Paint Label Text")
+    static final class PaintEvent extends LookupEvent {
+    }
+
+    @Name("sas.swing.TextEffect")
+    @Label("Paint Text Effect")
+    @Category( { "Swing", "Multi-line Label" })
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static final class EffectEvent extends Event {
+
+        @Label("Text Length")
+        int textLength;
+
+        @Label("Effect Size")
+        int size;
+
+        @Label("Glyph Atlas")
+        @Description("The effect was painted from the glyph atlas")
+        boolean atlas;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Allocation regression check. Repainting an unchanged label of any of the
+ * {@link GoldenImageTest} scenarios, with any of the UI delegates, must not
+ * allocate any memory in any of the measured rounds, which is checked with
+ * the allocated bytes counter of the thread (if supported by the JVM).
+ * <p>
+ * Java2D allocates for every drawn image, and only the escape analysis of the
+ * JIT compiler removes these allocations. The check runs in a JVM of its own
+ * with <code>-Xbatch</code>, compiling in the foreground so that the same
+ * allocations are eliminated on every run:
+ * 
+ * <pre>
+ * mvn test
+ * </pre>
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+public class AllocationTest {
+
+    /** Number of paints measured for allocations in each round. */
+    private static final int ALLOCATION_PAINTS = 200;
+
+    /**
+     * Number of times all scenarios are painted before they are measured,
+     * letting the JIT compiler settle and remove the allocations Java2D makes
+     * for every drawn image.
+     */
+    private static final int WARMUP_PASSES = 100;
+
+    /**
+     * Maximum number of rounds repainting a scenario before its allocations
+     * are measured.
+     */
+    private static final int SETTLE_ROUNDS = 50;
+
+    /** Number of rounds measuring allocations, none may allocate. */
+    private static final int ALLOCATION_ROUNDS = 5;
+
+    /**
+     * Number of times the allocations of a scenario are measured before it
+     * fails. When the JIT compiler deoptimizes the paint code while a round
+     * is measured, the objects it had eliminated are allocated once.
+     */
+    private static final int ALLOCATION_ATTEMPTS = 2;
+
+    /**
+     * Repaint all scenarios and check that no repaint allocates.
+     */
+    @Test
+    public void repaintsDontAllocate() throws Exception {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(counter.isThreadAllocatedMemorySupported());
+        counter.setThreadAllocatedMemoryEnabled(true);
+
+        List<String> names = new ArrayList<String>();
+        List<MultiLineLabel> labels = GoldenImageTest.createScenarios(names);
+        BufferedImage target = new BufferedImage(GoldenImageTest.WIDTH,
+                GoldenImageTest.HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics g = target.createGraphics();
+        for (int i = 0; i < WARMUP_PASSES; i++) {
+            for (MultiLineLabel label : labels) {
+                paint(label, g);
+            }
+        }
+
+        List<String> failures = new ArrayList<String>();
+        for (int i = 0; i < labels.size(); i++) {
+            long bytes = measureAllocations(counter, labels.get(i), g);
+            if (bytes != 0) {
+                failures.add(names.get(i) + ": " + ALLOCATION_PAINTS
+                        + " repaints allocate " + bytes + " bytes");
+            }
+        }
+        g.dispose();
+        StringBuilder message = new StringBuilder();
+        message.append(failures.size()).append(" scenarios allocate");
+        for (String failure : failures) {
+            message.append('\n').append(failure);
+        }
+        assertTrue(message.toString(), failures.isEmpty());
+    }
+
+    /**
+     * Measure the memory allocated by repainting the label.
+     * 
+     * @return the bytes allocated by the round allocating the most in the
+     *         last attempt
+     */
+    private static long measureAllocations(
+            com.sun.management.ThreadMXBean counter, MultiLineLabel label,
+            Graphics g) {
+        long id = Thread.currentThread().getId();
+        long most = 0;
+        for (int attempt = 0; attempt < ALLOCATION_ATTEMPTS; attempt++) {
+            // The JIT compiler may not be done with the code of this
+            // scenario. Repaint until a round doesn't allocate.
+            for (int round = 0; round < SETTLE_ROUNDS; round++) {
+                if (allocated(counter, id, label, g) == 0) {
+                    break;
+                }
+            }
+
+            most = 0;
+            for (int round = 0; round < ALLOCATION_ROUNDS; round++) {
+                most = Math.max(most, allocated(counter, id, label, g));
+            }
+            if (most == 0) {
+                break;
+            }
+        }
+        return most;
+    }
+
+    /**
+     * Measure the memory allocated by one round of repaints. The bytes
+     * allocated by reading the counter are measured right before the round,
+     * since they change as the JIT compiler compiles the counter, and
+     * subtracted once.
+     */
+    private static long allocated(com.sun.management.ThreadMXBean counter,
+            long id, MultiLineLabel label, Graphics g) {
+        long start = counter.getThreadAllocatedBytes(id);
+        long overhead = counter.getThreadAllocatedBytes(id) - start;
+        start = counter.getThreadAllocatedBytes(id);
+        for (int i = 0; i < ALLOCATION_PAINTS; i++) {
+            paint(label, g);
+        }
+        return counter.getThreadAllocatedBytes(id) - start - overhead;
+    }
+
+    /**
+     * Paint a label with its UI delegate, on a graphics set up the way
+     * <code>JComponent.paint</code> sets it up (painting through
+     * <code>JComponent.paint</code> allocates graphics objects outside of the
+     * delegate).
+     */
+    private static void paint(MultiLineLabel label, Graphics g) {
+        g.setColor(label.getForeground());
+        g.setFont(label.getFont());
+        label.getUI().paint(g, label);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing;
+
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
+import javax.swing.border.EmptyBorder;
+import javax.swing.plaf.LabelUI;
+
+import org.junit.Test;
+
+import sas.swing.plaf.MultiLineLabelUI;
+import sas.swing.plaf.MultiLineShadowUI;
+import sas.swing.plaf.ShadowLabelUI;
+
+/**
+ * Throughput check of the {@link BatchRenderer}. Paints a batch of labels the
+ * normal way, on the event dispatch thread, then renders the same batch with
+ * an increasing number of threads, at least two. Every image must be
+ * identical to the one painted on the event dispatch thread, and the
+ * throughput must grow with the number of threads, up to the number of
+ * processors. Scaling isn't checked on a single processor.
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+public class BatchRendererTest {
+
+    /** Number of labels in the batch. */
+    private static final int COUNT = 600;
+
+    /** Words used to build the label texts. */
+    private static final String[] WORDS = ("Lorem ipsum dolor sit amet "
+            + "consectetur adipiscing elit Phasellus non sapien quam Fusce "
+            + "posuere nisl vitae tristique volutpat augue erat faucibus")
+            .split(" ");
+
+    /** Size of the labels. */
+    private static final int WIDTH = 160, HEIGHT = 90;
+
+    /** Font of the labels. */
+    private static final Font FONT = new Font("Dialog", Font.PLAIN, 13);
+
+    /** Text alignments, cycled through. */
+    private static final int[] ALIGN = { JLabel.LEFT, JLabel.CENTER,
+            JLabel.RIGHT };
+
+    /**
+     * Part of the ideal speedup, the number of threads up to the number of
+     * processors, the renderer must reach.
+     */
+    private static final double MIN_EFFICIENCY = 0.5;
+
+    /**
+     * Get the text of a label in the batch.
+     */
+    private static String getText(int i) {
+        StringBuilder text = new StringBuilder();
+        for (int j = 0; j < 8 + i % 24; j++) {
+            text.append(WORDS[(i + j * 7) % WORDS.length]).append(' ');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Get the UI delegate class of a label in the batch.
+     */
+    private static Class<? extends LabelUI> getUI(int i) {
+        switch (i % 3) {
+        case 0:
+            return MultiLineLabelUI.class;
+        case 1:
+            return MultiLineShadowUI.class;
+        default:
+            return ShadowLabelUI.class;
+        }
+    }
+
+    /**
+     * Create a batch of specs covering all UI delegates and alignments.
+     * 
+     * @param count
+     *            number of specs
+     * @return the specs
+     */
+    private static List<BatchRenderer.Spec> createSpecs(int count) {
+        List<BatchRenderer.Spec> specs = new ArrayList<BatchRenderer.Spec>(
+                count);
+        for (int i = 0; i < count; i++) {
+            BatchRenderer.Spec spec = new BatchRenderer.Spec(getText(i), FONT,
+                    WIDTH, HEIGHT);
+            spec.setUI(getUI(i));
+            spec.setForeground(Color.WHITE);
+            spec.setGradient(Color.GRAY, Color.DARK_GRAY);
+            spec.setBorder(new EmptyBorder(4, 4, 4, 4));
+            spec.setTextAlignment(ALIGN[i % 3], ALIGN[(i / 3) % 3]);
+            specs.add(spec);
+        }
+        return specs;
+    }
+
+    /**
+     * Paint the labels of the batch the normal way, a new label with the
+     * shared UI delegate on a gradient panel, on the event dispatch thread.
+     * 
+     * @param count
+     *            number of labels
+     * @return the images
+     */
+    private static List<BufferedImage> paintReference(final int count)
+            throws InterruptedException, InvocationTargetException {
+        final List<BufferedImage> images = new ArrayList<BufferedImage>(count);
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                LabelUI[] uis = { MultiLineLabelUI.labelUI,
+                        MultiLineShadowUI.labelUI, ShadowLabelUI.labelUI };
+                for (int i = 0; i < count; i++) {
+                    BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+                            BufferedImage.TYPE_INT_ARGB);
+                    Graphics2D g = image.createGraphics();
+                    GradientPanel panel = new GradientPanel(Color.GRAY,
+                            Color.DARK_GRAY);
+                    panel.setSize(WIDTH, HEIGHT);
+                    panel.paint(g);
+
+                    MultiLineLabel label = new MultiLineLabel();
+                    label.setUI(uis[i % 3]);
+                    label.setFont(FONT);
+                    label.setForeground(Color.WHITE);
+                    label.setBorder(new EmptyBorder(4, 4, 4, 4));
+                    label.setHorizontalTextAlignment(ALIGN[i % 3]);
+                    label.setVerticalTextAlignment(ALIGN[(i / 3) % 3]);
+                    label.setText(getText(i));
+                    label.setSize(WIDTH, HEIGHT);
+                    label.paint(g);
+                    g.dispose();
+                    images.add(image);
+                }
+            }
+        });
+        return images;
+    }
+
+    /**
+     * Check if two images have the same pixels.
+     */
+    private static boolean equals(BufferedImage a, BufferedImage b) {
+        int w = a.getWidth(), h = a.getHeight();
+        return w == b.getWidth()
+                && h == b.getHeight()
+                && Arrays.equals(a.getRGB(0, 0, w, h, null, 0, w), b.getRGB(
+                        0, 0, w, h, null, 0, w));
+    }
+
+    /**
+     * Render the batch with an increasing number of threads.
+     */
+    @Test
+    public void rendersLikeEventDispatchThread() throws Exception {
+        List<BatchRenderer.Spec> specs = createSpecs(COUNT);
+        List<BufferedImage> reference = paintReference(COUNT);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        int maxThreads = Math.max(2, cores);
+        double base = 0;
+        double speedup = 1;
+        for (int threads = 1; threads <= maxThreads; threads = threads
+                < maxThreads && threads * 2 > maxThreads ? maxThreads
+                : threads * 2) {
+            BatchRenderer renderer = new BatchRenderer(threads);
+            List<BufferedImage> images;
+            double seconds;
+            try {
+                renderer.render(specs); // Warm up the threads.
+
+                long start = System.nanoTime();
+                images = renderer.render(specs);
+                seconds = (System.nanoTime() - start) / 1e9;
+            } finally {
+                renderer.shutdown();
+            }
+
+            for (int i = 0; i < COUNT; i++) {
+                assertTrue("Image " + i + " differs when rendered on "
+                        + threads + " threads", equals(reference.get(i),
+                        images.get(i)));
+            }
+            double throughput = COUNT / seconds;
+            if (threads == 1) {
+                base = throughput;
+            }
+            if (threads <= cores) {
+                speedup = throughput / base;
+            }
+        }
+
+        if (cores > 1) {
+            assertTrue(String.format(
+                    "Speedup %.2f on %d threads, expected at least %.2f",
+                    speedup, cores, MIN_EFFICIENCY * cores),
+                    speedup >= MIN_EFFICIENCY * cores);
+        }
+    }
+}
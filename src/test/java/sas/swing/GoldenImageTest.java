@@ -0,0 +1,387 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+import javax.swing.Icon;
+import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
+import javax.swing.border.EmptyBorder;
+import javax.swing.plaf.LabelUI;
+
+import org.junit.Test;
+
+import sas.swing.plaf.MultiLineLabelUI;
+import sas.swing.plaf.MultiLineShadowUI;
+import sas.swing.plaf.ShadowLabelUI;
+
+/**
+ * Rendering and paint time regression check. A matrix of {@link MultiLineLabel}
+ * configurations (the three UI delegates, all horizontal and vertical text
+ * alignments, text that fits or is clipped, with or without an icon) is
+ * rendered headless and compared to golden images. Each configuration is also
+ * painted repeatedly and the median paint time is checked against a budget.
+ * The same scenarios are repainted by {@link AllocationTest}.
+ * <p>
+ * Images are compared with a tolerance, allowing small anti-aliasing
+ * differences. A missing golden image fails the check, unless recording is
+ * requested with <code>-Dgolden.record=true</code>, which records the missing
+ * images from the current rendering. Golden images must be recreated when a
+ * rendering change is intended, by running with
+ * <code>-Dgolden.update=true</code>. Renderings differing from their golden
+ * image are written to a directory of their own.
+ * <p>
+ * The golden images are recorded on Linux, so the check is skipped on other
+ * systems. It runs headless with the tests of the build:
+ * 
+ * <pre>
+ * mvn test -Dtest=GoldenImageTest
+ * </pre>
+ * 
+ * The following system properties are supported:
+ * <ul>
+ * <li><code>golden.dir</code>, the golden image directory (default
+ * <code>src/test/resources/golden</code>)</li>
+ * <li><code>golden.actual.dir</code>, the directory of differing renderings
+ * (default <code>target/golden</code>)</li>
+ * <li><code>golden.record</code>, record missing golden images (default
+ * false)</li>
+ * <li><code>golden.update</code>, rewrite all golden images (default false)</li>
+ * <li><code>golden.tolerance</code>, allowed difference per color channel
+ * (default 16)</li>
+ * <li><code>golden.budget</code>, paint time budget in milliseconds of the
+ * plain UI; the shadow UIs get four times as much (default 5)</li>
+ * </ul>
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+public class GoldenImageTest {
+
+    /** Text that fits in the label. */
+    private static final String SHORT_TEXT = "Lorem ipsum dolor sit amet,\n"
+            + "consectetur adipiscing elit.";
+
+    /** Text that fits on a single line of the label. */
+    private static final String SINGLE_TEXT = "Lorem ipsum dolor";
+
+    /** Text that is clipped by the label. */
+    private static final String LONG_TEXT = "Lorem ipsum dolor sit amet, "
+            + "consectetur adipiscing elit. Phasellus non sapien quam. Fusce "
+            + "posuere, nisl vitae tristique volutpat, augue erat faucibus "
+            + "nisl, nec venenatis metus sem vel enim.";
+
+    /** Label width. */
+    static final int WIDTH = 160;
+
+    /**
+     * Label height, leaving room below and above the short text so that its
+     * vertical alignments render differently.
+     */
+    static final int HEIGHT = 120;
+
+    /** Fraction of pixels allowed to differ beyond the tolerance. */
+    private static final double MAX_DIFFERING = 0.002;
+
+    /** Number of timed paints. */
+    private static final int PAINTS = 50;
+
+    /**
+     * Number of times all scenarios are painted before they are checked,
+     * letting the JIT compiler settle.
+     */
+    private static final int WARMUP_PASSES = 100;
+
+    /** Alignment names, used in image names. */
+    private static final String[] ALIGN_NAMES = { "left", "center", "right" };
+
+    /** Horizontal alignments. */
+    private static final int[] HALIGN = { JLabel.LEFT, JLabel.CENTER,
+            JLabel.RIGHT };
+
+    /** Vertical alignment names, used in image names. */
+    private static final String[] VALIGN_NAMES = { "top", "center", "bottom" };
+
+    /** Vertical alignments. */
+    private static final int[] VALIGN = { JLabel.TOP, JLabel.CENTER,
+            JLabel.BOTTOM };
+
+    /** Golden image directory. */
+    private final File dir = new File(System.getProperty("golden.dir",
+            "src/test/resources/golden"));
+
+    /** Directory of the renderings differing from their golden image. */
+    private final File actualDir = new File(System.getProperty(
+            "golden.actual.dir", "target/golden"));
+
+    /** Flag telling if missing golden images should be recorded. */
+    private final boolean record = Boolean.getBoolean("golden.record");
+
+    /** Flag telling if golden images should be rewritten. */
+    private final boolean update = Boolean.getBoolean("golden.update");
+
+    /** Allowed difference per color channel. */
+    private final int tolerance = Integer.getInteger("golden.tolerance", 16);
+
+    /** Paint time budget of the plain UI, in nanoseconds. */
+    private final long budget = Integer.getInteger("golden.budget", 5) * 1000000L;
+
+    /** Failure messages. */
+    private final List<String> failures = new ArrayList<String>();
+
+    /** Number of recorded golden images. */
+    private int recorded;
+
+    /**
+     * Run all scenarios.
+     * 
+     * @throws IOException
+     *             if an image can't be read or written
+     */
+    @Test
+    public void goldenImages() throws Exception {
+        assumeTrue(System.getProperty("os.name").startsWith("Linux"));
+        List<String> names = new ArrayList<String>();
+        List<MultiLineLabel> labels = createScenarios(names);
+
+        BufferedImage target = new BufferedImage(WIDTH, HEIGHT,
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics g = target.createGraphics();
+        for (int i = 0; i < WARMUP_PASSES; i++) {
+            for (MultiLineLabel label : labels) {
+                label.getUI().paint(g, label);
+            }
+        }
+        g.dispose();
+
+        int scenarios = labels.size();
+        for (int i = 0; i < scenarios; i++) {
+            check(names.get(i), labels.get(i), names.get(i).startsWith(
+                    "plain") ? budget : 4 * budget);
+        }
+        System.out.println(scenarios + " scenarios, " + recorded
+                + " golden images recorded, " + failures.size()
+                + " failures");
+        StringBuilder message = new StringBuilder();
+        message.append(failures.size()).append(
+                " golden image scenarios failed");
+        for (String failure : failures) {
+            message.append('\n').append(failure);
+        }
+        assertTrue(message.toString(), failures.isEmpty());
+    }
+
+    /**
+     * Create the labels of all scenarios, sized and ready to be painted.
+     * 
+     * @param names
+     *            list the names of the scenarios are added to
+     * @return the labels, in the order of their names
+     * @throws Exception
+     *             if the event dispatch thread fails to handle the resizing
+     */
+    static List<MultiLineLabel> createScenarios(List<String> names)
+            throws Exception {
+        LabelUI[] uis = { new MultiLineLabelUI(), new MultiLineShadowUI(),
+                new ShadowLabelUI() };
+        String[] uiNames = { "plain", "shadow", "single" };
+        List<MultiLineLabel> labels = new ArrayList<MultiLineLabel>();
+        for (int u = 0; u < uis.length; u++) {
+            for (int h = 0; h < HALIGN.length; h++) {
+                for (int v = 0; v < VALIGN.length; v++) {
+                    for (int clipped = 0; clipped < 2; clipped++) {
+                        for (int icon = 0; icon < 2; icon++) {
+                            String name = uiNames[u] + "-" + ALIGN_NAMES[h]
+                                    + "-" + VALIGN_NAMES[v]
+                                    + (clipped == 1 ? "-clipped" : "")
+                                    + (icon == 1 ? "-icon" : "");
+                            names.add(name);
+                            labels.add(createLabel(uis[u], HALIGN[h],
+                                    VALIGN[v], clipped == 1, icon == 1));
+                        }
+                    }
+                }
+            }
+        }
+
+        // Sizing the labels posts events clearing their layouts, let the
+        // event dispatch thread handle them before the labels are measured.
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+            }
+        });
+        return labels;
+    }
+
+    /**
+     * Create a label of a scenario.
+     */
+    private static MultiLineLabel createLabel(LabelUI ui, int halign,
+            int valign, boolean clipped, boolean icon) {
+        MultiLineLabel label = new MultiLineLabel();
+        label.setUI(ui);
+        label.setFont(new Font("Dialog", Font.PLAIN, 12));
+        label.setForeground(Color.WHITE);
+        label.setBorder(new EmptyBorder(3, 3, 3, 3));
+        label.setHorizontalTextAlignment(halign);
+        label.setVerticalTextAlignment(valign);
+        // The single line delegate aligns the text like any label.
+        label.setHorizontalAlignment(halign);
+        label.setVerticalAlignment(valign);
+        label.setText(clipped ? LONG_TEXT
+                : ui instanceof ShadowLabelUI ? SINGLE_TEXT : SHORT_TEXT);
+        if (icon) {
+            label.setIcon(new SquareIcon());
+        }
+        label.setSize(WIDTH, HEIGHT);
+        return label;
+    }
+
+    /**
+     * Render a scenario, compare it to its golden image and time its paints.
+     */
+    private void check(String name, MultiLineLabel label, long budget)
+            throws IOException {
+        BufferedImage image = render(label);
+        File golden = new File(dir, name + ".png");
+        if (update || (record && !golden.isFile())) {
+            dir.mkdirs();
+            ImageIO.write(image, "png", golden);
+            recorded++;
+        } else if (!golden.isFile()) {
+            failures.add(name + ": no golden image " + golden
+                    + ", record it with -Dgolden.record=true");
+        } else {
+            String diff = compare(ImageIO.read(golden), image);
+            if (diff != null) {
+                failures.add(name + ": " + diff);
+                actualDir.mkdirs();
+                ImageIO.write(image, "png", new File(actualDir, name + ".png"));
+            }
+        }
+
+        long[] times = new long[PAINTS];
+        BufferedImage target = new BufferedImage(WIDTH, HEIGHT,
+                BufferedImage.TYPE_INT_ARGB);
+        for (int i = -PAINTS; i < PAINTS; i++) {
+            Graphics g = target.createGraphics();
+            long start = System.nanoTime();
+            label.paint(g);
+            long time = System.nanoTime() - start;
+            g.dispose();
+            if (i >= 0) {
+                times[i] = time;
+            }
+        }
+        Arrays.sort(times);
+        long median = times[PAINTS / 2];
+        if (median > budget) {
+            failures.add(name + ": median paint time " + median / 1000
+                    + " us exceeds budget of " + budget / 1000 + " us");
+        }
+    }
+
+    /**
+     * Render a label on an opaque background.
+     */
+    private static BufferedImage render(MultiLineLabel label) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.GRAY);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        label.paint(g);
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Compare an image to its golden image.
+     * 
+     * @return a description of the difference, or <code>null</code> if the
+     *         images are equal within the tolerance
+     */
+    private String compare(BufferedImage golden, BufferedImage image) {
+        if (golden.getWidth() != WIDTH || golden.getHeight() != HEIGHT) {
+            return "golden image is " + golden.getWidth() + "x"
+                    + golden.getHeight();
+        }
+        int differing = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int a = golden.getRGB(x, y);
+                int b = image.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    if (Math.abs(((a >> shift) & 0xff) - ((b >> shift) & 0xff)) > tolerance) {
+                        differing++;
+                        break;
+                    }
+                }
+            }
+        }
+        if (differing > MAX_DIFFERING * WIDTH * HEIGHT) {
+            return differing + " pixels differ from the golden image";
+        }
+        return null;
+    }
+
+    /**
+     * Small opaque icon.
+     */
+    private static final class SquareIcon implements Icon {
+
+        /** {@inheritDoc} */
+        public void paintIcon(Component c, Graphics g, int x, int y) {
+            g.setColor(Color.ORANGE);
+            g.fillRect(x, y, 16, 16);
+            g.setColor(Color.BLACK);
+            g.drawRect(x, y, 15, 15);
+        }
+
+        /** {@inheritDoc} */
+        public int getIconWidth() {
+            return 16;
+        }
+
+        /** {@inheritDoc} */
+        public int getIconHeight() {
+            return 16;
+        }
+    }
+}
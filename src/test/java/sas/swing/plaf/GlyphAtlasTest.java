@@ -0,0 +1,158 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing.plaf;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the cells of a glyph atlas survive the eviction of its pages.
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+public class GlyphAtlasTest {
+
+    /** Bytes held by an atlas page. */
+    private static final long PAGE_BYTES = 4L * 512 * 512;
+
+    /** Large font, so that a page holds few glyphs. */
+    private static final Font FONT = new Font("Dialog", Font.PLAIN, 96);
+
+    /** Effect size. */
+    private static final int SIZE = 4;
+
+    /** Budget of the atlases before the test. */
+    private long budget;
+
+    @Before
+    public void setUp() {
+        budget = GlyphAtlas.getBudget();
+        // Release the pages of other tests, then allow two pages.
+        GlyphAtlas.setBudget(0);
+        GlyphAtlas.setBudget(2 * PAGE_BYTES);
+    }
+
+    @After
+    public void tearDown() {
+        GlyphAtlas.setBudget(budget);
+    }
+
+    @Test
+    public void evictedCurrentPageStartsNewPage() {
+        Color color = new Color(0x123456);
+
+        // Fill the first page of the atlas and start its second page.
+        StringBuilder first = new StringBuilder();
+        char c = 'A';
+        while (GlyphAtlas.getUsed() < 2 * PAGE_BYTES) {
+            String s = String.valueOf(c++);
+            assertTrue(paint(s, color) != null);
+            if (GlyphAtlas.getUsed() == PAGE_BYTES) {
+                first.append(s);
+            }
+        }
+        String onFirstPage = first.toString();
+        int[] expected = paint(onFirstPage, color);
+
+        // Draw the first page, leaving the current page least recently drawn,
+        // then evict it with a page of another atlas.
+        paint(onFirstPage, color);
+        paint("A", Color.RED);
+        assertEquals(2 * PAGE_BYTES, GlyphAtlas.getUsed());
+
+        // A new glyph must not be put on the full first page.
+        paint(String.valueOf(c), color);
+        assertArrayEquals(expected, paint(onFirstPage, color));
+    }
+
+    @Test
+    public void fractionalMetricsAreNotPaintedFromAtlas() {
+        BufferedImage image = new BufferedImage(16, 16,
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setFont(FONT);
+        g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS,
+                RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+        assertFalse(GlyphAtlas.paintEffect(g, "A", Color.BLACK, SIZE, 0, 0,
+                true));
+        g.dispose();
+    }
+
+    /**
+     * Paint the effect of a string from the atlas.
+     * 
+     * @return the pixels painted, or <code>null</code> if the atlas didn't
+     *         paint the string
+     */
+    private static int[] paint(String s, Color color) {
+        BufferedImage image = new BufferedImage(120 * s.length(), 160,
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setFont(FONT);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        boolean painted = GlyphAtlas.paintEffect(g, s, color, SIZE, 10, 120,
+                true);
+        g.dispose();
+        return painted ? ((DataBufferInt) image.getRaster().getDataBuffer())
+                .getData() : null;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing.plaf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
+import javax.swing.text.Document;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import sas.swing.MultiLineLabel;
+
+/**
+ * Checks that the shared {@link LayoutCache} only hands out lines wrapped by
+ * the rules of {@link MultiLineLabelUI} to delegates wrapping by the same
+ * rules.
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+public class LayoutCacheTest {
+
+    /** Text wrapped by the labels. */
+    private static final String TEXT = "Lorem ipsum dolor sit amet";
+
+    /** Size of the labels, wide enough to fit the text on one line. */
+    private static final int WIDTH = 400, HEIGHT = 200;
+
+    /** Budget of the shared layout cache before the test. */
+    private long budget;
+
+    /**
+     * UI delegate remembering the lines it painted last.
+     */
+    private static class ProbeUI extends MultiLineLabelUI {
+
+        /** The lines painted last. */
+        List<String> lines;
+
+        /** {@inheritDoc} */
+        protected List<String> getTextLines(JLabel l) {
+            lines = super.getTextLines(l);
+            return lines;
+        }
+    }
+
+    /**
+     * UI delegate breaking the text after every character.
+     */
+    private static final class BreakingUI extends ProbeUI {
+
+        /** {@inheritDoc} */
+        protected int calculateBreakPosition(Document doc, int p0, int p1,
+                FontMetrics fm, int width) {
+            return p0 + 1;
+        }
+    }
+
+    @Before
+    public void emptyCache() {
+        LayoutCache cache = LayoutCache.getSharedInstance();
+        budget = cache.getBudget();
+        cache.clear();
+    }
+
+    @After
+    public void restoreCache() {
+        LayoutCache cache = LayoutCache.getSharedInstance();
+        cache.clear();
+        cache.setBudget(budget);
+    }
+
+    @Test
+    public void customBreaksAreNotShared() throws Exception {
+        ProbeUI stock = new ProbeUI();
+        paint(stock);
+        assertEquals(1, stock.lines.size());
+        assertTrue(LayoutCache.getSharedInstance().size() > 0);
+
+        BreakingUI breaking = new BreakingUI();
+        paint(breaking);
+        assertTrue(breaking.lines.size() >= TEXT.length());
+
+        // The stock lines are still shared with other stock delegates.
+        ProbeUI other = new ProbeUI();
+        paint(other);
+        assertEquals(stock.lines, other.lines);
+    }
+
+    /**
+     * Paint a label showing the text with the delegate.
+     * 
+     * @param ui
+     *            the delegate
+     */
+    private static void paint(MultiLineLabelUI ui) throws Exception {
+        final MultiLineLabel label = new MultiLineLabel(ui);
+        // Resizing posts an event clearing the state, so paint on the event
+        // dispatch thread once it has been handled.
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                label.setText(TEXT);
+                label.setSize(WIDTH, HEIGHT);
+            }
+        });
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+                        BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g = image.createGraphics();
+                label.paint(g);
+                g.dispose();
+            }
+        });
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing.plaf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that a {@link LayoutStore} keeps layouts between runs within its
+ * budget, and can replace its own file.
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+public class LayoutStoreTest {
+
+    /** Font of the layouts. */
+    private static final Font FONT = new Font("Dialog", Font.PLAIN, 12);
+
+    /** Font render context of the layouts. */
+    private static final FontRenderContext FRC = new FontRenderContext(null,
+            false, false);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void layoutsAreKeptBetweenRuns() throws Exception {
+        File file = folder.newFile("layouts.bin");
+        LayoutStore store = LayoutStore.open(file);
+        store.put(key("Lorem ipsum"), Arrays.asList("Lorem ", "ipsum\n"));
+        store.save();
+
+        // Saving again replaces the file the store was opened from.
+        store = LayoutStore.open(file);
+        assertEquals(Arrays.asList("Lorem ", "ipsum\n"), store
+                .get(key("Lorem ipsum")));
+        store.save();
+
+        store = LayoutStore.open(file);
+        assertEquals(Arrays.asList("Lorem ", "ipsum\n"), store
+                .get(key("Lorem ipsum")));
+        assertNull(store.get(key("Lorem ipsun")));
+        assertEquals(1, store.getHitCount());
+    }
+
+    @Test
+    public void layoutsToSaveAreBounded() {
+        LayoutStore store = LayoutStore.open(new File(folder.getRoot(),
+                "bounded.bin"));
+        store.setBudget(1024);
+        for (int i = 0; i < 1000; i++) {
+            String text = "Lorem ipsum " + i;
+            List<String> lines = Arrays.asList("Lorem ", "ipsum " + i + '\n');
+            store.put(key(text), lines);
+        }
+        assertTrue(store.size() > 0);
+        assertTrue(store.size() < 1000);
+
+        // The most recently added layouts are kept.
+        assertEquals(Arrays.asList("Lorem ", "ipsum 999\n"), store
+                .get(key("Lorem ipsum 999")));
+    }
+
+    /**
+     * Create the key of a text wrapped to 100 pixels.
+     */
+    private static LayoutCache.Key key(String text) {
+        return new LayoutCache.Key(text, FONT, FRC, 100);
+    }
+}
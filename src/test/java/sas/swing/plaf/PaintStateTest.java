@@ -0,0 +1,158 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 Samuel Sjoberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sas.swing.plaf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Graphics2D;
+import java.awt.event.HierarchyEvent;
+import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import sas.swing.MultiLineLabel;
+
+/**
+ * Checks that a label only keeps the state remembered between paints while
+ * it is showing. Once hidden, the wrapped lines must only be reachable
+ * through the shared {@link LayoutCache}, which is given no budget here so
+ * that it keeps nothing.
+ * 
+ * @author Samuel Sjoberg, http://samuelsjoberg.com
+ * @version 1.0.0
+ */
+public class PaintStateTest {
+
+    /** Budget of the shared layout cache before the test. */
+    private long budget;
+
+    /**
+     * UI delegate remembering the lines it wrapped, weakly.
+     */
+    private static final class ProbeUI extends MultiLineLabelUI {
+
+        /** All lines wrapped, a paint may wrap more than once. */
+        final List<WeakReference<List<String>>> lines =
+                new ArrayList<WeakReference<List<String>>>();
+
+        /** {@inheritDoc} */
+        protected List<String> prepareLines(JLabel l) {
+            List<String> prepared = super.prepareLines(l);
+            lines.add(new WeakReference<List<String>>(prepared));
+            return prepared;
+        }
+
+        /**
+         * Count the wrapped lines still reachable.
+         * 
+         * @return the number of lines not yet collected
+         */
+        int retained() {
+            int count = 0;
+            for (WeakReference<List<String>> ref : lines) {
+                if (ref.get() != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    @Before
+    public void emptyCache() {
+        LayoutCache cache = LayoutCache.getSharedInstance();
+        budget = cache.getBudget();
+        cache.setBudget(0);
+    }
+
+    @After
+    public void restoreCache() {
+        LayoutCache.getSharedInstance().setBudget(budget);
+    }
+
+    @Test
+    public void hiddenLabelDropsState() throws Exception {
+        final ProbeUI ui = new ProbeUI();
+        final MultiLineLabel label = new MultiLineLabel(ui);
+        // Resizing posts an event clearing the state, so paint on the event
+        // dispatch thread once it has been handled.
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                label.setText("Lorem ipsum dolor sit amet, consectetur "
+                        + "adipiscing elit. Phasellus non sapien quam.");
+                label.setSize(120, 200);
+            }
+        });
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                BufferedImage image = new BufferedImage(120, 200,
+                        BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g = image.createGraphics();
+                label.paint(g);
+                g.dispose();
+            }
+        });
+
+        // While showing, the state keeps the lines.
+        collectGarbage();
+        assertNotNull(label.getClientProperty(MultiLineLabelUI.STATE_KEY));
+        assertTrue(ui.retained() > 0);
+
+        // Headless labels can't be shown, so tell the label it was hidden.
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                label.dispatchEvent(new HierarchyEvent(label,
+                        HierarchyEvent.HIERARCHY_CHANGED, label, null,
+                        HierarchyEvent.SHOWING_CHANGED));
+            }
+        });
+        collectGarbage();
+        assertNull(label.getClientProperty(MultiLineLabelUI.STATE_KEY));
+        assertEquals("lines retained by the hidden label", 0, ui.retained());
+    }
+
+    /**
+     * Run the garbage collector a few times, clearing weak references.
+     * 
+     * @throws InterruptedException
+     *             if interrupted while waiting for the collector
+     */
+    private static void collectGarbage() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+    }
+}